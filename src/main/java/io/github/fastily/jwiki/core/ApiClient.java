@@ -3,18 +3,32 @@ package io.github.fastily.jwiki.core;
 import java.io.IOException;
 import java.net.CookieManager;
 import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.FormBody;
 import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
 import okhttp3.JavaNetCookieJar;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.brotli.BrotliInterceptor;
+import okio.BufferedSink;
 
 /**
  * Functions which perform {@code GET} and {@code POST} requests to the MediaWiki api and returns Response objects in a suitable format.
@@ -29,11 +43,43 @@ class ApiClient
 	 */
 	private static final MediaType octetstream = MediaType.parse("application/octet-stream");
 
+	/**
+	 * Connection pools, keyed by their settings ({@code maxIdleConnections|keepAlive}). ApiClients with the same connection pool settings share a pool, so that they can reuse each other's (TLS)
+	 * connections. A pool holds connections to any number of hosts, so there is one pool per distinct pair of settings used in the JVM, however many Wikis are created.
+	 */
+	private static final HashMap<String, ConnectionPool> sharedPools = new HashMap<>();
+
+	/**
+	 * Dispatchers, keyed by hostname. ApiClients pointing at the same host share a Dispatcher, so that the limits on concurrent requests apply to the host, however many Wikis point at it. There is
+	 * one Dispatcher per host used in the JVM, and an idle Dispatcher holds no threads.
+	 */
+	private static final HashMap<String, Dispatcher> sharedDispatchers = new HashMap<>();
+
+	/**
+	 * Response caches, keyed by directory. A cache directory must only be opened once per JVM, so ApiClients configured with the same directory share a cache.
+	 */
+	private static final HashMap<Path, Cache> sharedCaches = new HashMap<>();
+
 	/**
 	 * HTTP client used for all requests.
 	 */
 	protected final OkHttpClient client;
 
+	/**
+	 * Limits the rate at which this ApiClient sends requests.
+	 */
+	protected final RateLimiter limiter;
+
+	/**
+	 * Counts the bytes received by this ApiClient.
+	 */
+	protected final TrafficStats traffic = new TrafficStats();
+
+	/**
+	 * Stores the cookies of this ApiClient.
+	 */
+	protected final CookieManager cookieManager;
+
 	/**
 	 * The Wiki object tied to this ApiClient.
 	 */
@@ -49,14 +95,91 @@ class ApiClient
 	protected ApiClient(Wiki wiki, Proxy proxy, CookieManager cookieManager)
 	{
 		this.wiki = wiki;
+		this.cookieManager = cookieManager == null ? new CookieManager() : cookieManager;
+		limiter = new RateLimiter(wiki.conf);
 
-		OkHttpClient.Builder builder = new OkHttpClient.Builder().cookieJar(new JavaNetCookieJar(cookieManager == null ? new CookieManager() : cookieManager)).readTimeout(2, TimeUnit.MINUTES);
+		OkHttpClient.Builder builder = new OkHttpClient.Builder().connectionPool(sharedPool(wiki.conf)).dispatcher(sharedDispatcher(wiki.conf)).cookieJar(new JavaNetCookieJar(this.cookieManager))
+				.readTimeout(2, TimeUnit.MINUTES).protocols(wiki.conf.http2 ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+				.addInterceptor(limiter).addInterceptor(traffic.decodedCounter()).addInterceptor(BrotliInterceptor.INSTANCE).addNetworkInterceptor(TrafficStats.wireCounter());
 		if (proxy != null)
 			builder.proxy(proxy);
+		if (wiki.conf.responseCacheDir != null)
+			builder.cache(sharedCache(wiki.conf)).addNetworkInterceptor(ApiClient::applyTTL);
 
 		client = builder.build();
 	}
 
+	/**
+	 * Gets the shared connection pool for the connection pool settings of a Conf, creating it if necessary.
+	 * 
+	 * @param conf The Conf to get a connection pool for.
+	 * @return The connection pool.
+	 */
+	private static synchronized ConnectionPool sharedPool(Conf conf)
+	{
+		return sharedPools.computeIfAbsent(String.format("%d|%d", conf.maxIdleConnections, conf.keepAlive.toMillis()),
+				k -> new ConnectionPool(conf.maxIdleConnections, conf.keepAlive.toMillis(), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Gets the shared Dispatcher for the host of a Conf, creating it if necessary. If Wikis pointing at the same host are configured with different limits on concurrent requests, the lowest
+	 * limits apply.
+	 * 
+	 * @param conf The Conf to get a Dispatcher for.
+	 * @return The Dispatcher.
+	 */
+	private static synchronized Dispatcher sharedDispatcher(Conf conf)
+	{
+		Dispatcher d = sharedDispatchers.get(conf.hostname);
+		if (d == null)
+		{
+			d = new Dispatcher();
+			d.setMaxRequests(conf.maxRequests);
+			d.setMaxRequestsPerHost(conf.maxRequestsPerHost);
+			sharedDispatchers.put(conf.hostname, d);
+		}
+		else
+		{
+			d.setMaxRequests(Math.min(d.getMaxRequests(), conf.maxRequests));
+			d.setMaxRequestsPerHost(Math.min(d.getMaxRequestsPerHost(), conf.maxRequestsPerHost));
+		}
+
+		return d;
+	}
+
+	/**
+	 * Gets the shared response cache for the cache directory of a Conf, opening it if necessary.
+	 * 
+	 * @param conf The Conf to get a response cache for. PRECONDITION: {@link Conf#responseCacheDir} is not null.
+	 * @return The response cache.
+	 */
+	private static synchronized Cache sharedCache(Conf conf)
+	{
+		return sharedCaches.computeIfAbsent(conf.responseCacheDir.toAbsolutePath().normalize(), k -> new Cache(k.toFile(), conf.responseCacheSize));
+	}
+
+	/**
+	 * Network interceptor which decides whether a Response may be stored in the response cache. The MediaWiki api marks its responses as uncacheable, so responses to Requests tagged with a TTL (see
+	 * {@link #basicGET(HashMap, Duration)}) are rewritten to be cacheable for that long, unless they are errors or set cookies. All other responses are marked as not to be stored.
+	 * 
+	 * @param chain The interceptor chain
+	 * @return The Response, with its caching headers rewritten.
+	 * @throws IOException Network error
+	 */
+	private static Response applyTTL(Interceptor.Chain chain) throws IOException
+	{
+		Response r = chain.proceed(chain.request());
+		Duration ttl = chain.request().tag(Duration.class);
+
+		Response.Builder rb = r.newBuilder().removeHeader("Pragma").removeHeader("Expires");
+		if (ttl != null && r.isSuccessful() && r.header("MediaWiki-API-Error") == null && r.header("Set-Cookie") == null)
+			rb.header("Cache-Control", "max-age=" + ttl.getSeconds());
+		else
+			rb.header("Cache-Control", "no-store");
+
+		return rb.build();
+	}
+
 	/**
 	 * Create a basic Request template which serves as the basis for any Request objects.
 	 * 
@@ -72,7 +195,21 @@ class ApiClient
 	}
 
 	/**
-	 * Basic {@code GET} to the MediaWiki api.
+	 * Creates a {@code GET} Request to the MediaWiki api. If the encoded url would be longer than {@link Conf#maxURLLength}, then a form-data {@code POST} Request with the same parameters is created
+	 * instead.
+	 * 
+	 * @param params Any URL parameters (not URL-encoded).
+	 * @param ttl How long the Response may be served from the response cache, if there is one. Set null to never cache it.
+	 * @return The Request
+	 */
+	private Request getReq(HashMap<String, String> params, Duration ttl)
+	{
+		Request r = startReq(params).get().tag(Duration.class, ttl).build();
+		return r.url().toString().length() <= wiki.conf.maxURLLength ? r : startReq(new HashMap<>()).post(formBody(params)).build();
+	}
+
+	/**
+	 * Basic {@code GET} to the MediaWiki api. Automatically falls back to {@code POST} if the url would be too long.
 	 * 
 	 * @param params Any URL parameters (not URL-encoded).
 	 * @return A Response object with the result of this Request.
@@ -80,7 +217,21 @@ class ApiClient
 	 */
 	protected Response basicGET(HashMap<String, String> params) throws IOException
 	{
-		return client.newCall(startReq(params).get().build()).execute();
+		return basicGET(params, null);
+	}
+
+	/**
+	 * Basic {@code GET} to the MediaWiki api, whose Response may be served from the response cache (see {@link Wiki.Builder#withResponseCache(java.nio.file.Path, long)}). Automatically falls back
+	 * to (uncached) {@code POST} if the url would be too long.
+	 * 
+	 * @param params Any URL parameters (not URL-encoded).
+	 * @param ttl How long the Response may be served from the response cache. Set null to never cache it.
+	 * @return A Response object with the result of this Request.
+	 * @throws IOException Network error
+	 */
+	protected Response basicGET(HashMap<String, String> params, Duration ttl) throws IOException
+	{
+		return execute(getReq(params, ttl));
 	}
 
 	/**
@@ -92,11 +243,114 @@ class ApiClient
 	 * @throws IOException Network error
 	 */
 	protected Response basicPOST(HashMap<String, String> params, HashMap<String, String> form) throws IOException
+	{
+		return execute(startReq(params).post(formBody(form)).build());
+	}
+
+	/**
+	 * Basic asynchronous {@code GET} to the MediaWiki api. The request is queued on the HTTP client's dispatcher, so no thread is blocked while it is in flight. Automatically falls back to
+	 * {@code POST} if the url would be too long.
+	 * 
+	 * @param params Any URL parameters (not URL-encoded).
+	 * @return A CompletableFuture which completes with the Response of this Request, or exceptionally on network error.
+	 */
+	protected CompletableFuture<Response> basicGETAsync(HashMap<String, String> params)
+	{
+		return basicGETAsync(params, null);
+	}
+
+	/**
+	 * Basic asynchronous {@code GET} to the MediaWiki api, whose Response may be served from the response cache (see {@link Wiki.Builder#withResponseCache(java.nio.file.Path, long)}).
+	 * Automatically falls back to (uncached) {@code POST} if the url would be too long.
+	 * 
+	 * @param params Any URL parameters (not URL-encoded).
+	 * @param ttl How long the Response may be served from the response cache. Set null to never cache it.
+	 * @return A CompletableFuture which completes with the Response of this Request, or exceptionally on network error.
+	 */
+	protected CompletableFuture<Response> basicGETAsync(HashMap<String, String> params, Duration ttl)
+	{
+		return enqueue(getReq(params, ttl));
+	}
+
+	/**
+	 * Basic asynchronous form-data {@code POST} to the MediaWiki api. The request is queued on the HTTP client's dispatcher, so no thread is blocked while it is in flight.
+	 * 
+	 * @param params Any URL parameters (not URL-encoded).
+	 * @param form The Key-Value form parameters to {@code POST}.
+	 * @return A CompletableFuture which completes with the Response of this Request, or exceptionally on network error.
+	 */
+	protected CompletableFuture<Response> basicPOSTAsync(HashMap<String, String> params, HashMap<String, String> form)
+	{
+		return enqueue(startReq(params).post(formBody(form)).build());
+	}
+
+	/**
+	 * Creates a url-encoded form body from the specified Key-Value pairs.
+	 * 
+	 * @param form The Key-Value form parameters to encode.
+	 * @return A FormBody with the contents of {@code form}
+	 */
+	private static FormBody formBody(HashMap<String, String> form)
 	{
 		FormBody.Builder fb = new FormBody.Builder();
 		form.forEach(fb::add);
 
-		return client.newCall(startReq(params).post(fb.build()).build()).execute();
+		return fb.build();
+	}
+
+	/**
+	 * Sends a Request on the calling thread, once the rate limiter allows it.
+	 * 
+	 * @param r The Request to send
+	 * @return The Response of {@code r}
+	 * @throws IOException Network error, or if the calling thread was interrupted while waiting for the rate limiter.
+	 */
+	private Response execute(Request r) throws IOException
+	{
+		limiter.acquire();
+		return client.newCall(r).execute();
+	}
+
+	/**
+	 * Queues a Request on the HTTP client's dispatcher and bridges the result into a CompletableFuture. Cancelling the returned CompletableFuture cancels the underlying Call. If the rate limiter
+	 * asks us to wait, the Request is queued once the wait is over, so no thread is blocked in the meantime.
+	 * 
+	 * @param r The Request to queue
+	 * @return A CompletableFuture which completes with the Response of {@code r}, or exceptionally on network error.
+	 */
+	private CompletableFuture<Response> enqueue(Request r)
+	{
+		CompletableFuture<Response> cf = new CompletableFuture<>();
+
+		Call call = client.newCall(r);
+		Callback cb = new Callback() {
+			public void onResponse(Call call, Response response)
+			{
+				if (!cf.complete(response))
+					response.close();
+			}
+
+			public void onFailure(Call call, IOException e)
+			{
+				cf.completeExceptionally(e);
+			}
+		};
+
+		long wait = limiter.reserve();
+		if (wait > 0)
+			CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute(() -> {
+				if (!cf.isDone())
+					call.enqueue(cb);
+			});
+		else
+			call.enqueue(cb);
+
+		cf.whenComplete((x, e) -> {
+			if (cf.isCancelled())
+				call.cancel();
+		});
+
+		return cf;
 	}
 
 	/**
@@ -105,18 +359,35 @@ class ApiClient
 	 * @param params Any URL parameters (not URL-encoded).
 	 * @param form The Key-Value form parameters to {@code POST}.
 	 * @param fn The system name of the file to {@code POST}
-	 * @param chunk The raw byte data associated with this file which will be sent in this {@code POST}.
+	 * @param chunk The raw byte data associated with this file which will be sent in this {@code POST}. It is written from its position to its limit, and its position is left unchanged, so the same
+	 *           chunk may be sent again.
 	 * @return A Response with the results of this {@code POST}.
 	 * @throws IOException Network error
 	 */
-	protected Response multiPartFilePOST(HashMap<String, String> params, HashMap<String, String> form, String fn, byte[] chunk) throws IOException
+	protected Response multiPartFilePOST(HashMap<String, String> params, HashMap<String, String> form, String fn, ByteBuffer chunk) throws IOException
 	{
 		MultipartBody.Builder mpb = new MultipartBody.Builder().setType(MultipartBody.FORM);
 		form.forEach(mpb::addFormDataPart);
 
-		mpb.addFormDataPart("chunk", fn, RequestBody.create(chunk, octetstream));
+		mpb.addFormDataPart("chunk", fn, new RequestBody() {
+			public MediaType contentType()
+			{
+				return octetstream;
+			}
 
-		Request r = startReq(params).post(mpb.build()).build();
-		return client.newCall(r).execute();
+			public long contentLength()
+			{
+				return chunk.remaining();
+			}
+
+			public void writeTo(BufferedSink sink) throws IOException
+			{
+				ByteBuffer bb = chunk.duplicate();
+				while (bb.hasRemaining())
+					sink.write(bb);
+			}
+		});
+
+		return execute(startReq(params).post(mpb.build()).build());
 	}
 }
\ No newline at end of file
@@ -0,0 +1,521 @@
+package io.github.fastily.jwiki.core;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.fastily.jwiki.dwrap.Revision;
+import io.github.fastily.jwiki.util.FL;
+import io.github.fastily.jwiki.util.Tuple;
+
+/**
+ * Edits a large number of pages, each according to its own transform. Work is pipelined in three stages:
+ * <ol>
+ * <li>The text of pages is prefetched in groups, with {@link MQuery#getPageText(Wiki, java.util.Collection)}, while the previous group is being transformed.</li>
+ * <li>Each page's new text is computed by its transform on a pool of worker threads.</li>
+ * <li>Changed pages are put on a bounded queue, from which editor threads submit edits. Edits go through the Wiki's rate limiter, so they are submitted as fast as the server will take them, and
+ * while the queue is full, the earlier stages wait.</li>
+ * </ol>
+ * The outcome of each page is reported in the Stream returned by {@link #run(Stream)}. Pages are processed concurrently, so outcomes may not be in the same order as the input. Edits are made
+ * against the revision which was fetched, so if a page is changed by someone else in the meantime, it is left alone and reported as {@link Status#FAILED}.
+ * 
+ * @author Fastily
+ *
+ */
+public class BulkEdit
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(BulkEdit.class);
+
+	/**
+	 * Marks the end of the edit queue and the result queue.
+	 */
+	private static final Object end = new Object();
+
+	/**
+	 * The Wiki to edit.
+	 */
+	private final Wiki wiki;
+
+	/**
+	 * The edit summary to use.
+	 */
+	private final String summary;
+
+	/**
+	 * The number of threads which compute new page text.
+	 */
+	private int workers = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The number of threads which submit edits.
+	 */
+	private int editors = 1;
+
+	/**
+	 * The maximum number of edits waiting to be submitted.
+	 */
+	private int queueSize = 100;
+
+	/**
+	 * Set true once the result Stream has been closed.
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Constructor, creates a new BulkEdit.
+	 * 
+	 * @param wiki The Wiki to edit.
+	 * @param summary The edit summary to use.
+	 */
+	public BulkEdit(Wiki wiki, String summary)
+	{
+		this.wiki = wiki;
+		this.summary = summary;
+	}
+
+	/**
+	 * Sets the number of threads which compute new page text. The default is the number of available processors.
+	 * 
+	 * @param workers The number of threads. PRECONDITION: this must be a positive number.
+	 * @return This BulkEdit
+	 */
+	public BulkEdit withWorkers(int workers)
+	{
+		if (workers < 1)
+			throw new IllegalArgumentException("workers must be a positive number");
+
+		this.workers = workers;
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads which submit edits. The default is {@code 1}, which is what most wikis expect of bots.
+	 * 
+	 * @param editors The number of threads. PRECONDITION: this must be a positive number.
+	 * @return This BulkEdit
+	 */
+	public BulkEdit withEditors(int editors)
+	{
+		if (editors < 1)
+			throw new IllegalArgumentException("editors must be a positive number");
+
+		this.editors = editors;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of edits which may wait to be submitted. The default is {@code 100}.
+	 * 
+	 * @param queueSize The maximum number of waiting edits. PRECONDITION: this must be a positive number.
+	 * @return This BulkEdit
+	 */
+	public BulkEdit withQueueSize(int queueSize)
+	{
+		if (queueSize < 1)
+			throw new IllegalArgumentException("queueSize must be a positive number");
+
+		this.queueSize = queueSize;
+		return this;
+	}
+
+	/**
+	 * Starts editing pages in the background. The returned Stream should be consumed, since results are reported as pages are processed. Closing it stops the run; pages which have not been edited
+	 * by then are left alone.
+	 * 
+	 * @param jobs Pairs of titles to edit and the transform to apply to each. A transform is passed the current text of its page (the empty String if the page does not exist), and returns the new
+	 *           text. If it returns null or the current text, the page is left alone.
+	 * @return A Stream with the outcome of each page.
+	 */
+	public Stream<Result> run(Stream<Tuple<String, Function<String, String>>> jobs)
+	{
+		BlockingQueue<Object> edits = new ArrayBlockingQueue<>(queueSize);
+		BlockingQueue<Object> results = new LinkedBlockingQueue<>();
+
+		ExecutorService workerPool = Executors.newFixedThreadPool(workers, BulkEdit::daemon);
+
+		daemon(() -> {
+			try
+			{
+				fetch(jobs.iterator(), workerPool, edits, results);
+			}
+			catch (Throwable e)
+			{
+				log.error("{}: Stopped reading jobs: {}", wiki, e.toString());
+			}
+			finally
+			{
+				workerPool.shutdown();
+				for (int i = 0; i < editors; i++)
+					putQuietly(edits, end);
+			}
+		}).start();
+
+		AtomicInteger liveEditors = new AtomicInteger(editors);
+		for (int i = 0; i < editors; i++)
+			daemon(() -> {
+				submit(edits, results);
+				if (liveEditors.decrementAndGet() == 0)
+					results.add(end);
+			}).start();
+
+		// clearing the edit queue could drop its end markers, so editors drain it without submitting anything instead
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(new ResultIterator(results), Spliterator.NONNULL), false).onClose(() -> cancelled = true);
+	}
+
+	/**
+	 * Prefetches the text of pages in groups, and hands each group to the worker threads to transform. The next group is fetched while the current one is being transformed. If a group cannot be
+	 * fetched, each of its pages is reported as failed, and the next group is tried. Returns only once every group handed to the worker threads has been transformed, so no edits are queued after
+	 * this returns.
+	 * 
+	 * @param it The jobs to process
+	 * @param workerPool The worker threads to use
+	 * @param edits The queue to put changed pages on
+	 * @param results The queue to report unchanged and failed pages on
+	 */
+	private void fetch(Iterator<Tuple<String, Function<String, String>>> it, ExecutorService workerPool, BlockingQueue<Object> edits, BlockingQueue<Object> results)
+	{
+		CompletableFuture<Void> prev = CompletableFuture.completedFuture(null);
+		try
+		{
+			while (it.hasNext() && !cancelled)
+			{
+				ArrayList<Tuple<String, Function<String, String>>> group = new ArrayList<>();
+				while (it.hasNext() && group.size() < wiki.conf.groupQueryMax)
+					group.add(it.next());
+
+				Instant asked = Instant.now();
+				Tuple<HashMap<String, Revision>, Instant> fetched;
+				try
+				{
+					fetched = MQuery.getLatestRevisionsAt(wiki, FL.toAL(group.stream().map(t -> t.x)));
+				}
+				catch (Throwable e)
+				{
+					log.error("{}: Could not fetch a group of {} pages: {}", wiki, group.size(), e.toString());
+					for (Tuple<String, Function<String, String>> t : group)
+						results.add(new Result(t.x, Status.FAILED, "Could not fetch page text: " + e));
+
+					continue;
+				}
+
+				prev.join();
+
+				// starttimestamp is checked against the server's clock, so only use ours if the server did not send curtimestamp
+				HashMap<String, Revision> revs = fetched.x;
+				Instant start = fetched.y != null ? fetched.y : asked;
+
+				ArrayList<CompletableFuture<Void>> fl = new ArrayList<>();
+				for (Tuple<String, Function<String, String>> t : group)
+					fl.add(CompletableFuture.runAsync(() -> transform(t, revs, start, edits, results), workerPool));
+
+				prev = CompletableFuture.allOf(fl.toArray(new CompletableFuture<?>[0]));
+			}
+		}
+		finally
+		{
+			prev.join();
+		}
+	}
+
+	/**
+	 * Computes the new text of a page, and queues it for editing if it changed.
+	 * 
+	 * @param job The title of the page and its transform
+	 * @param revs The latest revision of each page in the group {@code job} belongs to. Missing pages are mapped to null.
+	 * @param start When {@code revs} was fetched, by the server's clock.
+	 * @param edits The queue to put changed pages on
+	 * @param results The queue to report unchanged and failed pages on
+	 */
+	private void transform(Tuple<String, Function<String, String>> job, HashMap<String, Revision> revs, Instant start, BlockingQueue<Object> edits, BlockingQueue<Object> results)
+	{
+		if (cancelled)
+			return;
+
+		Revision rev = revs.get(job.x);
+		String text = rev == null ? "" : rev.text;
+		if (!revs.containsKey(job.x) || text == null)
+		{
+			results.add(new Result(job.x, Status.FAILED, "Could not fetch page text"));
+			return;
+		}
+
+		String newText;
+		try
+		{
+			newText = job.y.apply(text);
+		}
+		catch (Throwable e)
+		{
+			results.add(new Result(job.x, Status.FAILED, "Transform failed: " + e));
+			return;
+		}
+
+		if (newText == null || newText.equals(text))
+			results.add(new Result(job.x, Status.UNCHANGED, null));
+		else
+			putQuietly(edits, new Edit(job.x, newText, rev == null ? null : rev.timestamp, start));
+	}
+
+	/**
+	 * Submits edits from the edit queue until the end of the queue is reached.
+	 * 
+	 * @param edits The queue to take changed pages from
+	 * @param results The queue to report the outcome of each edit on
+	 */
+	private void submit(BlockingQueue<Object> edits, BlockingQueue<Object> results)
+	{
+		try
+		{
+			Object o;
+			while ((o = edits.take()) != end)
+			{
+				if (cancelled)
+					continue;
+
+				Edit e = (Edit) o;
+				switch (WAction.edit(wiki, e.title, e.text, summary, e.basetimestamp, e.starttimestamp))
+				{
+					case SUCCESS:
+						results.add(new Result(e.title, Status.EDITED, null));
+						break;
+					case EDITCONFLICT:
+						results.add(new Result(e.title, Status.FAILED, "Edit conflict: the page was changed since it was fetched"));
+						break;
+					default:
+						results.add(new Result(e.title, Status.FAILED, "Edit was not accepted"));
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			log.warn("{}: Interrupted while waiting for edits", wiki);
+		}
+	}
+
+	/**
+	 * Puts an item on a queue, waiting for space if necessary. Gives up if the calling thread is interrupted.
+	 * 
+	 * @param q The queue to use
+	 * @param o The item to put on {@code q}
+	 */
+	private static void putQuietly(BlockingQueue<Object> q, Object o)
+	{
+		try
+		{
+			q.put(o);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates a daemon Thread, so that an abandoned BulkEdit does not keep the JVM alive.
+	 * 
+	 * @param r The Runnable for the Thread to run
+	 * @return The Thread
+	 */
+	private static Thread daemon(Runnable r)
+	{
+		Thread t = new Thread(r, "jwiki-bulkedit");
+		t.setDaemon(true);
+		return t;
+	}
+
+	/**
+	 * A changed page, waiting to be submitted.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class Edit
+	{
+		/**
+		 * The title of the page
+		 */
+		private final String title;
+
+		/**
+		 * The new text of the page
+		 */
+		private final String text;
+
+		/**
+		 * The timestamp of the revision {@link #text} is based on. Null if the page did not exist.
+		 */
+		private final Instant basetimestamp;
+
+		/**
+		 * When the revision {@link #text} is based on was fetched.
+		 */
+		private final Instant starttimestamp;
+
+		/**
+		 * Constructor, creates a new Edit.
+		 * 
+		 * @param title The title of the page
+		 * @param text The new text of the page
+		 * @param basetimestamp The timestamp of the revision {@code text} is based on. Null if the page did not exist.
+		 * @param starttimestamp When the revision {@code text} is based on was fetched.
+		 */
+		private Edit(String title, String text, Instant basetimestamp, Instant starttimestamp)
+		{
+			this.title = title;
+			this.text = text;
+			this.basetimestamp = basetimestamp;
+			this.starttimestamp = starttimestamp;
+		}
+	}
+
+	/**
+	 * Iterates over the results of a BulkEdit as they arrive.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class ResultIterator implements Iterator<Result>
+	{
+		/**
+		 * The queue results arrive on
+		 */
+		private final BlockingQueue<Object> results;
+
+		/**
+		 * The next result, or {@link BulkEdit#end} once all results have been returned. Null if not yet taken from the queue.
+		 */
+		private Object next;
+
+		/**
+		 * Constructor, creates a new ResultIterator
+		 * 
+		 * @param results The queue results arrive on
+		 */
+		private ResultIterator(BlockingQueue<Object> results)
+		{
+			this.results = results;
+		}
+
+		/**
+		 * Determines if there are more results, waiting for the next one to arrive if necessary.
+		 */
+		public boolean hasNext()
+		{
+			if (next == null)
+				try
+				{
+					next = results.take();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					next = end;
+				}
+
+			return next != end;
+		}
+
+		/**
+		 * Gets the next result, waiting for it to arrive if necessary.
+		 */
+		public Result next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			Result r = (Result) next;
+			next = null;
+			return r;
+		}
+	}
+
+	/**
+	 * The possible outcomes of editing a page.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public enum Status
+	{
+		/**
+		 * The page was edited.
+		 */
+		EDITED,
+
+		/**
+		 * The transform did not change the page, so no edit was made.
+		 */
+		UNCHANGED,
+
+		/**
+		 * The page could not be fetched, the transform threw an exception, the page was changed since it was fetched, or the edit was not accepted.
+		 */
+		FAILED;
+	}
+
+	/**
+	 * The outcome of editing a single page.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public static class Result
+	{
+		/**
+		 * The title of the page
+		 */
+		public final String title;
+
+		/**
+		 * The outcome
+		 */
+		public final Status status;
+
+		/**
+		 * A description of what went wrong. Null unless {@link #status} is {@link Status#FAILED}.
+		 */
+		public final String error;
+
+		/**
+		 * Constructor, creates a new Result.
+		 * 
+		 * @param title The title of the page
+		 * @param status The outcome
+		 * @param error A description of what went wrong, or null.
+		 */
+		private Result(String title, Status status, String error)
+		{
+			this.title = title;
+			this.status = status;
+			this.error = error;
+		}
+
+		/**
+		 * Gets a String representation of this Result. Useful for debugging.
+		 */
+		public String toString()
+		{
+			return String.format("[ title : %s, status : %s, error : %s ]", title, status, error);
+		}
+	}
+}
\ No newline at end of file
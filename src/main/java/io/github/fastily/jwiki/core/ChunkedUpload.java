@@ -0,0 +1,296 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import io.github.fastily.jwiki.util.FL;
+import io.github.fastily.jwiki.util.GSONP;
+import okhttp3.Response;
+
+/**
+ * Uploads a local file to the upload stash of a Wiki, in chunks. Each chunk is memory-mapped from the file and written straight to the network, so the file is never copied into the heap.
+ * <p>
+ * The progress of the upload is saved in a sidecar file next to the local file (e.g. {@code Example.jpg.jwiki-upload}) after each chunk. If an upload is interrupted, the next upload of the same file
+ * to the same title resumes after the last chunk which was stashed. The sidecar file is ignored if the local file or the chunk size changed in the meantime.
+ * 
+ * @author Fastily
+ *
+ */
+class ChunkedUpload
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(ChunkedUpload.class);
+
+	/**
+	 * The suffix of the sidecar file which the progress of an upload is saved to.
+	 */
+	private static final String sidecarSuffix = ".jwiki-upload";
+
+	/**
+	 * The Wiki to upload to.
+	 */
+	private final Wiki wiki;
+
+	/**
+	 * The local file to upload.
+	 */
+	private final Path file;
+
+	/**
+	 * The sidecar file which the progress of this upload is saved to.
+	 */
+	private final Path sidecar;
+
+	/**
+	 * The progress of this upload.
+	 */
+	private State state;
+
+	/**
+	 * The number of chunks stashed by this ChunkedUpload, as opposed to by an earlier, interrupted upload.
+	 */
+	private int sent = 0;
+
+	/**
+	 * Constructor, creates a new ChunkedUpload. If an earlier upload of {@code file} to {@code title} was interrupted, its progress is loaded.
+	 * 
+	 * @param wiki The Wiki to upload to.
+	 * @param file The local file to upload.
+	 * @param title The title to upload the file to, excluding the {@code File:} prefix.
+	 * @throws IOException If the size or modification time of {@code file} could not be read.
+	 */
+	protected ChunkedUpload(Wiki wiki, Path file, String title) throws IOException
+	{
+		this.wiki = wiki;
+		this.file = file;
+		sidecar = file.resolveSibling(file.getFileName() + sidecarSuffix);
+
+		State fresh = new State(title, Files.size(file), Files.getLastModifiedTime(file).toMillis(), wiki.conf.uploadChunkSize);
+		state = loadState();
+		if (!fresh.sameUpload(state))
+			state = fresh;
+		else
+			log.info("{}: Resuming upload of '{}' at byte {} of {}", wiki, file, state.offset, state.filesize);
+	}
+
+	/**
+	 * Uploads the remaining chunks of the file to the upload stash. If the upload was resumed and the server no longer accepts it (e.g. because the stashed chunks expired), it is restarted from the
+	 * beginning. Stops at the first chunk which could not be uploaded.
+	 * 
+	 * @return The filekey of the stashed file.
+	 * @throws Throwable If a chunk could not be uploaded.
+	 */
+	protected String stash() throws Throwable
+	{
+		try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			while (state.offset < state.filesize)
+			{
+				log.info("{}: Uploading chunk [{} of {}] of '{}'", wiki, state.offset / state.chunkSize + 1, (state.filesize + state.chunkSize - 1) / state.chunkSize, file);
+
+				try
+				{
+					state.filekey = postChunk(fc);
+				}
+				catch (Throwable e)
+				{
+					if (sent > 0 || state.offset == 0)
+						throw e;
+
+					log.warn("{}: Could not resume the upload of '{}', restarting it: {}", wiki, file, e.toString());
+					state = new State(state.title, state.filesize, state.lastModified, state.chunkSize);
+					continue;
+				}
+
+				state.offset += Math.min(state.chunkSize, state.filesize - state.offset);
+				sent++;
+				saveState();
+			}
+		}
+
+		return state.filekey;
+	}
+
+	/**
+	 * Determines if any chunks were uploaded by this ChunkedUpload. If not, the file was stashed entirely by an earlier upload.
+	 * 
+	 * @return True if at least one chunk was uploaded by this ChunkedUpload.
+	 */
+	protected boolean sentChunks()
+	{
+		return sent > 0;
+	}
+
+	/**
+	 * Forgets the progress of this upload, by deleting its sidecar file. Call this once the stashed file has been published, or if the stashed file is known to be unusable.
+	 */
+	protected void discard()
+	{
+		try
+		{
+			Files.deleteIfExists(sidecar);
+		}
+		catch (IOException e)
+		{
+			log.warn("{}: Could not delete '{}': {}", wiki, sidecar, e.toString());
+		}
+	}
+
+	/**
+	 * Uploads the chunk of the file starting at the current offset, subject to the Wiki's RetryPolicy. The chunk is memory-mapped from {@code fc}.
+	 * 
+	 * @param fc The FileChannel of the file to upload.
+	 * @return The filekey returned by the server.
+	 * @throws Throwable If the chunk could not be uploaded.
+	 */
+	private String postChunk(FileChannel fc) throws Throwable
+	{
+		MappedByteBuffer chunk = fc.map(FileChannel.MapMode.READ_ONLY, state.offset, Math.min(state.chunkSize, state.filesize - state.offset));
+
+		HashMap<String, String> pl = FL.pMap("format", "json", "filename", state.title, "ignorewarnings", "1", "stash", "1", "offset", "" + state.offset, "filesize",
+				"" + state.filesize);
+		if (state.filekey != null)
+			pl.put("filekey", state.filekey);
+
+		String fn = file.getFileName().toString();
+		return wiki.conf.retryPolicy.run(() -> {
+			String token = wiki.tokens.get("csrf");
+			pl.put("token", token);
+
+			try (Response r = wiki.apiclient.multiPartFilePOST(FL.pMap("action", "upload"), pl, fn, chunk))
+			{
+				if (!r.isSuccessful())
+					throw RetryPolicy.RequestException.ofStatus(r.code());
+
+				JsonObject result = JsonParser.parseString(r.body().string()).getAsJsonObject();
+				if (result.has("error") && "badtoken".equals(GSONP.getStr(result.getAsJsonObject("error"), "code")))
+					wiki.tokens.refresh("csrf", token); // the retry will pick up the new token
+
+				String k = GSONP.getStr(result.getAsJsonObject("upload"), "filekey");
+				if (k == null)
+					throw new RetryPolicy.RequestException(RetryPolicy.ErrorClass.API, "Server did not return a filekey");
+
+				return k;
+			}
+		});
+	}
+
+	/**
+	 * Loads the progress of an earlier upload from the sidecar file.
+	 * 
+	 * @return The progress of the earlier upload, or null if there is none or it could not be read.
+	 */
+	private State loadState()
+	{
+		if (!Files.isRegularFile(sidecar))
+			return null;
+
+		try
+		{
+			return GSONP.gson.fromJson(Files.readString(sidecar), State.class);
+		}
+		catch (Throwable e)
+		{
+			log.warn("{}: Ignoring unreadable upload progress in '{}': {}", wiki, sidecar, e.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Saves the progress of this upload to the sidecar file. The file is replaced atomically, so an interruption never leaves it half-written. Failure to save is logged but does not stop the upload.
+	 */
+	private void saveState()
+	{
+		try
+		{
+			Path tmp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+			Files.writeString(tmp, GSONP.gson.toJson(state));
+			Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			log.warn("{}: Could not save upload progress to '{}', this upload cannot be resumed: {}", wiki, sidecar, e.toString());
+		}
+	}
+
+	/**
+	 * The progress of a chunked upload, as saved in a sidecar file.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class State
+	{
+		/**
+		 * The title the file is being uploaded to, excluding the {@code File:} prefix.
+		 */
+		private String title;
+
+		/**
+		 * The size of the local file, in bytes.
+		 */
+		private long filesize;
+
+		/**
+		 * The modification time of the local file, in milliseconds since the epoch.
+		 */
+		private long lastModified;
+
+		/**
+		 * The size of each chunk, in bytes.
+		 */
+		private int chunkSize;
+
+		/**
+		 * The number of bytes of the local file which have been stashed.
+		 */
+		private long offset = 0;
+
+		/**
+		 * The filekey returned for the last chunk which was stashed, or null if no chunks have been stashed.
+		 */
+		private String filekey;
+
+		/**
+		 * Constructor, creates a new State for an upload which has not started.
+		 * 
+		 * @param title The title the file is being uploaded to, excluding the {@code File:} prefix.
+		 * @param filesize The size of the local file, in bytes.
+		 * @param lastModified The modification time of the local file, in milliseconds since the epoch.
+		 * @param chunkSize The size of each chunk, in bytes.
+		 */
+		private State(String title, long filesize, long lastModified, int chunkSize)
+		{
+			this.title = title;
+			this.filesize = filesize;
+			this.lastModified = lastModified;
+			this.chunkSize = chunkSize;
+		}
+
+		/**
+		 * Determines if {@code o} describes an upload of the same file, to the same title, with the same chunk size, as this State.
+		 * 
+		 * @param o The State to compare with. May be null.
+		 * @return True if an upload described by this State can be resumed from {@code o}.
+		 */
+		private boolean sameUpload(State o)
+		{
+			return o != null && title.equals(o.title) && filesize == o.filesize && lastModified == o.lastModified && chunkSize == o.chunkSize && o.filekey != null
+					&& o.offset > 0 && o.offset <= filesize;
+		}
+	}
+}
\ No newline at end of file
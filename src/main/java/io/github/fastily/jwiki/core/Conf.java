@@ -1,5 +1,8 @@
 package io.github.fastily.jwiki.core;
 
+import java.nio.file.Path;
+import java.time.Duration;
+
 import okhttp3.HttpUrl;
 
 /**
@@ -31,19 +34,96 @@ class Conf
 	protected String hostname;
 
 	/**
-	 * The low maximum limit for maximum number of list items returned for queries that return lists. Use this if a max value is needed but where the client does not know the max.
+	 * The maximum number of list items returned for queries that return lists. Use this if a max value is needed but where the client does not know the max. Raised to {@code 5000} if the logged in
+	 * user has the {@code apihighlimits} right.
 	 */
 	protected int maxResultLimit = 500;
 
 	/**
-	 * User name (without namespace prefix), only set if user is logged in.
+	 * The maximum number of titles which may be sent in a single multi-title query. Raised to {@code 500} if the logged in user has the {@code apihighlimits} right.
 	 */
-	protected String uname = null;
+	protected int groupQueryMax = 50;
+
+	/**
+	 * The number of title groups which blocking {@link MQuery} methods may query at the same time. {@code 1} means groups are queried one after another.
+	 */
+	protected int parallelism = 1;
+
+	/**
+	 * The maximum number of concurrent asynchronous requests to the same host.
+	 */
+	protected int maxRequestsPerHost = 5;
+
+	/**
+	 * The maximum number of concurrent asynchronous requests, across all hosts.
+	 */
+	protected int maxRequests = 64;
+
+	/**
+	 * The maximum number of idle connections kept open in the connection pool.
+	 */
+	protected int maxIdleConnections = 5;
+
+	/**
+	 * How long an idle connection is kept open in the connection pool before it is closed.
+	 */
+	protected Duration keepAlive = Duration.ofMinutes(5);
+
+	/**
+	 * Set true to negotiate HTTP/2 with servers which support it. If false, only HTTP/1.1 is used.
+	 */
+	protected boolean http2 = true;
+
+	/**
+	 * The {@code maxlag} value, in seconds, to send with each request. The server refuses requests while its database replication lag is higher than this. Set 0 to disable.
+	 */
+	protected int maxlag = 5;
+
+	/**
+	 * The maximum rate, in requests per second, at which requests may be sent. The actual rate adapts to how much the server can take, but never exceeds this.
+	 */
+	protected double maxRate = 20;
 
 	/**
-	 * CSRF token. Used for actions that change Wiki content.
+	 * Decides whether, and when, failed requests are retried.
 	 */
-	protected String token = "+\\";
+	protected RetryPolicy retryPolicy = new RetryPolicy();
+
+	/**
+	 * The size, in bytes, of each chunk of a chunked upload.
+	 */
+	protected int uploadChunkSize = 1024 * 1024 * 4;
+
+	/**
+	 * The maximum number of files which {@link Wiki#uploadAsync(java.nio.file.Path, String, String, String)} may upload at the same time.
+	 */
+	protected int maxUploads = 2;
+
+	/**
+	 * Caches the text of pages by revision. Null means page text is not cached.
+	 */
+	protected ContentCache contentCache = null;
+
+	/**
+	 * The directory to cache the responses to queries which rarely change (e.g. namespaces and allowed file extensions) in, so they are not fetched again on every start. Null means responses are not
+	 * cached.
+	 */
+	protected Path responseCacheDir = null;
+
+	/**
+	 * The maximum size, in bytes, of the response cache.
+	 */
+	protected long responseCacheSize = 1024 * 1024 * 10;
+
+	/**
+	 * The maximum length of an encoded {@code GET} url. Longer requests are sent as form-data {@code POST} requests instead, since servers and proxies commonly reject long urls.
+	 */
+	protected int maxURLLength = 8000;
+
+	/**
+	 * User name (without namespace prefix), only set if user is logged in.
+	 */
+	protected String uname = null;
 
 	/**
 	 * Constructor, creates a new Conf pointing to en.wikipedia.org.
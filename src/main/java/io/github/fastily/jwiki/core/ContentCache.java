@@ -0,0 +1,253 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.fastily.jwiki.util.Tuple;
+
+/**
+ * Stores the text of pages, keyed by the hostname of their Wiki, title and revision ID. Titles and revision IDs are only unique within a Wiki, so a ContentCache may be shared by Wikis on
+ * different hosts. When a Wiki has a ContentCache (see {@link Wiki.Builder#withContentCache(ContentCache)}), {@link MQuery#getPageText(Wiki, java.util.Collection)}
+ * checks the latest revision ID of each page with a cheap {@code prop=info} query, and only downloads the text of pages whose latest revision is not in the cache. Since revisions never change,
+ * cached text never needs to be invalidated; it is only ever superseded by a newer revision.
+ * <p>
+ * Implementations must be thread-safe.
+ * 
+ * @author Fastily
+ *
+ */
+public interface ContentCache
+{
+	/**
+	 * Gets the text of a revision of a page.
+	 * 
+	 * @param hostname The hostname of the Wiki the page is on
+	 * @param title The title of the page
+	 * @param revid The revision ID
+	 * @return The text of revision {@code revid} of {@code title}, or null if it is not cached.
+	 */
+	String get(String hostname, String title, long revid);
+
+	/**
+	 * Stores the text of a revision of a page. Implementations may discard older revisions of {@code title} on {@code hostname}.
+	 * 
+	 * @param hostname The hostname of the Wiki the page is on
+	 * @param title The title of the page
+	 * @param revid The revision ID
+	 * @param text The text of revision {@code revid} of {@code title}
+	 */
+	void put(String hostname, String title, long revid, String text);
+
+	/**
+	 * An in-memory ContentCache which holds the latest known revision of up to a fixed number of pages, and evicts the least recently used page when full. It may be backed by another ContentCache
+	 * (e.g. a {@link Disk}), which is checked on a miss and written through on every put.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public static class LRU implements ContentCache
+	{
+		/**
+		 * The latest known revision ID and text of each page, keyed by hostname and title, in order of last access.
+		 */
+		private final LinkedHashMap<Tuple<String, String>, Tuple<Long, String>> l;
+
+		/**
+		 * The ContentCache backing this LRU. Null if there is none.
+		 */
+		private final ContentCache backing;
+
+		/**
+		 * Constructor, creates a new LRU.
+		 * 
+		 * @param maxEntries The maximum number of pages to hold in memory. PRECONDITION: this must be a positive number.
+		 * @param backing The ContentCache to back this LRU with. Optional, set null to disable.
+		 */
+		public LRU(int maxEntries, ContentCache backing)
+		{
+			if (maxEntries < 1)
+				throw new IllegalArgumentException("maxEntries must be a positive number");
+
+			this.backing = backing;
+			l = new LinkedHashMap<>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<Tuple<String, String>, Tuple<Long, String>> eldest)
+				{
+					return size() > maxEntries;
+				}
+			};
+		}
+
+		/**
+		 * Gets the text of a revision of a page, from memory or else from the backing ContentCache.
+		 */
+		public String get(String hostname, String title, long revid)
+		{
+			synchronized (l)
+			{
+				Tuple<Long, String> t = l.get(new Tuple<>(hostname, title));
+				if (t != null && t.x == revid)
+					return t.y;
+			}
+
+			String text = backing == null ? null : backing.get(hostname, title, revid);
+			if (text != null)
+				remember(hostname, title, revid, text);
+
+			return text;
+		}
+
+		/**
+		 * Stores the text of a revision of a page, in memory and in the backing ContentCache.
+		 */
+		public void put(String hostname, String title, long revid, String text)
+		{
+			remember(hostname, title, revid, text);
+
+			if (backing != null)
+				backing.put(hostname, title, revid, text);
+		}
+
+		/**
+		 * Stores the text of a revision of a page in memory, unless a newer revision is already there.
+		 * 
+		 * @param hostname The hostname of the Wiki the page is on
+		 * @param title The title of the page
+		 * @param revid The revision ID
+		 * @param text The text of revision {@code revid} of {@code title}
+		 */
+		private void remember(String hostname, String title, long revid, String text)
+		{
+			Tuple<String, String> k = new Tuple<>(hostname, title);
+			synchronized (l)
+			{
+				Tuple<Long, String> t = l.get(k);
+				if (t == null || t.x <= revid)
+					l.put(k, new Tuple<>(revid, text));
+			}
+		}
+	}
+
+	/**
+	 * A ContentCache which stores the latest known revision of each page as a file in a directory, so that it survives restarts. Each Wiki's pages are kept in a subdirectory named after its
+	 * hostname. Files are named after the SHA-1 hash of the title and the revision ID, and storing a revision of a page deletes the files of its older revisions. This cache is unbounded; wrap it in an {@link LRU} for fast repeated access.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public static class Disk implements ContentCache
+	{
+		/**
+		 * The Logger for this class
+		 */
+		private static Logger log = LoggerFactory.getLogger(Disk.class);
+
+		/**
+		 * The directory which files are stored in.
+		 */
+		private final Path dir;
+
+		/**
+		 * Constructor, creates a new Disk cache, creating {@code dir} if necessary.
+		 * 
+		 * @param dir The directory to store files in.
+		 * @throws IOException If {@code dir} could not be created.
+		 */
+		public Disk(Path dir) throws IOException
+		{
+			this.dir = Files.createDirectories(dir);
+		}
+
+		/**
+		 * Gets the text of a revision of a page from its file.
+		 */
+		public String get(String hostname, String title, long revid)
+		{
+			Path p = hostDir(hostname).resolve(key(title) + "-" + revid);
+
+			try
+			{
+				return Files.isRegularFile(p) ? Files.readString(p) : null;
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not read '{}': {}", p, e.toString());
+				return null;
+			}
+		}
+
+		/**
+		 * Stores the text of a revision of a page in a file, and deletes the files of its older revisions.
+		 */
+		public void put(String hostname, String title, long revid, String text)
+		{
+			Path hd = hostDir(hostname);
+			String k = key(title);
+			Path p = hd.resolve(k + "-" + revid);
+
+			try
+			{
+				Files.createDirectories(hd);
+
+				Path tmp = Files.createTempFile(hd, k, ".tmp");
+				Files.writeString(tmp, text);
+				Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				try (DirectoryStream<Path> ds = Files.newDirectoryStream(hd, k + "-*"))
+				{
+					for (Path old : ds)
+						if (!old.equals(p))
+							Files.deleteIfExists(old);
+				}
+			}
+			catch (IOException e)
+			{
+				log.warn("Could not write '{}': {}", p, e.toString());
+			}
+		}
+
+		/**
+		 * Gets the subdirectory which holds the pages of a Wiki.
+		 * 
+		 * @param hostname The hostname of the Wiki
+		 * @return The subdirectory for {@code hostname}. Characters which are not safe to use on every file system (e.g. the colons of IPv6 addresses) are replaced.
+		 */
+		private Path hostDir(String hostname)
+		{
+			return dir.resolve(hostname.replaceAll("[^A-Za-z0-9.\\-]", "_"));
+		}
+
+		/**
+		 * Derives a file name from a title, which is safe to use on any file system.
+		 * 
+		 * @param title The title to use
+		 * @return The SHA-1 hash of {@code title}, as lowercase hex.
+		 */
+		private static String key(String title)
+		{
+			try
+			{
+				StringBuilder sb = new StringBuilder();
+				for (byte b : MessageDigest.getInstance("SHA-1").digest(title.getBytes(StandardCharsets.UTF_8)))
+					sb.append(String.format("%02x", b));
+
+				return sb.toString();
+			}
+			catch (Throwable e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,286 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import io.github.fastily.jwiki.util.GSONP;
+
+/**
+ * Uploads a batch of files, skipping those which the Wiki already has. Files are compared by their SHA-1 hash:
+ * <ol>
+ * <li>Each local file is hashed in a single pass, on a pool of worker threads.</li>
+ * <li>As soon as a file is hashed, the Wiki is asked for files with the same hash. The API accepts one hash per query, so these queries are sent concurrently (subject to
+ * {@link Wiki.Builder#withMaxRequestsPerHost(int)}), and each distinct hash is only looked up once.</li>
+ * <li>Files which are not on the Wiki are uploaded with {@link Wiki#uploadAsync(Path, String, String, String)}. If several local files have the same contents, only the first is uploaded.</li>
+ * </ol>
+ * 
+ * @author Fastily
+ *
+ */
+public class DedupeUpload
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(DedupeUpload.class);
+
+	/**
+	 * The size of the buffer each file is read through while hashing it.
+	 */
+	private static final int bufferSize = 1024 * 1024;
+
+	/**
+	 * The Wiki to upload to.
+	 */
+	private final Wiki wiki;
+
+	/**
+	 * The text to put on each file description page.
+	 */
+	private final String text;
+
+	/**
+	 * The edit summary to use.
+	 */
+	private final String reason;
+
+	/**
+	 * The number of threads which hash files.
+	 */
+	private int hashers = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Constructor, creates a new DedupeUpload.
+	 * 
+	 * @param wiki The Wiki to upload to.
+	 * @param text The text to put on each file description page.
+	 * @param reason The edit summary to use.
+	 */
+	public DedupeUpload(Wiki wiki, String text, String reason)
+	{
+		this.wiki = wiki;
+		this.text = text;
+		this.reason = reason;
+	}
+
+	/**
+	 * Sets the number of threads which hash files. The default is the number of available processors.
+	 * 
+	 * @param hashers The number of threads. PRECONDITION: this must be a positive number.
+	 * @return This DedupeUpload
+	 */
+	public DedupeUpload withHashers(int hashers)
+	{
+		if (hashers < 1)
+			throw new IllegalArgumentException("hashers must be a positive number");
+
+		this.hashers = hashers;
+		return this;
+	}
+
+	/**
+	 * Uploads each file which the Wiki does not already have, and waits for all uploads to finish.
+	 * 
+	 * @param files The local files to upload, and the title to upload each one to (including the {@code File:} prefix). If several local files have the same contents, the one which comes first in
+	 *           the iteration order of {@code files} is uploaded.
+	 * @return The outcome for each file in {@code files}.
+	 */
+	public HashMap<Path, Result> run(Map<Path, String> files)
+	{
+		log.info("{}: Checking {} files for duplicates before uploading", wiki, files.size());
+
+		ExecutorService pool = Executors.newFixedThreadPool(hashers, r -> {
+			Thread t = new Thread(r, "jwiki-sha1");
+			t.setDaemon(true);
+			return t;
+		});
+
+		ConcurrentHashMap<String, CompletableFuture<String>> lookups = new ConcurrentHashMap<>();
+		LinkedHashMap<Path, CompletableFuture<String>> hashes = new LinkedHashMap<>();
+		files.keySet().forEach(p -> hashes.put(p, CompletableFuture.supplyAsync(() -> sha1(p), pool)));
+
+		// start each lookup as soon as its hash is known
+		ArrayList<CompletableFuture<String>> pending = new ArrayList<>();
+		hashes.values().forEach(f -> pending.add(f.thenCompose(h -> lookups.computeIfAbsent(h, this::lookup))));
+
+		HashMap<Path, Result> results = new HashMap<>();
+		HashMap<String, String> seen = new HashMap<>();
+		HashMap<Path, CompletableFuture<Boolean>> uploads = new HashMap<>();
+
+		int i = 0;
+		for (Map.Entry<Path, CompletableFuture<String>> e : hashes.entrySet())
+		{
+			Path p = e.getKey();
+			String title = files.get(p);
+
+			String existing;
+			try
+			{
+				existing = pending.get(i++).join();
+			}
+			catch (CompletionException ex)
+			{
+				log.error("{}: Could not check '{}' for duplicates: {}", wiki, p, ex.getCause().toString());
+				results.put(p, new Result(title, Status.FAILED, null));
+				continue;
+			}
+
+			String h = e.getValue().join();
+			if (existing != null)
+				results.put(p, new Result(title, Status.DUPLICATE, existing));
+			else if (seen.containsKey(h))
+				results.put(p, new Result(title, Status.DUPLICATE, seen.get(h)));
+			else
+			{
+				seen.put(h, title);
+				uploads.put(p, wiki.uploadAsync(p, title, text, reason));
+			}
+		}
+
+		pool.shutdown();
+
+		uploads.forEach((p, f) -> results.put(p, new Result(files.get(p), f.join() ? Status.UPLOADED : Status.FAILED, null)));
+		return results;
+	}
+
+	/**
+	 * Computes the SHA-1 hash of a file, reading it once.
+	 * 
+	 * @param p The file to hash
+	 * @return The SHA-1 hash of {@code p}, as lowercase hex.
+	 */
+	private static String sha1(Path p)
+	{
+		try (FileChannel fc = FileChannel.open(p, StandardOpenOption.READ))
+		{
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			ByteBuffer bb = ByteBuffer.allocateDirect(bufferSize);
+
+			while (fc.read(bb) != -1)
+			{
+				bb.flip();
+				md.update(bb);
+				bb.clear();
+			}
+
+			StringBuilder sb = new StringBuilder();
+			for (byte b : md.digest())
+				sb.append(String.format("%02x", b));
+
+			return sb.toString();
+		}
+		catch (IOException e)
+		{
+			throw new CompletionException(e);
+		}
+		catch (Throwable e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Asynchronously finds a file on the Wiki with the specified SHA-1 hash.
+	 * 
+	 * @param sha1 The SHA-1 hash to look for, as hex.
+	 * @return A CompletableFuture which completes with the title of a file on the Wiki with hash {@code sha1}, or null if there are none. Completes exceptionally if the query failed.
+	 */
+	private CompletableFuture<String> lookup(String sha1)
+	{
+		return new WQuery(wiki, 1, WQuery.FILESBYSHA1).set("aisha1", sha1).nextAsync().thenApply(r -> {
+			if (r == null)
+				throw new IllegalStateException("Could not look up SHA-1 " + sha1);
+
+			ArrayList<JsonObject> l = r.listComp("allimages");
+			return l.isEmpty() ? null : GSONP.getStr(l.get(0), "title");
+		});
+	}
+
+	/**
+	 * The possible outcomes of uploading a file with a DedupeUpload.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public enum Status
+	{
+		/**
+		 * The file was uploaded.
+		 */
+		UPLOADED,
+
+		/**
+		 * The file was not uploaded, because the Wiki already has it, or because another file in the same batch has the same contents.
+		 */
+		DUPLICATE,
+
+		/**
+		 * The file could not be read, checked for duplicates, or uploaded.
+		 */
+		FAILED;
+	}
+
+	/**
+	 * The outcome of uploading a single file.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public static class Result
+	{
+		/**
+		 * The title the file was to be uploaded to
+		 */
+		public final String title;
+
+		/**
+		 * The outcome
+		 */
+		public final Status status;
+
+		/**
+		 * The title of the file which this file duplicates. Null unless {@link #status} is {@link Status#DUPLICATE}.
+		 */
+		public final String duplicateOf;
+
+		/**
+		 * Constructor, creates a new Result.
+		 * 
+		 * @param title The title the file was to be uploaded to
+		 * @param status The outcome
+		 * @param duplicateOf The title of the file which this file duplicates, or null.
+		 */
+		private Result(String title, Status status, String duplicateOf)
+		{
+			this.title = title;
+			this.status = status;
+			this.duplicateOf = duplicateOf;
+		}
+
+		/**
+		 * Gets a String representation of this Result. Useful for debugging.
+		 */
+		public String toString()
+		{
+			return String.format("[ title : %s, status : %s, duplicateOf : %s ]", title, status, duplicateOf);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,610 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import io.github.fastily.jwiki.dwrap.PageInfo;
+import io.github.fastily.jwiki.dwrap.Revision;
+import io.github.fastily.jwiki.util.GSONP;
+
+/**
+ * Reads a MediaWiki XML dump (e.g. {@code pages-articles.xml.bz2} or {@code pages-meta-history.xml.gz}) without contacting the Wiki. The dump is parsed as a stream with StAX, so memory use does not
+ * depend on the size of the dump: only the page and revision being read are held in memory. {@code .gz} and {@code .bz2} files are decompressed on the fly.
+ * <p>
+ * Pages are read in order with {@link #nextPage()}, and the revisions of each page with {@link Page#nextRevision()}. Alternatively, {@link #revisions()} streams every revision in the dump. Namespaces
+ * are resolved with the {@code siteinfo} at the start of the dump.
+ * 
+ * @author Fastily
+ *
+ */
+public class DumpReader implements Closeable
+{
+	/**
+	 * The size of the buffer the dump is read through.
+	 */
+	private static final int bufferSize = 1024 * 64;
+
+	/**
+	 * The underlying stream of the dump.
+	 */
+	private final InputStream in;
+
+	/**
+	 * The XML cursor over the dump.
+	 */
+	private final XMLStreamReader r;
+
+	/**
+	 * The name of the Wiki, from the dump's {@code siteinfo}.
+	 */
+	private String sitename;
+
+	/**
+	 * The database name of the Wiki, from the dump's {@code siteinfo}.
+	 */
+	private String dbname;
+
+	/**
+	 * The namespaces of the Wiki, from the dump's {@code siteinfo}.
+	 */
+	protected NS.NSManager nsl;
+
+	/**
+	 * The Page being read. Null if no page has been read yet.
+	 */
+	private Page page;
+
+	/**
+	 * Opens a dump file, decompressing it if its name ends in {@code .gz} or {@code .bz2}, and reads its {@code siteinfo}.
+	 * 
+	 * @param p The dump file to read
+	 * @throws IOException If {@code p} could not be opened, or does not start like a MediaWiki XML dump.
+	 */
+	public DumpReader(Path p) throws IOException
+	{
+		this(decompress(p, new BufferedInputStream(Files.newInputStream(p), bufferSize)));
+	}
+
+	/**
+	 * Reads a dump from an uncompressed stream, and reads its {@code siteinfo}. The stream is closed when this DumpReader is closed.
+	 * 
+	 * @param in The stream to read
+	 * @throws IOException If {@code in} does not start like a MediaWiki XML dump.
+	 */
+	public DumpReader(InputStream in) throws IOException
+	{
+		this(in, null);
+	}
+
+	/**
+	 * Reads part of a dump from an uncompressed stream, using the {@code siteinfo} of another DumpReader. This is for the streams of a multistream dump, which only contain pages.
+	 * 
+	 * @param in The stream to read. This must be wrapped in a {@code mediawiki} element.
+	 * @param header The DumpReader to take the {@code siteinfo} from. Set null to read the {@code siteinfo} from {@code in}.
+	 * @throws IOException If {@code in} does not start like a MediaWiki XML dump.
+	 */
+	protected DumpReader(InputStream in, DumpReader header) throws IOException
+	{
+		this.in = in;
+
+		XMLInputFactory xf = XMLInputFactory.newInstance();
+		xf.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xf.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		xf.setProperty(XMLInputFactory.IS_COALESCING, true);
+
+		// the JDK parser counts every &amp; etc. against a limit which large dumps exceed; entities cannot be declared here anyway, since DTDs are off.
+		for (String k : new String[] { "http://www.oracle.com/xml/jaxp/properties/totalEntitySizeLimit",
+				"http://www.oracle.com/xml/jaxp/properties/maxGeneralEntitySizeLimit" })
+			try
+			{
+				xf.setProperty(k, 0);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// not the JDK parser
+			}
+
+		try
+		{
+			r = xf.createXMLStreamReader(in, "UTF-8");
+			readSiteInfo(header);
+		}
+		catch (XMLStreamException e)
+		{
+			in.close();
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Wraps a stream of a dump file in a decompressor, based on the file's extension.
+	 * 
+	 * @param p The dump file
+	 * @param in The stream of {@code p}
+	 * @return A stream of the uncompressed dump.
+	 * @throws IOException If the decompressor could not read the stream's header.
+	 */
+	private static InputStream decompress(Path p, InputStream in) throws IOException
+	{
+		String fn = p.getFileName().toString();
+
+		try
+		{
+			if (fn.endsWith(".gz"))
+				return new BufferedInputStream(new GZIPInputStream(in, bufferSize), bufferSize);
+			else if (fn.endsWith(".bz2"))
+				return new BufferedInputStream(new BZip2CompressorInputStream(in, true), bufferSize);
+
+			return in;
+		}
+		catch (IOException e)
+		{
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads the {@code siteinfo} of the dump, leaving the cursor before the first {@code page}. Dumps without namespaces in their {@code siteinfo} are assumed to only use the Main namespace.
+	 * 
+	 * @param header The DumpReader to take the {@code siteinfo} from instead. Optional, set null to disable.
+	 * @throws XMLStreamException On parse error, or if the dump does not start with a {@code mediawiki} element.
+	 */
+	private void readSiteInfo(DumpReader header) throws XMLStreamException
+	{
+		if (nextTag() != XMLStreamConstants.START_ELEMENT || !r.getLocalName().equals("mediawiki"))
+			throw new XMLStreamException("Not a MediaWiki XML dump", r.getLocation());
+		else if (header != null)
+		{
+			sitename = header.sitename;
+			dbname = header.dbname;
+			nsl = header.nsl;
+			nextTag(); // first page, or end of dump
+			return;
+		}
+
+		JsonObject namespaces = new JsonObject();
+		if (nextTag() == XMLStreamConstants.START_ELEMENT && r.getLocalName().equals("siteinfo"))
+		{
+			while (nextTag() == XMLStreamConstants.START_ELEMENT)
+				switch (r.getLocalName())
+				{
+					case "sitename":
+						sitename = r.getElementText();
+						break;
+					case "dbname":
+						dbname = r.getElementText();
+						break;
+					case "namespaces":
+						while (nextTag() == XMLStreamConstants.START_ELEMENT)
+						{
+							String id = r.getAttributeValue(null, "key");
+
+							JsonObject ns = new JsonObject();
+							ns.addProperty("id", Integer.parseInt(id));
+							ns.addProperty("case", r.getAttributeValue(null, "case"));
+							ns.addProperty("*", r.getElementText());
+							namespaces.add(id, ns);
+						}
+						break;
+					default:
+						skipElement();
+				}
+
+			nextTag(); // first page, or end of dump
+		}
+
+		if (namespaces.size() == 0)
+		{
+			JsonObject ns = new JsonObject();
+			ns.addProperty("id", 0);
+			ns.addProperty("*", "");
+			namespaces.add("0", ns);
+		}
+
+		JsonObject jo = new JsonObject();
+		jo.add("namespaces", namespaces);
+		jo.add("namespacealiases", new JsonArray());
+		nsl = new NS.NSManager(jo);
+	}
+
+	/**
+	 * Advances the cursor to the next start or end tag, skipping text, comments and processing instructions.
+	 * 
+	 * @return The type of event the cursor is at: {@code START_ELEMENT}, {@code END_ELEMENT}, or {@code END_DOCUMENT}.
+	 * @throws XMLStreamException On parse error
+	 */
+	private int nextTag() throws XMLStreamException
+	{
+		while (r.hasNext())
+		{
+			int t = r.next();
+			if (t == XMLStreamConstants.START_ELEMENT || t == XMLStreamConstants.END_ELEMENT)
+				return t;
+		}
+
+		return XMLStreamConstants.END_DOCUMENT;
+	}
+
+	/**
+	 * Skips the element the cursor is at, including its children. PRECONDITION: the cursor is at a {@code START_ELEMENT}. The cursor is left at its {@code END_ELEMENT}.
+	 * 
+	 * @throws XMLStreamException On parse error
+	 */
+	private void skipElement() throws XMLStreamException
+	{
+		for (int depth = 1; depth > 0;)
+		{
+			int t = nextTag();
+			if (t == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (t == XMLStreamConstants.END_ELEMENT)
+				depth--;
+			else
+				throw new XMLStreamException("Unexpected end of dump", r.getLocation());
+		}
+	}
+
+	/**
+	 * Gets the name of the Wiki the dump was taken from.
+	 * 
+	 * @return The name of the Wiki (e.g. {@code Wikipedia}), or null if the dump does not say.
+	 */
+	public String getSiteName()
+	{
+		return sitename;
+	}
+
+	/**
+	 * Gets the database name of the Wiki the dump was taken from.
+	 * 
+	 * @return The database name of the Wiki (e.g. {@code enwiki}), or null if the dump does not say.
+	 */
+	public String getDBName()
+	{
+		return dbname;
+	}
+
+	/**
+	 * Gets the namespace of a title, using the namespaces of the dump. No namespace or an invalid namespace is assumed to be part of Main.
+	 * 
+	 * @param title The title to get an NS for.
+	 * @return The title's NS.
+	 */
+	public NS whichNS(String title)
+	{
+		return nsl.whichNS(title);
+	}
+
+	/**
+	 * Strips the namespace from a title, using the namespaces of the dump.
+	 * 
+	 * @param title The title to strip the namespace from
+	 * @return The title without a namespace
+	 */
+	public String nss(String title)
+	{
+		return nsl.nss(title);
+	}
+
+	/**
+	 * Reads the next page of the dump. Any revisions of the previous page which were not read are skipped.
+	 * 
+	 * @return The next page, or null if there are no more pages.
+	 * @throws IOException On read or parse error.
+	 */
+	public Page nextPage() throws IOException
+	{
+		try
+		{
+			if (page != null)
+				page.finish();
+
+			page = null;
+			while (r.getEventType() != XMLStreamConstants.START_ELEMENT || !r.getLocalName().equals("page"))
+				if (nextTag() == XMLStreamConstants.END_DOCUMENT)
+					return null;
+
+			page = new Page();
+			return page;
+		}
+		catch (XMLStreamException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Streams every revision in the remainder of the dump, in order. The {@code title} of each Revision is the title of its page. Read or parse errors are rethrown as
+	 * {@link UncheckedIOException}.
+	 * 
+	 * @return A sequential Stream of revisions. Closing it closes this DumpReader.
+	 */
+	public Stream<Revision> revisions()
+	{
+		Iterator<Revision> it = new Iterator<>() {
+			/**
+			 * The next Revision to return. Null if it has not been read yet.
+			 */
+			private Revision next;
+
+			public boolean hasNext()
+			{
+				try
+				{
+					while (next == null)
+					{
+						if (page == null || page.done)
+						{
+							if (nextPage() == null)
+								return false;
+						}
+						else
+							next = page.nextRevision();
+					}
+
+					return true;
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+			}
+
+			public Revision next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				Revision rev = next;
+				next = null;
+				return rev;
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+			try
+			{
+				close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Closes the dump.
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			r.close();
+		}
+		catch (XMLStreamException e)
+		{
+			// the stream is closed below regardless
+		}
+
+		in.close();
+	}
+
+	/**
+	 * A page in a dump. Its revisions are read in order with {@link #nextRevision()}, and can only be read until the next page is read from the DumpReader.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public class Page
+	{
+		/**
+		 * The title, id and namespace of this Page.
+		 */
+		public final PageInfo info;
+
+		/**
+		 * The namespace of this Page.
+		 */
+		public final NS ns;
+
+		/**
+		 * The title this Page redirects to, or null if it is not a redirect.
+		 */
+		public final String redirect;
+
+		/**
+		 * Flag indicating whether all the revisions of this Page have been read.
+		 */
+		private boolean done = false;
+
+		/**
+		 * The revisions of this Page which were read ahead by {@link #buffer()}. Null unless this Page was buffered.
+		 */
+		private ArrayDeque<Revision> buffered;
+
+		/**
+		 * Constructor, reads the header of a page, which comes before its revisions. PRECONDITION: the cursor is at the page's {@code START_ELEMENT}. The cursor is left at the first
+		 * {@code revision}, or at the end of the page.
+		 * 
+		 * @throws XMLStreamException On parse error
+		 */
+		private Page() throws XMLStreamException
+		{
+			JsonObject jo = new JsonObject();
+			String redirect = null;
+
+			while (true)
+			{
+				if (nextTag() != XMLStreamConstants.START_ELEMENT)
+				{
+					done = true;
+					break;
+				}
+
+				String name = r.getLocalName();
+				if (name.equals("revision"))
+					break;
+
+				switch (name)
+				{
+					case "title":
+						jo.addProperty("title", r.getElementText());
+						break;
+					case "ns":
+						jo.addProperty("ns", Integer.parseInt(r.getElementText().trim()));
+						break;
+					case "id":
+						jo.addProperty("pageid", Long.parseLong(r.getElementText().trim()));
+						break;
+					case "redirect":
+						redirect = r.getAttributeValue(null, "title");
+						skipElement();
+						break;
+					default:
+						skipElement();
+				}
+			}
+
+			info = GSONP.gson.fromJson(jo, PageInfo.class);
+			ns = jo.has("ns") ? nsl.get(info.ns) : nsl.whichNS(info.title);
+			this.redirect = redirect;
+		}
+
+		/**
+		 * Reads the next revision of this Page. Revisions are read in the order they appear in the dump, which is oldest first.
+		 * 
+		 * @return The next revision, or null if all revisions of this Page have been read.
+		 * @throws IOException On read or parse error, or if another page has been read since this one.
+		 */
+		public Revision nextRevision() throws IOException
+		{
+			if (buffered != null)
+				return buffered.poll();
+			else if (done)
+				return null;
+			else if (page != this)
+				throw new IOException("A later page has been read from this dump");
+
+			try
+			{
+				JsonObject jo = new JsonObject();
+				jo.addProperty("title", info.title);
+
+				while (nextTag() == XMLStreamConstants.START_ELEMENT)
+					switch (r.getAttributeValue(null, "deleted") != null ? "" : r.getLocalName()) // revision-deleted fields are left null
+					{
+						case "id":
+							jo.addProperty("revid", Long.parseLong(r.getElementText().trim()));
+							break;
+						case "timestamp":
+							jo.addProperty("timestamp", r.getElementText().trim());
+							break;
+						case "comment":
+							jo.addProperty("comment", r.getElementText());
+							break;
+						case "text":
+							jo.addProperty("*", r.getElementText());
+							break;
+						case "contributor":
+							while (nextTag() == XMLStreamConstants.START_ELEMENT)
+								if (r.getLocalName().equals("username") || r.getLocalName().equals("ip"))
+									jo.addProperty("user", r.getElementText());
+								else
+									skipElement();
+							break;
+						default:
+							skipElement();
+					}
+
+				seekRevision();
+				return GSONP.gson.fromJson(jo, Revision.class);
+			}
+			catch (XMLStreamException e)
+			{
+				throw new IOException(e);
+			}
+		}
+
+		/**
+		 * Reads the remaining revisions of this Page into memory, so they can still be read with {@link #nextRevision()} after later pages have been read.
+		 * 
+		 * @return This Page
+		 * @throws IOException On read or parse error.
+		 */
+		protected Page buffer() throws IOException
+		{
+			ArrayDeque<Revision> l = new ArrayDeque<>();
+			for (Revision rev; (rev = nextRevision()) != null;)
+				l.add(rev);
+
+			buffered = l;
+			return this;
+		}
+
+		/**
+		 * Skips the remaining revisions of this Page, leaving the cursor at the end of the page.
+		 * 
+		 * @throws XMLStreamException On parse error
+		 */
+		private void finish() throws XMLStreamException
+		{
+			while (!done)
+			{
+				skipElement();
+				seekRevision();
+			}
+		}
+
+		/**
+		 * Advances the cursor to the next {@code revision} of this Page, skipping other elements (e.g. {@code upload}). If there are no more revisions, the cursor is left at the end of the page and
+		 * this Page is marked as done.
+		 * 
+		 * @throws XMLStreamException On parse error
+		 */
+		private void seekRevision() throws XMLStreamException
+		{
+			while (nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				if (r.getLocalName().equals("revision"))
+					return;
+
+				skipElement();
+			}
+
+			done = true;
+		}
+
+		/**
+		 * Gets a String representation of this Page. Useful for debugging.
+		 */
+		public String toString()
+		{
+			return String.format("[ title : %s, ns : %d, pageid : %d, redirect : %s ]", info.title, ns.v, info.pageid, redirect);
+		}
+	}
+}
\ No newline at end of file
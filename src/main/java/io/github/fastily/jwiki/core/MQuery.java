@@ -1,15 +1,24 @@
 package io.github.fastily.jwiki.core;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
+import io.github.fastily.jwiki.core.WQuery.QReply;
 import io.github.fastily.jwiki.core.WQuery.QTemplate;
 import io.github.fastily.jwiki.dwrap.ImageInfo;
+import io.github.fastily.jwiki.dwrap.Revision;
 import io.github.fastily.jwiki.util.FL;
 import io.github.fastily.jwiki.util.GSONP;
 import io.github.fastily.jwiki.util.GroupQueue;
@@ -28,11 +37,6 @@ import io.github.fastily.jwiki.util.Tuple;
  */
 public final class MQuery
 {
-	/**
-	 * The group {@code prop} query (multiple titles query) maximum
-	 */
-	private static final int groupQueryMax = 50;
-
 	/**
 	 * Constructors disallowed
 	 */
@@ -55,12 +59,15 @@ public final class MQuery
 	private static MultiMap<String, JsonObject> getContProp(Wiki wiki, Collection<String> titles, QTemplate qut,
 			HashMap<String, String> pl, String elemArrKey)
 	{
+		if (wiki.conf.parallelism > 1)
+			return getContPropAsync(wiki, titles, qut, pl, elemArrKey, wiki.conf.parallelism).join();
+
 		MultiMap<String, JsonObject> l = new MultiMap<>();
 
 		if (FL.containsNull(titles))
 			throw new IllegalArgumentException("null is not an acceptable title to query with");
 
-		GroupQueue<String> gq = new GroupQueue<>(titles, groupQueryMax);
+		GroupQueue<String> gq = new GroupQueue<>(titles, wiki.conf.groupQueryMax);
 
 		while (gq.has())
 		{
@@ -91,23 +98,65 @@ public final class MQuery
 	private static HashMap<String, JsonElement> getNoContProp(Wiki wiki, Collection<String> titles, QTemplate qut,
 			HashMap<String, String> pl, String eKey)
 	{
+		return getNoContProp(wiki, titles, qut, pl, eKey, null);
+	}
+
+	/**
+	 * Performs a non-continuing {@code prop} query. Grabs a title and an element from each returned page, and passes each reply from the server to {@code onReply}.
+	 * 
+	 * @param wiki The Wiki to query.
+	 * @param titles The titles to use
+	 * @param qut The QTemplate to use
+	 * @param pl Additional parameters to pass to each created WQuery, set null to disable.
+	 * @param eKey The value key to get from each page element. If this cannot be found, then it is set to null.
+	 * @param onReply Called with each reply from the server, set null to disable. This may be called from several threads at the same time.
+	 * @return The {@code title} of each page as the key, and the value of the associated {@code eKey}.
+	 */
+	private static HashMap<String, JsonElement> getNoContProp(Wiki wiki, Collection<String> titles, QTemplate qut,
+			HashMap<String, String> pl, String eKey, Consumer<QReply> onReply)
+	{
+		if (wiki.conf.parallelism > 1)
+			return getNoContPropAsync(wiki, titles, qut, pl, eKey, wiki.conf.parallelism, onReply).join();
+
 		HashMap<String, JsonElement> m = new HashMap<>();
 
 		if (FL.containsNull(titles))
 			throw new IllegalArgumentException("null is not an acceptable title to query with");
 
-		GroupQueue<String> gq = new GroupQueue<>(titles, groupQueryMax);
+		GroupQueue<String> gq = new GroupQueue<>(titles, wiki.conf.groupQueryMax);
 		while (gq.has())
 		{
 			WQuery wq = new WQuery(wiki, qut).set("titles", gq.poll());
 			if (pl != null)
 				pl.forEach(wq::set);
 
-			m.putAll(wq.next().propComp("title", eKey));
+			while (wq.has())
+			{
+				QReply r = wq.next();
+				if (onReply != null)
+					onReply.accept(r);
+
+				mergeProp(m, r.propComp("title", eKey));
+			}
 		}
 		return m;
 	}
 
+	/**
+	 * Merges a reply of a non-continuing {@code prop} query into {@code m}. Large groups of titles may still be split across several replies by the server (e.g. when the combined page text is too
+	 * big), in which case titles that were deferred to a later reply are returned with a null value and must not replace a value that was already received.
+	 * 
+	 * @param m The Map to merge into
+	 * @param r The {@code title} of each page in the reply as the key, and the value of the element of interest.
+	 */
+	private static void mergeProp(HashMap<String, JsonElement> m, HashMap<String, JsonElement> r)
+	{
+		r.forEach((k, v) -> {
+			if (v != null || !m.containsKey(k))
+				m.put(k, v);
+		});
+	}
+
 	/**
 	 * Performs a non-continuing {@code list} query. Grabs JsonObjects from the JsonArray in the server Response.
 	 * 
@@ -122,12 +171,15 @@ public final class MQuery
 	private static ArrayList<JsonObject> getNoContList(Wiki wiki, Collection<String> titles, QTemplate qut, HashMap<String, String> pl,
 			String tQKey, String aKey)
 	{
+		if (wiki.conf.parallelism > 1)
+			return getNoContListAsync(wiki, titles, qut, pl, tQKey, aKey, wiki.conf.parallelism).join();
+
 		ArrayList<JsonObject> l = new ArrayList<>();
 
 		if (FL.containsNull(titles))
 			throw new IllegalArgumentException("null is not an acceptable title to query with");
 
-		GroupQueue<String> gq = new GroupQueue<>(titles, groupQueryMax);
+		GroupQueue<String> gq = new GroupQueue<>(titles, wiki.conf.groupQueryMax);
 		while (gq.has())
 		{
 			WQuery wq = new WQuery(wiki, qut).set(tQKey, gq.poll());
@@ -140,6 +192,143 @@ public final class MQuery
 		return l;
 	}
 
+	/**
+	 * Asynchronous version of {@link #getContProp(Wiki, Collection, QTemplate, HashMap, String)}. Each group of titles is queried independently, so up to {@code window} groups are in flight at the
+	 * same time.
+	 * 
+	 * @param wiki The Wiki to use
+	 * @param titles The titles to query for.
+	 * @param qut The query template to use. Set this according to the fetching method being implemented
+	 * @param pl Additional custom parameters to apply to each generated WQuery. Optional, set null to disable.
+	 * @param elemArrKey The key for each JsonArray for each title the resulting set
+	 * @param window The maximum number of groups to query at the same time.
+	 * @return A CompletableFuture which completes with a Map where the key is the title of the page, and the value is the List of properties fetched.
+	 */
+	private static CompletableFuture<MultiMap<String, JsonObject>> getContPropAsync(Wiki wiki, Collection<String> titles, QTemplate qut,
+			HashMap<String, String> pl, String elemArrKey, int window)
+	{
+		return forEachGroup(wiki, titles, new QTemplate[] { qut }, pl, "titles", window, wq -> {
+			MultiMap<String, JsonObject> l = new MultiMap<>();
+			return wq.drainAsync(r -> r.propComp("title", elemArrKey).forEach((k, v) -> {
+				l.touch(k);
+				if (v != null)
+					l.put(k, GSONP.getJAofJO(v.getAsJsonArray()));
+			})).thenApply(v -> l);
+		}).thenApply(ml -> {
+			MultiMap<String, JsonObject> l = new MultiMap<>();
+			ml.forEach(m -> m.l.forEach(l::put));
+			return l;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link #getNoContProp(Wiki, Collection, QTemplate, HashMap, String)}. Each group of titles is queried independently, so up to {@code window} groups are in flight at the
+	 * same time.
+	 * 
+	 * @param wiki The Wiki to query.
+	 * @param titles The titles to use
+	 * @param qut The QTemplate to use
+	 * @param pl Additional parameters to pass to each created WQuery, set null to disable.
+	 * @param eKey The value key to get from each page element. If this cannot be found, then it is set to null.
+	 * @param window The maximum number of groups to query at the same time.
+	 * @return A CompletableFuture which completes with the {@code title} of each page as the key, and the value of the associated {@code eKey}.
+	 */
+	private static CompletableFuture<HashMap<String, JsonElement>> getNoContPropAsync(Wiki wiki, Collection<String> titles, QTemplate qut,
+			HashMap<String, String> pl, String eKey, int window)
+	{
+		return getNoContPropAsync(wiki, titles, qut, pl, eKey, window, null);
+	}
+
+	/**
+	 * Asynchronous version of {@link #getNoContProp(Wiki, Collection, QTemplate, HashMap, String, Consumer)}. Each group of titles is queried independently, so up to {@code window} groups are in
+	 * flight at the same time.
+	 * 
+	 * @param wiki The Wiki to query.
+	 * @param titles The titles to use
+	 * @param qut The QTemplate to use
+	 * @param pl Additional parameters to pass to each created WQuery, set null to disable.
+	 * @param eKey The value key to get from each page element. If this cannot be found, then it is set to null.
+	 * @param window The maximum number of groups to query at the same time.
+	 * @param onReply Called with each reply from the server, set null to disable. This may be called from several threads at the same time.
+	 * @return A CompletableFuture which completes with the {@code title} of each page as the key, and the value of the associated {@code eKey}.
+	 */
+	private static CompletableFuture<HashMap<String, JsonElement>> getNoContPropAsync(Wiki wiki, Collection<String> titles, QTemplate qut,
+			HashMap<String, String> pl, String eKey, int window, Consumer<QReply> onReply)
+	{
+		return forEachGroup(wiki, titles, new QTemplate[] { qut }, pl, "titles", window, wq -> {
+			HashMap<String, JsonElement> m = new HashMap<>();
+			return wq.drainAsync(r -> {
+				if (onReply != null)
+					onReply.accept(r);
+
+				mergeProp(m, r.propComp("title", eKey));
+			}).thenApply(v -> m);
+		}).thenApply(ml -> {
+			HashMap<String, JsonElement> m = new HashMap<>();
+			ml.forEach(m::putAll);
+			return m;
+		});
+	}
+
+	/**
+	 * Asynchronous version of {@link #getNoContList(Wiki, Collection, QTemplate, HashMap, String, String)}. Each group of titles is queried independently, so up to {@code window} groups are in
+	 * flight at the same time.
+	 * 
+	 * @param wiki The Wiki to query
+	 * @param titles The titles to use
+	 * @param qut The QTemplate to use
+	 * @param pl Additional parameters to pass to each created WQuery, set null to disable.
+	 * @param tQKey The variable name to use for each set of 50 {@code titles} in the url passed to the server.
+	 * @param aKey The key pointing to the JsonArray of JsonObject in the server's Response.
+	 * @param window The maximum number of groups to query at the same time.
+	 * @return A CompletableFuture which completes with an ArrayList of JsonObject collected from the server Response(s).
+	 */
+	private static CompletableFuture<ArrayList<JsonObject>> getNoContListAsync(Wiki wiki, Collection<String> titles, QTemplate qut,
+			HashMap<String, String> pl, String tQKey, String aKey, int window)
+	{
+		return forEachGroup(wiki, titles, new QTemplate[] { qut }, pl, tQKey, window, wq -> wq.nextAsync().thenApply(r -> r == null ? new ArrayList<JsonObject>() : r.listComp(aKey)))
+				.thenApply(ml -> {
+					ArrayList<JsonObject> l = new ArrayList<>();
+					ml.forEach(l::addAll);
+					return l;
+				});
+	}
+
+	/**
+	 * Splits {@code titles} into groups, creates a WQuery for each group, and runs {@code task} on each of them. Up to {@code window} tasks run at the same time; as each one finishes, the task for
+	 * the next group is started. This method does not wait for any task to finish.
+	 * 
+	 * @param <T> The type of result produced for each group.
+	 * @param wiki The Wiki to query
+	 * @param titles The titles to use
+	 * @param qut The QTemplates to use. If more than one is specified, their modules are combined into each WQuery.
+	 * @param pl Additional parameters to pass to each created WQuery, set null to disable.
+	 * @param tQKey The variable name to use for each group of {@code titles} in the url passed to the server.
+	 * @param window The maximum number of tasks to run at the same time.
+	 * @param task Starts the asynchronous work for a single group's WQuery.
+	 * @return A CompletableFuture which completes with the results of each group, in order, once all groups are done.
+	 */
+	private static <T> CompletableFuture<ArrayList<T>> forEachGroup(Wiki wiki, Collection<String> titles, QTemplate[] qut, HashMap<String, String> pl, String tQKey,
+			int window, Function<WQuery, CompletableFuture<T>> task)
+	{
+		if (FL.containsNull(titles))
+			throw new IllegalArgumentException("null is not an acceptable title to query with");
+
+		ArrayList<WQuery> ql = new ArrayList<>();
+
+		GroupQueue<String> gq = new GroupQueue<>(titles, wiki.conf.groupQueryMax);
+		while (gq.has())
+		{
+			WQuery wq = new WQuery(wiki, qut).set(tQKey, gq.poll());
+			if (pl != null)
+				pl.forEach(wq::set);
+
+			ql.add(wq);
+		}
+
+		return FL.windowed(ql, window, task);
+	}
+
 	/**
 	 * Retrieve one String value from each JsonObject ArrayList for each pair in a MapList.
 	 * 
@@ -194,10 +383,32 @@ public final class MQuery
 	 *         not exist)
 	 */
 	public static HashMap<String, ArrayList<String>> listUserRights(Wiki wiki, Collection<String> users)
+	{
+		return parseUserRights(getNoContList(wiki, users, WQuery.USERRIGHTS, null, "ususers", "users"));
+	}
+
+	/**
+	 * Asynchronous version of {@link #listUserRights(Wiki, Collection)}.
+	 * 
+	 * @param wiki The Wiki object to use.
+	 * @param users Users to get rights information for. Do not include {@code User:} prefix.
+	 * @return A CompletableFuture which completes with a Map such that the key is the user and the value a List of the user's rights (or null if the user does not exist)
+	 */
+	public static CompletableFuture<HashMap<String, ArrayList<String>>> listUserRightsAsync(Wiki wiki, Collection<String> users)
+	{
+		return getNoContListAsync(wiki, users, WQuery.USERRIGHTS, null, "ususers", "users", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parseUserRights);
+	}
+
+	/**
+	 * Collects each user and their usergroups from a {@code list=users} query.
+	 * 
+	 * @param jl The {@code users} JsonObjects returned by the server.
+	 * @return A Map such that the key is the user and the value a List of the user's rights (or null if the user does not exist)
+	 */
+	private static HashMap<String, ArrayList<String>> parseUserRights(ArrayList<JsonObject> jl)
 	{
 		HashMap<String, ArrayList<String>> l = new HashMap<>();
-		getNoContList(wiki, users, WQuery.USERRIGHTS, null, "ususers", "users")
-				.forEach(jo -> l.put(GSONP.getStr(jo, "name"), jo.has("groups") ? GSONP.jaOfStrToAL(jo.getAsJsonArray("groups")) : null));
+		jl.forEach(jo -> l.put(GSONP.getStr(jo, "name"), jo.has("groups") ? GSONP.jaOfStrToAL(jo.getAsJsonArray("groups")) : null));
 
 		return l;
 	}
@@ -233,6 +444,30 @@ public final class MQuery
 		return parsePropToSingle(getContProp(wiki, titles, WQuery.PAGECATEGORIES, null, "categories"));
 	}
 
+	/**
+	 * Gets the list of categories on a page.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return A list of results keyed by Title. The value is the list of categories on the Title.
+	 */
+	public static HashMap<Title, ArrayList<Title>> getCategoriesOnPage(Wiki wiki, Title... titles)
+	{
+		return byTitles(wiki, getCategoriesOnPage(wiki, toStrings(titles)));
+	}
+
+	/**
+	 * Asynchronous version of {@link #getCategoriesOnPage(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query.
+	 * @return A CompletableFuture which completes with a list of results keyed by title.
+	 */
+	public static CompletableFuture<HashMap<String, ArrayList<String>>> getCategoriesOnPageAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getContPropAsync(wiki, titles, WQuery.PAGECATEGORIES, null, "categories", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parsePropToSingle);
+	}
+
 	/**
 	 * Gets the number of elements contained in a category.
 	 * 
@@ -242,24 +477,173 @@ public final class MQuery
 	 *         non-existent.
 	 */
 	public static HashMap<String, Integer> getCategorySize(Wiki wiki, Collection<String> titles)
+	{
+		return parseCategorySize(getNoContProp(wiki, titles, WQuery.CATEGORYINFO, null, "categoryinfo"));
+	}
+
+	/**
+	 * Gets the number of elements contained in a category.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query. PRECONDITION: Titles <span style="text-decoration:underline">must</span> begin with the {@code Category:} prefix
+	 * @return A list of results keyed by Title.
+	 */
+	public static HashMap<Title, Integer> getCategorySize(Wiki wiki, Title... titles)
+	{
+		return byTitle(wiki, getCategorySize(wiki, toStrings(titles)));
+	}
+
+	/**
+	 * Asynchronous version of {@link #getCategorySize(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query. PRECONDITION: Titles *must* begin with the "Category:" prefix
+	 * @return A CompletableFuture which completes with a list of results keyed by title.
+	 */
+	public static CompletableFuture<HashMap<String, Integer>> getCategorySizeAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getNoContPropAsync(wiki, titles, WQuery.CATEGORYINFO, null, "categoryinfo", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parseCategorySize);
+	}
+
+	/**
+	 * Extracts category sizes from {@code categoryinfo} query results.
+	 * 
+	 * @param m The {@code categoryinfo} JsonElement of each title.
+	 * @return The size of each category, keyed by title.
+	 */
+	private static HashMap<String, Integer> parseCategorySize(HashMap<String, JsonElement> m)
 	{
 		HashMap<String, Integer> l = new HashMap<>();
-		getNoContProp(wiki, titles, WQuery.CATEGORYINFO, null, "categoryinfo")
-				.forEach((k, v) -> l.put(k, v == null ? 0 : v.getAsJsonObject().get("size").getAsInt()));
+		m.forEach((k, v) -> l.put(k, v == null ? 0 : v.getAsJsonObject().get("size").getAsInt()));
 		return l;
 	}
 
 	/**
-	 * Gets the text of a page.
+	 * Gets the text of a page. If the Wiki has a {@link ContentCache}, the latest revision ID of each page is queried first, and text is only downloaded for pages whose latest revision is not cached.
 	 * 
 	 * @param wiki The wiki to use
 	 * @param titles The titles to query
 	 * @return A list of results keyed by title.
 	 */
 	public static HashMap<String, String> getPageText(Wiki wiki, Collection<String> titles)
+	{
+		ContentCache cache = wiki.conf.contentCache;
+		if (cache == null)
+			return parsePageText(getNoContProp(wiki, titles, WQuery.PAGETEXT, null, "revisions"));
+
+		HashMap<String, String> l = new HashMap<>();
+		ArrayList<String> misses = readCache(wiki, cache, getNoContProp(wiki, titles, WQuery.PAGEINFO, null, "lastrevid"), l);
+		if (!misses.isEmpty())
+			l.putAll(writeCache(wiki, cache, getNoContProp(wiki, misses, WQuery.PAGETEXT, FL.pMap("rvprop", "content|ids"), "revisions")));
+
+		return l;
+	}
+
+	/**
+	 * Gets the text of a page. If the Wiki has a {@link ContentCache}, the latest revision ID of each page is queried first, and text is only downloaded for pages whose latest revision is not cached.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return A list of results keyed by Title.
+	 */
+	public static HashMap<Title, String> getPageText(Wiki wiki, Title... titles)
+	{
+		return byTitle(wiki, getPageText(wiki, toStrings(titles)));
+	}
+
+	/**
+	 * Asynchronous version of {@link #getPageText(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return A CompletableFuture which completes with a list of results keyed by title.
+	 */
+	public static CompletableFuture<HashMap<String, String>> getPageTextAsync(Wiki wiki, Collection<String> titles)
+	{
+		ContentCache cache = wiki.conf.contentCache;
+		if (cache == null)
+			return getNoContPropAsync(wiki, titles, WQuery.PAGETEXT, null, "revisions", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parsePageText);
+
+		return getNoContPropAsync(wiki, titles, WQuery.PAGEINFO, null, "lastrevid", wiki.conf.maxRequestsPerHost).thenCompose(revs -> {
+			HashMap<String, String> l = new HashMap<>();
+			ArrayList<String> misses = readCache(wiki, cache, revs, l);
+			if (misses.isEmpty())
+				return CompletableFuture.completedFuture(l);
+
+			return getNoContPropAsync(wiki, misses, WQuery.PAGETEXT, FL.pMap("rvprop", "content|ids"), "revisions", wiki.conf.maxRequestsPerHost).thenApply(m -> {
+				l.putAll(writeCache(wiki, cache, m));
+				return l;
+			});
+		});
+	}
+
+	/**
+	 * Looks up the text of pages in a ContentCache.
+	 * 
+	 * @param wiki The wiki the pages are on
+	 * @param cache The ContentCache to use
+	 * @param revs The {@code lastrevid} of each title. Missing pages have no {@code lastrevid}.
+	 * @param l The Map to put the text of each page found in {@code cache} in. Missing pages are mapped to the empty String.
+	 * @return The titles of the pages whose latest revision was not found in {@code cache}.
+	 */
+	private static ArrayList<String> readCache(Wiki wiki, ContentCache cache, HashMap<String, JsonElement> revs, HashMap<String, String> l)
+	{
+		ArrayList<String> misses = new ArrayList<>();
+		revs.forEach((k, v) -> {
+			if (v == null)
+				l.put(k, "");
+			else
+			{
+				String text = cache.get(wiki.conf.hostname, k, v.getAsLong());
+				if (text != null)
+					l.put(k, text);
+				else
+					misses.add(k);
+			}
+		});
+
+		return misses;
+	}
+
+	/**
+	 * Extracts the text of the latest revision of each page from {@code revisions} query results, and saves it in a ContentCache. Requires the {@code ids} {@code rvprop}.
+	 * 
+	 * @param wiki The wiki the pages are on
+	 * @param cache The ContentCache to use
+	 * @param m The {@code revisions} JsonElement of each title.
+	 * @return The text of each page, keyed by title. Missing pages are mapped to the empty String.
+	 */
+	private static HashMap<String, String> writeCache(Wiki wiki, ContentCache cache, HashMap<String, JsonElement> m)
+	{
+		HashMap<String, String> l = new HashMap<>();
+		m.forEach((k, v) -> {
+			ArrayList<JsonObject> jl = v == null ? new ArrayList<>() : GSONP.getJAofJO(v.getAsJsonArray());
+			if (jl.isEmpty())
+				l.put(k, "");
+			else
+			{
+				JsonObject rev = jl.get(0);
+				String text = GSONP.getStr(rev, "*");
+				l.put(k, text);
+
+				if (text != null && rev.has("revid"))
+					cache.put(wiki.conf.hostname, k, rev.get("revid").getAsLong(), text);
+			}
+		});
+
+		return l;
+	}
+
+	/**
+	 * Extracts the text of the latest revision of each page from {@code revisions} query results.
+	 * 
+	 * @param m The {@code revisions} JsonElement of each title.
+	 * @return The text of each page, keyed by title. Missing pages are mapped to the empty String.
+	 */
+	private static HashMap<String, String> parsePageText(HashMap<String, JsonElement> m)
 	{
 		HashMap<String, String> l = new HashMap<>();
-		getNoContProp(wiki, titles, WQuery.PAGETEXT, null, "revisions").forEach((k, v) -> {
+		m.forEach((k, v) -> {
 			if (v == null)
 				l.put(k, "");
 			else
@@ -272,6 +656,81 @@ public final class MQuery
 		return l;
 	}
 
+	/**
+	 * Gets the latest revision of each page, with its text and timestamp. If the Wiki has a {@link ContentCache}, text is only downloaded for pages whose latest revision is not cached.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return A list of results keyed by title. Missing pages are mapped to null.
+	 */
+	public static HashMap<String, Revision> getLatestRevisions(Wiki wiki, Collection<String> titles)
+	{
+		return getLatestRevisionsAt(wiki, titles).x;
+	}
+
+	/**
+	 * Gets the latest revision of each page, along with the server's time when they were fetched. The server's time, rather than the local clock, is what MediaWiki compares an edit's
+	 * {@code starttimestamp} against.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return The latest revision of each page keyed by title (missing pages are mapped to null), and the earliest {@code curtimestamp} the server sent while listing them. The latter is null if
+	 *         the server did not send a {@code curtimestamp}.
+	 */
+	protected static Tuple<HashMap<String, Revision>, Instant> getLatestRevisionsAt(Wiki wiki, Collection<String> titles)
+	{
+		AtomicReference<Instant> now = new AtomicReference<>();
+		Consumer<QReply> onReply = r -> {
+			String ts = GSONP.getStr(r.input, "curtimestamp");
+			if (ts != null)
+				now.accumulateAndGet(Instant.parse(ts), (a, b) -> a == null || b.isBefore(a) ? b : a);
+		};
+
+		HashMap<String, String> pl = FL.pMap("rvprop", "content|ids|timestamp");
+
+		ContentCache cache = wiki.conf.contentCache;
+		if (cache == null)
+		{
+			pl.put("curtimestamp", "1");
+			HashMap<String, Revision> l = parseRevisions(getNoContProp(wiki, titles, WQuery.PAGETEXT, pl, "revisions", onReply));
+			return new Tuple<>(l, now.get());
+		}
+
+		HashMap<String, Revision> l = parseRevisions(getNoContProp(wiki, titles, WQuery.PAGETEXT, FL.pMap("rvprop", "ids|timestamp", "curtimestamp", "1"), "revisions", onReply));
+		ArrayList<String> misses = new ArrayList<>();
+		l.forEach((k, v) -> {
+			if (v != null && (v.text = cache.get(wiki.conf.hostname, k, v.revid)) == null)
+				misses.add(k);
+		});
+
+		if (!misses.isEmpty())
+			parseRevisions(getNoContProp(wiki, misses, WQuery.PAGETEXT, pl, "revisions")).forEach((k, v) -> {
+				if (v != null && v.text != null)
+					cache.put(wiki.conf.hostname, k, v.revid, v.text);
+
+				l.put(k, v);
+			});
+
+		return new Tuple<>(l, now.get());
+	}
+
+	/**
+	 * Extracts the latest revision of each page from {@code revisions} query results.
+	 * 
+	 * @param m The {@code revisions} JsonElement of each title.
+	 * @return The latest revision of each page, keyed by title. Missing pages are mapped to null.
+	 */
+	private static HashMap<String, Revision> parseRevisions(HashMap<String, JsonElement> m)
+	{
+		HashMap<String, Revision> l = new HashMap<>();
+		m.forEach((k, v) -> {
+			ArrayList<JsonObject> jl = v == null ? new ArrayList<>() : GSONP.getJAofJO(v.getAsJsonArray());
+			l.put(k, jl.isEmpty() ? null : GSONP.gson.fromJson(jl.get(0), Revision.class));
+		});
+
+		return l;
+	}
+
 	/**
 	 * Get wiki links on a page.
 	 * 
@@ -353,9 +812,44 @@ public final class MQuery
 	 * @return Results keyed by title. {@code true} means the title exists.
 	 */
 	public static HashMap<String, Boolean> exists(Wiki wiki, Collection<String> titles)
+	{
+		return parseExists(getNoContProp(wiki, titles, WQuery.EXISTS, null, "missing"));
+	}
+
+	/**
+	 * Checks if list of titles exists.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query.
+	 * @return Results keyed by Title. {@code true} means the title exists.
+	 */
+	public static HashMap<Title, Boolean> exists(Wiki wiki, Title... titles)
+	{
+		return byTitle(wiki, exists(wiki, toStrings(titles)));
+	}
+
+	/**
+	 * Asynchronous version of {@link #exists(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query.
+	 * @return A CompletableFuture which completes with results keyed by title. {@code true} means the title exists.
+	 */
+	public static CompletableFuture<HashMap<String, Boolean>> existsAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getNoContPropAsync(wiki, titles, WQuery.EXISTS, null, "missing", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parseExists);
+	}
+
+	/**
+	 * Determines which titles exist from {@code pageprops} query results.
+	 * 
+	 * @param m The {@code missing} JsonElement of each title.
+	 * @return Results keyed by title. {@code true} means the title exists.
+	 */
+	private static HashMap<String, Boolean> parseExists(HashMap<String, JsonElement> m)
 	{
 		HashMap<String, Boolean> l = new HashMap<>();
-		getNoContProp(wiki, titles, WQuery.EXISTS, null, "missing").forEach((k, v) -> l.put(k, v == null));
+		m.forEach((k, v) -> l.put(k, v == null));
 		return l;
 	}
 
@@ -390,6 +884,18 @@ public final class MQuery
 		return parsePropToSingle(getContProp(wiki, titles, WQuery.IMAGES, null, "images"));
 	}
 
+	/**
+	 * Asynchronous version of {@link #getImagesOnPage(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query
+	 * @return A CompletableFuture which completes with a list of results keyed by title.
+	 */
+	public static CompletableFuture<HashMap<String, ArrayList<String>>> getImagesOnPageAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getContPropAsync(wiki, titles, WQuery.IMAGES, null, "images", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parsePropToSingle);
+	}
+
 	/**
 	 * Get templates transcluded on a page.
 	 * 
@@ -402,6 +908,30 @@ public final class MQuery
 		return parsePropToSingle(getContProp(wiki, titles, WQuery.TEMPLATES, null, "templates"));
 	}
 
+	/**
+	 * Get templates transcluded on a page.
+	 * 
+	 * @param wiki The wiki to use
+	 * @param titles The titles to query
+	 * @return A list of results keyed by Title. The value is the list of templates transcluded on the Title.
+	 */
+	public static HashMap<Title, ArrayList<Title>> getTemplatesOnPage(Wiki wiki, Title... titles)
+	{
+		return byTitles(wiki, getTemplatesOnPage(wiki, toStrings(titles)));
+	}
+
+	/**
+	 * Asynchronous version of {@link #getTemplatesOnPage(Wiki, Collection)}.
+	 * 
+	 * @param wiki The wiki object to use
+	 * @param titles The titles to query
+	 * @return A CompletableFuture which completes with a list of results keyed by title.
+	 */
+	public static CompletableFuture<HashMap<String, ArrayList<String>>> getTemplatesOnPageAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getContPropAsync(wiki, titles, WQuery.TEMPLATES, null, "templates", wiki.conf.maxRequestsPerHost).thenApply(MQuery::parsePropToSingle);
+	}
+
 	/**
 	 * Gets the global usage of a file.
 	 * 
@@ -422,13 +952,50 @@ public final class MQuery
 	 * @return A HashMap where each key is the original title, and the value is the resolved title.
 	 */
 	public static HashMap<String, String> resolveRedirects(Wiki wiki, Collection<String> titles)
+	{
+		return parseRedirects(titles, getNoContList(wiki, titles, WQuery.RESOLVEREDIRECT, null, "titles", "redirects"));
+	}
+
+	/**
+	 * Resolves title redirects on a Wiki.
+	 * 
+	 * @param wiki The Wiki to run the query against
+	 * @param titles The titles to attempt resolving.
+	 * @return A HashMap where each key is the original Title, and the value is the resolved Title.
+	 */
+	public static HashMap<Title, Title> resolveRedirects(Wiki wiki, Title... titles)
+	{
+		HashMap<Title, Title> l = new HashMap<>();
+		resolveRedirects(wiki, toStrings(titles)).forEach((k, v) -> l.put(wiki.getTitle(k), wiki.getTitle(v)));
+		return l;
+	}
+
+	/**
+	 * Asynchronous version of {@link #resolveRedirects(Wiki, Collection)}.
+	 * 
+	 * @param wiki The Wiki to run the query against
+	 * @param titles The titles to attempt resolving.
+	 * @return A CompletableFuture which completes with a HashMap where each key is the original title, and the value is the resolved title.
+	 */
+	public static CompletableFuture<HashMap<String, String>> resolveRedirectsAsync(Wiki wiki, Collection<String> titles)
+	{
+		return getNoContListAsync(wiki, titles, WQuery.RESOLVEREDIRECT, null, "titles", "redirects", wiki.conf.maxRequestsPerHost).thenApply(jl -> parseRedirects(titles, jl));
+	}
+
+	/**
+	 * Maps each title to its redirect target, using {@code redirects} query results.
+	 * 
+	 * @param titles The titles which were queried
+	 * @param jl The {@code redirects} JsonObjects returned by the server.
+	 * @return A HashMap where each key is the original title, and the value is the resolved title.
+	 */
+	private static HashMap<String, String> parseRedirects(Collection<String> titles, ArrayList<JsonObject> jl)
 	{
 		HashMap<String, String> l = new HashMap<>();
 		for (String s : titles)
 			l.put(s, s);
 
-		getNoContList(wiki, titles, WQuery.RESOLVEREDIRECT, null, "titles", "redirects")
-				.forEach(jo -> l.put(GSONP.getStr(jo, "from"), GSONP.getStr(jo, "to")));
+		jl.forEach(jo -> l.put(GSONP.getStr(jo, "from"), GSONP.getStr(jo, "to")));
 
 		return l;
 	}
@@ -488,4 +1055,274 @@ public final class MQuery
 
 		return l;
 	}
+
+	/**
+	 * Fetches several page properties ({@code prop} modules) of a set of titles at the same time. Rather than walking
+	 * over the titles once per property, as calling {@link #getCategoriesOnPage(Wiki, Collection)},
+	 * {@link #getTemplatesOnPage(Wiki, Collection)}, etc. in turn would, the selected modules are combined into a single
+	 * query per group of titles. Each module continues independently of the others until all of them are exhausted.
+	 * 
+	 * @author Fastily
+	 */
+	public static class PropQuery
+	{
+		/**
+		 * The Wiki object to use
+		 */
+		private final Wiki wiki;
+
+		/**
+		 * The QTemplates of the selected modules.
+		 */
+		private final ArrayList<QTemplate> ql = new ArrayList<>();
+
+		/**
+		 * Additional parameters to apply to each generated WQuery.
+		 */
+		private final HashMap<String, String> pl = new HashMap<>();
+
+		/**
+		 * Constructor, creates a new, empty PropQuery.
+		 * 
+		 * @param wiki The Wiki object to use
+		 */
+		public PropQuery(Wiki wiki)
+		{
+			this.wiki = wiki;
+		}
+
+		/**
+		 * Selects a module to include in this PropQuery.
+		 * 
+		 * @param qut The QTemplate of the module to include.
+		 * @return This PropQuery
+		 */
+		private PropQuery add(QTemplate qut)
+		{
+			if (!ql.contains(qut))
+				ql.add(qut);
+
+			return this;
+		}
+
+		/**
+		 * Include the categories on each page.
+		 * 
+		 * @return This PropQuery
+		 */
+		public PropQuery categories()
+		{
+			return add(WQuery.PAGECATEGORIES);
+		}
+
+		/**
+		 * Include the templates transcluded on each page.
+		 * 
+		 * @return This PropQuery
+		 */
+		public PropQuery templates()
+		{
+			return add(WQuery.TEMPLATES);
+		}
+
+		/**
+		 * Include the images and files on each page.
+		 * 
+		 * @return This PropQuery
+		 */
+		public PropQuery images()
+		{
+			return add(WQuery.IMAGES);
+		}
+
+		/**
+		 * Include the wiki links on each page.
+		 * 
+		 * @param ns Namespaces to include-only. Optional param: leave blank to disable.
+		 * @return This PropQuery
+		 */
+		public PropQuery links(NS... ns)
+		{
+			if (ns.length > 0)
+				pl.put("plnamespace", wiki.nsl.createFilter(ns));
+
+			return add(WQuery.LINKSONPAGE);
+		}
+
+		/**
+		 * Include the text of each page.
+		 * 
+		 * @return This PropQuery
+		 */
+		public PropQuery text()
+		{
+			return add(WQuery.PAGETEXT);
+		}
+
+		/**
+		 * Fetches the selected properties of each title.
+		 * 
+		 * @param titles The titles to query
+		 * @return The properties of each title, keyed by title.
+		 */
+		public HashMap<String, PageProps> fetch(Collection<String> titles)
+		{
+			return fetch(titles, wiki.conf.parallelism).join();
+		}
+
+		/**
+		 * Asynchronous version of {@link #fetch(Collection)}.
+		 * 
+		 * @param titles The titles to query
+		 * @return A CompletableFuture which completes with the properties of each title, keyed by title.
+		 */
+		public CompletableFuture<HashMap<String, PageProps>> fetchAsync(Collection<String> titles)
+		{
+			return fetch(titles, wiki.conf.maxRequestsPerHost);
+		}
+
+		/**
+		 * Fetches the selected properties of each title, running up to {@code window} groups of titles at the same time.
+		 * 
+		 * @param titles The titles to query
+		 * @param window The maximum number of groups of titles to query at the same time.
+		 * @return A CompletableFuture which completes with the properties of each title, keyed by title.
+		 */
+		private CompletableFuture<HashMap<String, PageProps>> fetch(Collection<String> titles, int window)
+		{
+			if (ql.isEmpty())
+				throw new IllegalStateException("No properties were selected");
+
+			HashSet<String> queried = new HashSet<>(titles);
+			return forEachGroup(wiki, titles, ql.toArray(new QTemplate[0]), pl, "titles", window, wq -> {
+				HashMap<String, PageProps> m = new HashMap<>();
+				return wq.drainAsync(r -> r.pageComp(queried).forEach((k, v) -> m.computeIfAbsent(k, PageProps::new).merge(v))).thenApply(v -> m);
+			}).thenApply(ml -> {
+				HashMap<String, PageProps> m = new HashMap<>();
+				ml.forEach(m::putAll);
+				return m;
+			});
+		}
+	}
+
+	/**
+	 * The page properties of a single title, as fetched by a {@link PropQuery}. Properties which were not selected in
+	 * the PropQuery are left empty.
+	 * 
+	 * @author Fastily
+	 */
+	public static class PageProps
+	{
+		/**
+		 * The title of the page these properties belong to
+		 */
+		public final String title;
+
+		/**
+		 * The categories on the page
+		 */
+		public final ArrayList<String> categories = new ArrayList<>();
+
+		/**
+		 * The templates transcluded on the page
+		 */
+		public final ArrayList<String> templates = new ArrayList<>();
+
+		/**
+		 * The images and files on the page
+		 */
+		public final ArrayList<String> images = new ArrayList<>();
+
+		/**
+		 * The wiki links on the page
+		 */
+		public final ArrayList<String> links = new ArrayList<>();
+
+		/**
+		 * The text of the page. This is the empty String if the page does not exist.
+		 */
+		public String text = "";
+
+		/**
+		 * Constructor, creates a new, empty PageProps.
+		 * 
+		 * @param title The title of the page these properties belong to
+		 */
+		protected PageProps(String title)
+		{
+			this.title = title;
+		}
+
+		/**
+		 * Adds the properties found in a page JsonObject of a query reply. Since each module continues independently,
+		 * a page may be returned several times over the course of a query, each time with a different subset of
+		 * properties.
+		 * 
+		 * @param jo The page JsonObject to read from.
+		 */
+		private void merge(JsonObject jo)
+		{
+			mergeTitles(jo, "categories", categories);
+			mergeTitles(jo, "templates", templates);
+			mergeTitles(jo, "images", images);
+			mergeTitles(jo, "links", links);
+
+			ArrayList<JsonObject> rl = GSONP.getJAofJO(jo, "revisions");
+			if (!rl.isEmpty())
+				text = GSONP.getStr(rl.get(0), "*");
+		}
+
+		/**
+		 * Adds the {@code title} of each JsonObject in the JsonArray {@code key} of {@code jo} to {@code l}.
+		 * 
+		 * @param jo The page JsonObject to read from.
+		 * @param key The key of the JsonArray of interest.
+		 * @param l The list to add titles to.
+		 */
+		private static void mergeTitles(JsonObject jo, String key, ArrayList<String> l)
+		{
+			for (JsonObject x : GSONP.getJAofJO(jo, key))
+				l.add(GSONP.getStr(x, "title"));
+		}
+	}
+
+	/**
+	 * Gets the display forms of some Titles, for use as query input.
+	 * 
+	 * @param titles The Titles to use
+	 * @return The display form of each Title in {@code titles}.
+	 */
+	private static ArrayList<String> toStrings(Title... titles)
+	{
+		return FL.toAL(Stream.of(titles).map(Title::toString));
+	}
+
+	/**
+	 * Re-keys query results by interned Title. Results are keyed by the titles which were queried, so each key maps back to the Title it was queried with.
+	 * 
+	 * @param <V> The type of the values
+	 * @param wiki The Wiki the titles belong to
+	 * @param m The results, keyed by title.
+	 * @return The results, keyed by Title.
+	 */
+	private static <V> HashMap<Title, V> byTitle(Wiki wiki, HashMap<String, V> m)
+	{
+		HashMap<Title, V> l = new HashMap<>();
+		m.forEach((k, v) -> l.put(wiki.getTitle(k), v));
+		return l;
+	}
+
+	/**
+	 * Re-keys query results by interned Title, and converts each listed title to an interned Title.
+	 * 
+	 * @param wiki The Wiki the titles belong to
+	 * @param m The results, keyed by title.
+	 * @return The results, keyed by Title.
+	 */
+	private static HashMap<Title, ArrayList<Title>> byTitles(Wiki wiki, HashMap<String, ArrayList<String>> m)
+	{
+		HashMap<Title, ArrayList<Title>> l = new HashMap<>();
+		m.forEach((k, v) -> l.put(wiki.getTitle(k), wiki.getTitles(v)));
+		return l;
+	}
 }
\ No newline at end of file
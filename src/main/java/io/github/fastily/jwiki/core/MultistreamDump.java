@@ -0,0 +1,321 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes a Wikimedia multistream dump (e.g. {@code enwiki-latest-pages-articles-multistream.xml.bz2}) in parallel. A multistream dump is a series of independent bz2 streams of about 100 pages
+ * each, and its index file (e.g. {@code enwiki-latest-pages-articles-multistream-index.txt.bz2}) lists the byte offset of each stream. Streams are decompressed and parsed on a ForkJoinPool, so
+ * throughput scales with the number of cores.
+ * <p>
+ * Pages are delivered to a callback. By default, the callback is run on the worker threads, in no particular order, and must be thread-safe. With {@link #withOrdered(boolean)}, the callback is run
+ * on the calling thread, in dump order, while later streams are decompressed ahead in the background.
+ * 
+ * @author Fastily
+ *
+ */
+public class MultistreamDump
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(MultistreamDump.class);
+
+	/**
+	 * Wraps each stream, which only contains pages, so that it parses as a dump.
+	 */
+	private static final byte[] open = "<mediawiki>".getBytes(StandardCharsets.UTF_8), close = "</mediawiki>".getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * The multistream dump file.
+	 */
+	private final Path dump;
+
+	/**
+	 * The byte offset of each stream of pages in {@link #dump}, in ascending order, followed by the size of {@link #dump}.
+	 */
+	private final long[] offsets;
+
+	/**
+	 * A DumpReader over the first stream of the dump, which holds the dump's {@code siteinfo}.
+	 */
+	private final DumpReader header;
+
+	/**
+	 * The number of streams to process at the same time.
+	 */
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Flag indicating whether pages are delivered in dump order.
+	 */
+	private boolean ordered = false;
+
+	/**
+	 * Constructor, reads the index and the {@code siteinfo} of a multistream dump.
+	 * 
+	 * @param dump The multistream dump file
+	 * @param index The index file of {@code dump}. This is decompressed on the fly if its name ends in {@code .bz2}.
+	 * @throws IOException If either file could not be read.
+	 */
+	public MultistreamDump(Path dump, Path index) throws IOException
+	{
+		this.dump = dump;
+		offsets = readIndex(index, Files.size(dump));
+
+		try (FileChannel fc = FileChannel.open(dump, StandardOpenOption.READ))
+		{
+			header = new DumpReader(wrap(readStream(fc, 0, offsets[0]), false), null);
+		}
+
+		log.info("{}: {} streams of pages", dump, offsets.length - 1);
+	}
+
+	/**
+	 * Reads the distinct stream offsets from an index file. Each line of the index is {@code offset:pageid:title}.
+	 * 
+	 * @param index The index file
+	 * @param size The size of the dump file.
+	 * @return The distinct offsets in ascending order, followed by {@code size}.
+	 * @throws IOException If {@code index} could not be read, or is empty.
+	 */
+	private static long[] readIndex(Path index, long size) throws IOException
+	{
+		InputStream in = Files.newInputStream(index);
+		if (index.getFileName().toString().endsWith(".bz2"))
+			in = new BZip2CompressorInputStream(in, true);
+
+		TreeSet<Long> l = new TreeSet<>();
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)))
+		{
+			long last = -1;
+			for (String line; (line = br.readLine()) != null;)
+			{
+				int i = line.indexOf(':');
+				if (i <= 0)
+					continue;
+
+				long offset = Long.parseLong(line.substring(0, i));
+				if (offset != last) // consecutive lines usually share a stream
+					l.add(last = offset);
+			}
+		}
+
+		if (l.isEmpty())
+			throw new IOException(index + " is not a multistream index");
+
+		l.add(size);
+		return l.stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Sets the number of streams to process at the same time. The default is the number of available processors.
+	 * 
+	 * @param parallelism The number of streams. PRECONDITION: this must be a positive number.
+	 * @return This MultistreamDump
+	 */
+	public MultistreamDump withParallelism(int parallelism)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be a positive number");
+
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets whether pages are delivered in dump order. If so, the callback is run on the calling thread, and each stream is buffered in memory until all streams before it have been delivered; at
+	 * most a few streams per worker thread are buffered at once. The default is false.
+	 * 
+	 * @param ordered Set true to deliver pages in dump order.
+	 * @return This MultistreamDump
+	 */
+	public MultistreamDump withOrdered(boolean ordered)
+	{
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Gets a DumpReader over the {@code siteinfo} of the dump. Use this to get the name of the Wiki, or to resolve namespaces. It has no pages.
+	 * 
+	 * @return A DumpReader over the {@code siteinfo} of the dump.
+	 */
+	public DumpReader getHeader()
+	{
+		return header;
+	}
+
+	/**
+	 * Processes every page in the dump, and waits for processing to finish. Processing stops at the first stream which could not be read, or the first exception thrown by {@code action}.
+	 * 
+	 * @param action The callback to run on each page. Its revisions may be read with {@link DumpReader.Page#nextRevision()} while the callback runs.
+	 * @throws IOException If a stream could not be read or parsed.
+	 */
+	public void forEachPage(Consumer<DumpReader.Page> action) throws IOException
+	{
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		AtomicBoolean failed = new AtomicBoolean(false);
+
+		try (FileChannel fc = FileChannel.open(dump, StandardOpenOption.READ))
+		{
+			if (ordered)
+				forEachOrdered(fc, pool, failed, action);
+			else
+			{
+				ArrayList<CompletableFuture<Void>> l = new ArrayList<>();
+				for (int i = 0; i < offsets.length - 1; i++)
+				{
+					int s = i;
+					l.add(CompletableFuture.runAsync(() -> {
+						if (failed.get())
+							return;
+
+						try
+						{
+							parse(fc, s, action, false);
+						}
+						catch (RuntimeException e)
+						{
+							failed.set(true);
+							throw e;
+						}
+					}, pool));
+				}
+
+				CompletableFuture.allOf(l.toArray(new CompletableFuture<?>[0])).join();
+			}
+		}
+		catch (CompletionException e)
+		{
+			if (e.getCause() instanceof UncheckedIOException)
+				throw ((UncheckedIOException) e.getCause()).getCause();
+			else if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+
+			throw e;
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Processes every page in the dump in order, running {@code action} on the calling thread. Streams are decompressed and parsed ahead on {@code pool}, a bounded number at a time.
+	 * 
+	 * @param fc The FileChannel of the dump
+	 * @param pool The pool to parse streams on
+	 * @param failed Flag to set if a stream could not be read.
+	 * @param action The callback to run on each page.
+	 */
+	private void forEachOrdered(FileChannel fc, ForkJoinPool pool, AtomicBoolean failed, Consumer<DumpReader.Page> action)
+	{
+		ArrayDeque<CompletableFuture<List<DumpReader.Page>>> window = new ArrayDeque<>();
+		int next = 0, ahead = parallelism * 2;
+
+		try
+		{
+			while (next < offsets.length - 1 || !window.isEmpty())
+			{
+				while (window.size() < ahead && next < offsets.length - 1)
+				{
+					int s = next++;
+					window.add(CompletableFuture.supplyAsync(() -> {
+						ArrayList<DumpReader.Page> l = new ArrayList<>();
+						if (!failed.get())
+							parse(fc, s, l::add, true);
+						return l;
+					}, pool));
+				}
+
+				window.poll().join().forEach(action);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			failed.set(true);
+			throw e;
+		}
+	}
+
+	/**
+	 * Decompresses and parses a stream of pages, running {@code action} on each page.
+	 * 
+	 * @param fc The FileChannel of the dump
+	 * @param s The index of the stream in {@link #offsets}.
+	 * @param action The callback to run on each page.
+	 * @param buffer Set true to read the revisions of each page into memory before running {@code action}.
+	 */
+	private void parse(FileChannel fc, int s, Consumer<DumpReader.Page> action, boolean buffer)
+	{
+		try (DumpReader dr = new DumpReader(wrap(readStream(fc, offsets[s], offsets[s + 1]), true), header))
+		{
+			for (DumpReader.Page p; (p = dr.nextPage()) != null;)
+				action.accept(buffer ? p.buffer() : p);
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(String.format("Could not read the stream at byte %d of %s", offsets[s], dump), e);
+		}
+	}
+
+	/**
+	 * Reads a compressed stream from the dump into memory. Reads are positional, so streams may be read concurrently.
+	 * 
+	 * @param fc The FileChannel of the dump
+	 * @param start The byte offset of the stream
+	 * @param end The byte offset of the next stream, or the size of the dump.
+	 * @return The compressed stream
+	 * @throws IOException On read error
+	 */
+	private static byte[] readStream(FileChannel fc, long start, long end) throws IOException
+	{
+		ByteBuffer bb = ByteBuffer.allocate((int) (end - start));
+		while (bb.hasRemaining())
+			if (fc.read(bb, start + bb.position()) < 0)
+				throw new IOException("Unexpected end of file");
+
+		return bb.array();
+	}
+
+	/**
+	 * Decompresses a single bz2 stream, optionally wrapping it in a {@code mediawiki} element.
+	 * 
+	 * @param bz2 The compressed stream
+	 * @param wrap Set true to wrap the stream in a {@code mediawiki} element. The first stream of the dump already opens one.
+	 * @return The decompressed stream, which parses as a dump.
+	 * @throws IOException If {@code bz2} is not a bz2 stream.
+	 */
+	private static InputStream wrap(byte[] bz2, boolean wrap) throws IOException
+	{
+		InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(bz2), false);
+		return new SequenceInputStream(Collections.enumeration(
+				wrap ? List.of(new ByteArrayInputStream(open), in, new ByteArrayInputStream(close)) : List.of(in, new ByteArrayInputStream(close))));
+	}
+}
\ No newline at end of file
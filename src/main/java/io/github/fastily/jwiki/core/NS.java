@@ -1,8 +1,8 @@
 package io.github.fastily.jwiki.core;
 
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.regex.Pattern;
+import java.util.HashSet;
+import java.util.Locale;
 import java.util.stream.Stream;
 
 import com.google.gson.JsonObject;
@@ -129,31 +129,51 @@ public final class NS
 	}
 
 	/**
-	 * A namespace manager object. One for each Wiki object.
+	 * A namespace manager object. One for each Wiki object. Titles are resolved with a single hash lookup on the text before their first colon, so no regex work is done per title.
 	 * 
 	 * @author Fastily
 	 */
 	protected static class NSManager
 	{
 		/**
-		 * The Map of all valid namespace-number pairs.
+		 * Namespace numbers, keyed by the exact name or alias of each namespace.
 		 */
-		protected final HashMap<Object, Object> nsM = new HashMap<>();
+		private final HashMap<String, Integer> exact = new HashMap<>();
 
 		/**
-		 * The List of valid namespaces as Strings.
+		 * Namespace numbers, keyed by the name or alias of each namespace, folded with {@link #fold(String)}.
 		 */
-		protected final ArrayList<String> nsL = new ArrayList<>();
+		private final HashMap<String, Integer> folded = new HashMap<>();
 
 		/**
-		 * Regex used to strip the namespace from a title.
+		 * The canonical name of each namespace, indexed by namespace number minus {@link #minID}. Null where there is no namespace.
 		 */
-		protected final String nssRegex;
+		private final String[] names;
 
 		/**
-		 * Pattern version of <code>nssRegex</code>
+		 * The NS object of each namespace, indexed like {@link #names}.
 		 */
-		protected final Pattern p;
+		private final NS[] nsObjs;
+
+		/**
+		 * Flags namespaces whose {@code case} is {@code case-sensitive}, indexed like {@link #names}. The first letter of page names in all other namespaces is capitalized.
+		 */
+		private final boolean[] caseSensitive;
+
+		/**
+		 * The lowest namespace number.
+		 */
+		private final int minID;
+
+		/**
+		 * The length of the longest namespace name or alias. Text before a colon which is longer than this cannot be a namespace.
+		 */
+		private final int maxLength;
+
+		/**
+		 * The raw Namespace data this NSManager was created from. Saved with a {@link Session}.
+		 */
+		protected final JsonObject raw;
 
 		/**
 		 * Constructor, takes a Reply with Namespace data.
@@ -162,6 +182,10 @@ public final class NS
 		 */
 		protected NSManager(JsonObject r)
 		{
+			raw = r;
+
+			HashMap<Integer, String> canonical = new HashMap<>();
+			HashSet<Integer> sensitive = new HashSet<>();
 			for (JsonObject x : GSONP.getJOofJO(r.getAsJsonObject("namespaces")))
 			{
 				String name = x.get("*").getAsString();
@@ -169,21 +193,141 @@ public final class NS
 					name = "Main";
 
 				int id = x.get("id").getAsInt();
-				nsM.put(name, id);
-				nsM.put(id, name);
+				canonical.put(id, name);
+				add(name, id);
 
-				nsL.add(name);
+				if ("case-sensitive".equals(GSONP.getStr(x, "case")))
+					sensitive.add(id);
 			}
 
 			for (JsonObject x : GSONP.getJAofJO(r.getAsJsonArray("namespacealiases")))
-			{
-				String name = x.get("*").getAsString();
-				nsM.put(name, x.get("id").getAsInt());
-				nsL.add(name);
-			}
+				add(x.get("*").getAsString(), x.get("id").getAsInt());
+
+			minID = Math.min(0, canonical.keySet().stream().mapToInt(Integer::intValue).min().orElse(0));
+			int maxID = canonical.keySet().stream().mapToInt(Integer::intValue).max().orElse(0);
 
-			nssRegex = String.format("(?i)^(%s):", FL.pipeFence(FL.toAL(nsL.stream().map(s -> s.replace(" ", "(_| )")))));
-			p = Pattern.compile(nssRegex);
+			names = new String[maxID - minID + 1];
+			nsObjs = new NS[names.length];
+			caseSensitive = new boolean[names.length];
+			canonical.forEach((id, name) -> {
+				names[id - minID] = name;
+				nsObjs[id - minID] = new NS(id);
+				caseSensitive[id - minID] = sensitive.contains(id);
+			});
+
+			maxLength = exact.keySet().stream().mapToInt(String::length).max().orElse(0);
+		}
+
+		/**
+		 * Registers a namespace name or alias.
+		 * 
+		 * @param name The name or alias
+		 * @param id The namespace number
+		 */
+		private void add(String name, int id)
+		{
+			exact.put(name, id);
+			folded.put(fold(name), id);
+		}
+
+		/**
+		 * Normalizes a namespace name for case-insensitive lookup. Underscores are treated as spaces, as they are by MediaWiki.
+		 * 
+		 * @param s The namespace name to normalize
+		 * @return The normalized namespace name
+		 */
+		private static String fold(String s)
+		{
+			return s.replace('_', ' ').toLowerCase(Locale.ROOT);
+		}
+
+		/**
+		 * Gets the length of the namespace prefix of a title.
+		 * 
+		 * @param title The title to check
+		 * @return The index of the colon ending the namespace prefix of {@code title}, or -1 if {@code title} has no namespace prefix.
+		 */
+		protected int prefixEnd(String title)
+		{
+			int i = title.indexOf(':');
+			return i < 0 || i > maxLength || !folded.containsKey(fold(title.substring(0, i))) ? -1 : i;
+		}
+
+		/**
+		 * Gets the namespace of a title. No namespace or an invalid namespace is assumed to be part of Main.
+		 * 
+		 * @param title The title to get an NS for.
+		 * @return The title's NS.
+		 */
+		protected NS whichNS(String title)
+		{
+			int i = title.indexOf(':');
+			if (i < 0 || i > maxLength)
+				return MAIN;
+
+			Integer id = folded.get(fold(title.substring(0, i)));
+			return id == null ? MAIN : get(id);
+		}
+
+		/**
+		 * Strips the namespace prefix from a title.
+		 * 
+		 * @param title The title to strip the namespace from
+		 * @return The title without a namespace
+		 */
+		protected String nss(String title)
+		{
+			int i = prefixEnd(title);
+			return i < 0 ? title : title.substring(i + 1);
+		}
+
+		/**
+		 * Gets the NS object for a namespace number.
+		 * 
+		 * @param id The namespace number
+		 * @return The NS object for {@code id}.
+		 */
+		protected NS get(int id)
+		{
+			int i = id - minID;
+			return i >= 0 && i < nsObjs.length && nsObjs[i] != null ? nsObjs[i] : new NS(id);
+		}
+
+		/**
+		 * Gets the canonical name of a namespace.
+		 * 
+		 * @param id The namespace number
+		 * @return The name of the namespace, or null if there is no namespace numbered {@code id}.
+		 */
+		protected String nameOf(int id)
+		{
+			int i = id - minID;
+			return i >= 0 && i < names.length ? names[i] : null;
+		}
+
+		/**
+		 * Determines if MediaWiki capitalizes the first letter of page names in a namespace. This is false for namespaces whose {@code case} is {@code case-sensitive}, e.g. the Main namespace of
+		 * Wiktionary.
+		 * 
+		 * @param id The namespace number
+		 * @return True if the first letter of page names in namespace {@code id} is capitalized.
+		 */
+		protected boolean isFirstLetter(int id)
+		{
+			int i = id - minID;
+			return i < 0 || i >= caseSensitive.length || !caseSensitive[i];
+		}
+
+		/**
+		 * Gets a namespace by its exact name or alias. This is case-sensitive.
+		 * 
+		 * @param prefix The name or alias of the namespace, without the ":".
+		 * @return The namespace, or null if {@code prefix} is not a namespace name or alias.
+		 */
+		protected NS byName(String prefix)
+		{
+			Integer id = exact.get(prefix);
+			return id == null ? null : get(id);
 		}
 
 		/**
@@ -0,0 +1,30 @@
+package io.github.fastily.jwiki.core;
+
+/**
+ * The outcome of purging a single page's cache with {@link Wiki#purge(java.util.Collection, boolean, boolean)}.
+ * 
+ * @author Fastily
+ *
+ */
+public enum PurgeStatus
+{
+	/**
+	 * The page's cache was purged.
+	 */
+	PURGED,
+
+	/**
+	 * The page does not exist.
+	 */
+	MISSING,
+
+	/**
+	 * The title is not a valid page title.
+	 */
+	INVALID,
+
+	/**
+	 * The server did not report an outcome for the page, e.g. because the request failed.
+	 */
+	FAILED;
+}
\ No newline at end of file
@@ -0,0 +1,211 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Adaptive token bucket rate limiter for all requests sent by an ApiClient. Each request reserves a token before it is sent, and tokens are refilled at the current rate. Blocking requests wait for
+ * their token on the calling thread, and asynchronous requests are scheduled to be queued once their token is due, so no HTTP client thread ever waits here.
+ * <p>
+ * As an interceptor, this applies {@code maxlag} to every request. When the server asks us to slow down (via {@code X-Database-Lag} or {@code Retry-After}), the rate is halved and the bucket is
+ * paused for as long as the server asked. The response is passed on as is: retrying the request is left to the Wiki's {@link RetryPolicy}, whose next attempt waits out the pause. Each request
+ * which goes through without complaint raises the rate a little, up to the configured maximum.
+ * 
+ * @author Fastily
+ *
+ */
+class RateLimiter implements Interceptor
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(RateLimiter.class);
+
+	/**
+	 * The lowest rate, in requests per second, that this RateLimiter will slow down to.
+	 */
+	private static final double minRate = 0.1;
+
+	/**
+	 * How long to pause for, in milliseconds, if the server asked us to slow down without saying for how long.
+	 */
+	private static final long defaultPause = 5000;
+
+	/**
+	 * The Conf to get the {@code maxlag} and maximum rate from.
+	 */
+	private final Conf conf;
+
+	/**
+	 * The current rate, in requests per second.
+	 */
+	private double rate;
+
+	/**
+	 * The number of tokens currently in the bucket.
+	 */
+	private double tokens;
+
+	/**
+	 * The time, in nanoseconds, at which the bucket was last refilled.
+	 */
+	private long lastRefill = System.nanoTime();
+
+	/**
+	 * The time, in nanoseconds, until which no requests may be sent.
+	 */
+	private long pausedUntil = lastRefill;
+
+	/**
+	 * Constructor, creates a new RateLimiter running at the maximum rate of {@code conf}.
+	 * 
+	 * @param conf The Conf to get the {@code maxlag} and maximum rate from.
+	 */
+	protected RateLimiter(Conf conf)
+	{
+		this.conf = conf;
+
+		rate = conf.maxRate;
+		tokens = capacity();
+	}
+
+	/**
+	 * Gets the current rate of this RateLimiter.
+	 * 
+	 * @return The current rate, in requests per second.
+	 */
+	protected synchronized double getRate()
+	{
+		return rate;
+	}
+
+	/**
+	 * Gets the size of the bucket. This allows a burst of up to one second's worth of requests at the maximum rate.
+	 * 
+	 * @return The maximum number of tokens the bucket may hold.
+	 */
+	private double capacity()
+	{
+		return Math.max(1, conf.maxRate);
+	}
+
+	/**
+	 * Refills the bucket according to the time elapsed since it was last refilled. No tokens are added while the bucket is paused.
+	 * 
+	 * @param now The current time, in nanoseconds.
+	 */
+	private void refill(long now)
+	{
+		long from = Math.max(lastRefill, pausedUntil);
+		if (now > from)
+			tokens = Math.min(capacity(), tokens + (now - from) / 1e9 * rate);
+
+		lastRefill = Math.max(lastRefill, now);
+	}
+
+	/**
+	 * Takes a token from the bucket, going into debt if there are none left. Requests which reserved a token while the bucket was empty are spaced out at the current rate.
+	 * 
+	 * @return How long the caller must wait before sending its request, in nanoseconds.
+	 */
+	protected synchronized long reserve()
+	{
+		long now = System.nanoTime();
+		refill(now);
+
+		tokens--;
+		return Math.max(0, pausedUntil - now) + (tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9));
+	}
+
+	/**
+	 * Takes a token from the bucket, blocking the calling thread until it is due.
+	 * 
+	 * @throws InterruptedIOException If the calling thread was interrupted while waiting.
+	 */
+	protected void acquire() throws InterruptedIOException
+	{
+		try
+		{
+			TimeUnit.NANOSECONDS.sleep(reserve());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+		}
+	}
+
+	/**
+	 * Halves the current rate, empties the bucket, and pauses all requests for {@code pauseMillis} milliseconds. Call this when the server asks us to slow down.
+	 * 
+	 * @param pauseMillis How long to pause all requests for, in milliseconds.
+	 */
+	protected synchronized void backOff(long pauseMillis)
+	{
+		rate = Math.max(minRate, rate / 2);
+		tokens = Math.min(tokens, 0);
+		pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(pauseMillis));
+
+		log.info("{}: Slowing down to {} requests per second", conf.hostname, String.format("%.2f", rate));
+	}
+
+	/**
+	 * Raises the current rate a little, up to the maximum rate. Call this when the server accepted a request without complaint.
+	 */
+	private synchronized void speedUp()
+	{
+		rate = Math.min(conf.maxRate, rate + conf.maxRate / 50);
+	}
+
+	/**
+	 * Applies {@code maxlag} to a request, and adjusts this RateLimiter according to the response. The request must already have a token (see {@link #reserve()}).
+	 */
+	public Response intercept(Chain chain) throws IOException
+	{
+		Request req = chain.request();
+		if (conf.maxlag > 0)
+			req = req.newBuilder().url(req.url().newBuilder().setQueryParameter("maxlag", "" + conf.maxlag).build()).build();
+
+		Response r = chain.proceed(req);
+		long pause = pauseFor(r);
+		if (pause < 0)
+			speedUp();
+		else
+		{
+			log.warn("{}: Server asked us to slow down (database lag: {}), pausing for {} ms", conf.hostname, r.header("X-Database-Lag", "n/a"), pause);
+			backOff(pause);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Determines if a Response from the server asks us to slow down, and if so, for how long.
+	 * 
+	 * @param r The Response to check
+	 * @return How long to pause for, in milliseconds, or -1 if {@code r} does not ask us to slow down.
+	 */
+	private static long pauseFor(Response r)
+	{
+		String retryAfter = r.header("Retry-After");
+		if (r.header("X-Database-Lag") == null && !((r.code() == 429 || r.code() == 503) && retryAfter != null))
+			return -1;
+
+		try
+		{
+			return retryAfter == null ? defaultPause : TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+		}
+		catch (NumberFormatException e) // Retry-After may also be an HTTP date
+		{
+			return defaultPause;
+		}
+	}
+}
\ No newline at end of file
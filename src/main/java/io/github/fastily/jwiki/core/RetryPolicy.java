@@ -0,0 +1,561 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonParseException;
+
+/**
+ * Decides whether, and when, failed requests to a Wiki are retried. Failures are sorted into {@link ErrorClass}es, and only those classes selected for retry are retried. Retries are spaced out with
+ * exponential backoff and jitter, and are drawn from a retry budget which is refilled by successful requests, so that a server which is down is not hit with a flood of retries.
+ * <p>
+ * The default policy makes up to 4 attempts, starting with a 500 ms delay and capping delays at 30 seconds, and retries {@link ErrorClass#NETWORK}, {@link ErrorClass#SERVER} and
+ * {@link ErrorClass#API} failures. A RetryPolicy may be shared by several Wikis, in which case they share its budget.
+ * <p>
+ * Actions which change a Wiki are only retried if they are idempotent, or if the failure shows that the server did not act on the request: the connection could not be made, or the API rejected
+ * the request outright (e.g. because of {@code maxlag}, {@code readonly} or {@code ratelimited}). A timeout or a {@code 5xx} status may arrive after the server has already made the change, so
+ * replaying, say, an {@code appendtext} edit could append the text twice.
+ * 
+ * @author Fastily
+ *
+ */
+public class RetryPolicy
+{
+	/**
+	 * The Logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(RetryPolicy.class);
+
+	/**
+	 * The maximum number of attempts, including the first one.
+	 */
+	private int maxAttempts = 4;
+
+	/**
+	 * The delay before the first retry. Each subsequent retry doubles this.
+	 */
+	private Duration baseDelay = Duration.ofMillis(500);
+
+	/**
+	 * The maximum delay before a retry.
+	 */
+	private Duration maxDelay = Duration.ofSeconds(30);
+
+	/**
+	 * The fraction of each delay which is randomized.
+	 */
+	private double jitter = 0.5;
+
+	/**
+	 * The classes of failure which are retried.
+	 */
+	private final EnumSet<ErrorClass> retryable = EnumSet.of(ErrorClass.NETWORK, ErrorClass.SERVER, ErrorClass.API);
+
+	/**
+	 * The maximum number of retries in the budget.
+	 */
+	private double maxBudget = 20;
+
+	/**
+	 * The number of retries each successful request adds to the budget.
+	 */
+	private double budgetRatio = 0.1;
+
+	/**
+	 * The number of retries currently left in the budget.
+	 */
+	private double budget = maxBudget;
+
+	/**
+	 * Constructor, creates a new RetryPolicy with default settings.
+	 */
+	public RetryPolicy()
+	{
+
+	}
+
+	/**
+	 * Sets the maximum number of attempts made for a request, including the first one.
+	 * 
+	 * @param maxAttempts The maximum number of attempts. PRECONDITION: this must be a positive number. Set {@code 1} to disable retries.
+	 * @return This RetryPolicy
+	 */
+	public RetryPolicy withMaxAttempts(int maxAttempts)
+	{
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("maxAttempts must be a positive number");
+
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+
+	/**
+	 * Sets the delays between attempts. The delay before the {@code n}th retry is {@code baseDelay * 2^(n-1)}, capped at {@code maxDelay}.
+	 * 
+	 * @param baseDelay The delay before the first retry.
+	 * @param maxDelay The maximum delay before a retry.
+	 * @return This RetryPolicy
+	 */
+	public RetryPolicy withBackoff(Duration baseDelay, Duration maxDelay)
+	{
+		if (baseDelay.isNegative() || maxDelay.compareTo(baseDelay) < 0)
+			throw new IllegalArgumentException("baseDelay must not be negative, and maxDelay must not be less than baseDelay");
+
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+		return this;
+	}
+
+	/**
+	 * Sets the fraction of each delay which is randomized. Jitter keeps many clients (or threads) which failed at the same time from all retrying at the same time.
+	 * 
+	 * @param jitter The fraction of each delay to randomize. PRECONDITION: this must be between 0 and 1, inclusive.
+	 * @return This RetryPolicy
+	 */
+	public RetryPolicy withJitter(double jitter)
+	{
+		if (!(jitter >= 0 && jitter <= 1))
+			throw new IllegalArgumentException("jitter must be between 0 and 1");
+
+		this.jitter = jitter;
+		return this;
+	}
+
+	/**
+	 * Selects classes of failure to retry.
+	 * 
+	 * @param classes The classes of failure to retry.
+	 * @return This RetryPolicy
+	 */
+	public RetryPolicy retryOn(ErrorClass... classes)
+	{
+		for (ErrorClass c : classes)
+			retryable.add(c);
+
+		return this;
+	}
+
+	/**
+	 * Deselects classes of failure to retry. Failures of these classes are given up on immediately.
+	 * 
+	 * @param classes The classes of failure to give up on.
+	 * @return This RetryPolicy
+	 */
+	public RetryPolicy giveUpOn(ErrorClass... classes)
+	{
+		for (ErrorClass c : classes)
+			retryable.remove(c);
+
+		return this;
+	}
+
+	/**
+	 * Sets the retry budget. The budget starts full, each retry takes one from it, and each successful request adds {@code ratio} to it, up to {@code maxRetries}. Once the budget is empty, failures
+	 * are no longer retried until enough requests have succeeded again.
+	 * 
+	 * @param maxRetries The maximum number of retries in the budget. PRECONDITION: this must not be negative.
+	 * @param ratio The number of retries each successful request adds to the budget. PRECONDITION: this must not be negative.
+	 * @return This RetryPolicy
+	 */
+	public synchronized RetryPolicy withBudget(int maxRetries, double ratio)
+	{
+		if (maxRetries < 0 || !(ratio >= 0))
+			throw new IllegalArgumentException("maxRetries and ratio must not be negative");
+
+		maxBudget = budget = maxRetries;
+		budgetRatio = ratio;
+		return this;
+	}
+
+	/**
+	 * Gets the maximum number of attempts made for a request, including the first one.
+	 * 
+	 * @return The maximum number of attempts.
+	 */
+	public int getMaxAttempts()
+	{
+		return maxAttempts;
+	}
+
+	/**
+	 * Computes the delay before a retry.
+	 * 
+	 * @param attempt The number of the attempt which just failed, starting at 1.
+	 * @return The delay, in milliseconds.
+	 */
+	protected long delayFor(int attempt)
+	{
+		long delay = Math.min(maxDelay.toMillis(), baseDelay.toMillis() << Math.min(attempt - 1, 30));
+		return delay - (long) (delay * jitter * ThreadLocalRandom.current().nextDouble());
+	}
+
+	/**
+	 * Records a successful request, adding to the budget.
+	 */
+	protected synchronized void succeeded()
+	{
+		budget = Math.min(maxBudget, budget + budgetRatio);
+	}
+
+	/**
+	 * Determines if a failed attempt should be retried, and if so, takes a retry from the budget.
+	 * 
+	 * @param e The failure
+	 * @param attempt The number of the attempt which failed, starting at 1.
+	 * @param idempotent Set true if the request may safely be sent more than once. Otherwise, it is only retried if {@code e} shows that the server did not act on it.
+	 * @return True if the attempt should be retried.
+	 */
+	protected boolean shouldRetry(Throwable e, int attempt, boolean idempotent)
+	{
+		return (idempotent || notApplied(e)) && shouldRetry(ErrorClass.of(e), attempt);
+	}
+
+	/**
+	 * Determines if a failure shows that the server did not act on a request, so that the request may be sent again even if it is not idempotent.
+	 * 
+	 * @param e The failure
+	 * @return True if the connection to the server could not be made, or if the API rejected the request without acting on it.
+	 */
+	protected static boolean notApplied(Throwable e)
+	{
+		while (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+
+		if (e instanceof RequestException)
+			return ((RequestException) e).rejected;
+
+		return e instanceof ConnectException || e instanceof UnknownHostException || e instanceof NoRouteToHostException
+				|| e instanceof SocketTimeoutException && "connect timed out".equals(e.getMessage());
+	}
+
+	/**
+	 * Determines if an attempt which failed with a failure of class {@code c} should be retried, and if so, takes a retry from the budget.
+	 * 
+	 * @param c The class of the failure. Null means the failure is not worth retrying.
+	 * @param attempt The number of the attempt which failed, starting at 1.
+	 * @return True if the attempt should be retried.
+	 */
+	protected synchronized boolean shouldRetry(ErrorClass c, int attempt)
+	{
+		if (attempt >= maxAttempts || c == null || !retryable.contains(c))
+			return false;
+		else if (budget < 1)
+		{
+			log.warn("Retry budget is exhausted, giving up");
+			return false;
+		}
+
+		budget--;
+		return true;
+	}
+
+	/**
+	 * Waits before a retry.
+	 * 
+	 * @param attempt The number of the attempt which just failed, starting at 1.
+	 * @return False if the calling thread was interrupted while waiting.
+	 */
+	protected boolean pause(int attempt)
+	{
+		try
+		{
+			Thread.sleep(delayFor(attempt));
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/**
+	 * Runs {@code task}, retrying it according to this RetryPolicy. Use this for requests which only read from the Wiki.
+	 * 
+	 * @param <T> The type of result produced by {@code task}
+	 * @param task The task to run.
+	 * @return The result of {@code task}
+	 * @throws Throwable The failure of the last attempt, if all attempts failed.
+	 */
+	protected <T> T run(Task<T> task) throws Throwable
+	{
+		return run(task, true);
+	}
+
+	/**
+	 * Runs {@code task}, retrying it according to this RetryPolicy.
+	 * 
+	 * @param <T> The type of result produced by {@code task}
+	 * @param task The task to run.
+	 * @param idempotent Set true if {@code task} may safely be run more than once. Otherwise, it is only retried if the server did not act on it (see {@link #notApplied(Throwable)}).
+	 * @return The result of {@code task}
+	 * @throws Throwable The failure of the last attempt, if all attempts failed.
+	 */
+	protected <T> T run(Task<T> task, boolean idempotent) throws Throwable
+	{
+		for (int i = 1;; i++)
+			try
+			{
+				T x = task.run();
+				succeeded();
+				return x;
+			}
+			catch (Throwable e)
+			{
+				if (!shouldRetry(e, i, idempotent))
+					throw e;
+
+				log.warn("Attempt {} of {} failed, retrying: {}", i, maxAttempts, e.toString());
+				if (!pause(i))
+					throw e;
+			}
+	}
+
+	/**
+	 * Asynchronous version of {@link #run(Task)}. Retries are scheduled rather than waited for, so no thread is blocked between attempts.
+	 * 
+	 * @param <T> The type of result produced by {@code task}
+	 * @param task Starts an attempt of the task.
+	 * @return A CompletableFuture which completes with the result of {@code task}, or exceptionally with the failure of the last attempt if all attempts failed. Cancelling it cancels the current
+	 *         attempt, and no further attempts are made.
+	 */
+	protected <T> CompletableFuture<T> runAsync(Supplier<CompletableFuture<T>> task)
+	{
+		return runAsync(task, true);
+	}
+
+	/**
+	 * Asynchronous version of {@link #run(Task, boolean)}. Retries are scheduled rather than waited for, so no thread is blocked between attempts.
+	 * 
+	 * @param <T> The type of result produced by {@code task}
+	 * @param task Starts an attempt of the task.
+	 * @param idempotent Set true if {@code task} may safely be run more than once. Otherwise, it is only retried if the server did not act on it (see {@link #notApplied(Throwable)}).
+	 * @return A CompletableFuture which completes with the result of {@code task}, or exceptionally with the failure of the last attempt if all attempts failed. Cancelling it cancels the current
+	 *         attempt, and no further attempts are made.
+	 */
+	protected <T> CompletableFuture<T> runAsync(Supplier<CompletableFuture<T>> task, boolean idempotent)
+	{
+		CompletableFuture<T> cf = new CompletableFuture<>();
+		attemptAsync(task, 1, idempotent, cf);
+		return cf;
+	}
+
+	/**
+	 * Makes an attempt of an asynchronous task, and schedules the next attempt if it fails.
+	 * 
+	 * @param <T> The type of result produced by {@code task}
+	 * @param task Starts an attempt of the task.
+	 * @param attempt The number of this attempt, starting at 1.
+	 * @param idempotent Set true if {@code task} may safely be run more than once.
+	 * @param cf The CompletableFuture to complete with the outcome of the task.
+	 */
+	private <T> void attemptAsync(Supplier<CompletableFuture<T>> task, int attempt, boolean idempotent, CompletableFuture<T> cf)
+	{
+		if (cf.isDone())
+			return;
+
+		CompletableFuture<T> f = task.get();
+		cf.whenComplete((x, e) -> {
+			if (cf.isCancelled())
+				f.cancel(true);
+		});
+
+		f.whenComplete((x, e) -> {
+			if (e == null)
+			{
+				succeeded();
+				cf.complete(x);
+			}
+			else if (!cf.isDone() && shouldRetry(e, attempt, idempotent))
+			{
+				log.warn("Attempt {} of {} failed, retrying: {}", attempt, maxAttempts, e.toString());
+				CompletableFuture.delayedExecutor(delayFor(attempt), TimeUnit.MILLISECONDS).execute(() -> attemptAsync(task, attempt + 1, idempotent, cf));
+			}
+			else
+				cf.completeExceptionally(e);
+		});
+	}
+
+	/**
+	 * A task which may be retried.
+	 * 
+	 * @author Fastily
+	 *
+	 * @param <T> The type of result produced by this task.
+	 */
+	@FunctionalInterface
+	protected interface Task<T>
+	{
+		/**
+		 * Runs this task.
+		 * 
+		 * @return The result of this task.
+		 * @throws Throwable If this task failed.
+		 */
+		T run() throws Throwable;
+	}
+
+	/**
+	 * Classes of failure, for the purpose of deciding whether to retry.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public enum ErrorClass
+	{
+		/**
+		 * The server could not be reached, the connection broke, or the request timed out.
+		 */
+		NETWORK,
+
+		/**
+		 * The server responded with a {@code 5xx} status, or with a malformed body.
+		 */
+		SERVER,
+
+		/**
+		 * The server responded with a {@code 4xx} status.
+		 */
+		CLIENT,
+
+		/**
+		 * The API reported a transient error, such as the wiki being in read-only mode, lagged, or having a database error.
+		 */
+		API;
+
+		/**
+		 * Determines the class of a failure.
+		 * 
+		 * @param e The failure
+		 * @return The ErrorClass of {@code e}, or null if {@code e} is not the kind of failure which is ever worth retrying.
+		 */
+		protected static ErrorClass of(Throwable e)
+		{
+			while (e instanceof CompletionException && e.getCause() != null)
+				e = e.getCause();
+
+			if (e instanceof RequestException)
+				return ((RequestException) e).errorClass;
+			else if (e instanceof CancellationException)
+				return null;
+			else if (e instanceof IOException)
+				return NETWORK;
+			else if (e instanceof JsonParseException || e instanceof IllegalStateException)
+				return SERVER;
+
+			return null;
+		}
+	}
+
+	/**
+	 * Signals that a request reached the server, but failed in a way that may be worth retrying.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	protected static class RequestException extends IOException
+	{
+		/**
+		 * serialVersionUID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * The class of this failure
+		 */
+		protected final ErrorClass errorClass;
+
+		/**
+		 * Flag indicating if the server rejected the request without acting on it.
+		 */
+		protected final boolean rejected;
+
+		/**
+		 * Constructor, creates a new RequestException.
+		 * 
+		 * @param errorClass The class of this failure
+		 * @param message A description of this failure
+		 */
+		protected RequestException(ErrorClass errorClass, String message)
+		{
+			this(errorClass, message, false);
+		}
+
+		/**
+		 * Constructor, creates a new RequestException.
+		 * 
+		 * @param errorClass The class of this failure
+		 * @param message A description of this failure
+		 * @param rejected Set true if the server rejected the request without acting on it.
+		 */
+		private RequestException(ErrorClass errorClass, String message, boolean rejected)
+		{
+			super(message);
+			this.errorClass = errorClass;
+			this.rejected = rejected;
+		}
+
+		/**
+		 * Creates a RequestException for an error reported by the API.
+		 * 
+		 * @param code The {@code code} of the API error. PRECONDITION: {@link #isTransient(String)} is true for this code.
+		 * @return A RequestException of class {@link ErrorClass#API}.
+		 */
+		protected static RequestException ofAPI(String code)
+		{
+			return new RequestException(ErrorClass.API, "API error: " + code, isRejected(code));
+		}
+
+		/**
+		 * Creates a RequestException for an unsuccessful HTTP status code.
+		 * 
+		 * @param code The HTTP status code
+		 * @return A RequestException of class {@link ErrorClass#SERVER} or {@link ErrorClass#CLIENT}, depending on {@code code}. {@code 429 Too Many Requests} is treated like the API's
+		 *         {@code ratelimited} error: the server rejected the request without acting on it.
+		 */
+		protected static RequestException ofStatus(int code)
+		{
+			if (code == 429)
+				return new RequestException(ErrorClass.API, "HTTP status " + code, true);
+
+			return new RequestException(code >= 500 ? ErrorClass.SERVER : ErrorClass.CLIENT, "HTTP status " + code);
+		}
+
+		/**
+		 * Determines if an API error code denotes a transient error.
+		 * 
+		 * @param code The {@code code} of the API error
+		 * @return True if the error is transient and the request is worth retrying.
+		 */
+		protected static boolean isTransient(String code)
+		{
+			return isRejected(code) || code != null && code.startsWith("internal_api_error_DB");
+		}
+
+		/**
+		 * Determines if an API error code denotes a request which the server rejected without acting on it, and which is worth retrying. Unlike other transient errors, these are safe to retry even
+		 * for actions which are not idempotent.
+		 * 
+		 * @param code The {@code code} of the API error
+		 * @return True if the request was rejected and is worth retrying.
+		 */
+		protected static boolean isRejected(String code)
+		{
+			return code != null && (code.equals("readonly") || code.equals("maxlag") || code.equals("ratelimited"));
+		}
+	}
+}
\ No newline at end of file
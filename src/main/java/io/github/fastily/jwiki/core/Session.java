@@ -0,0 +1,271 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.net.CookieStore;
+import java.net.HttpCookie;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import com.google.gson.JsonObject;
+
+import io.github.fastily.jwiki.util.GSONP;
+
+/**
+ * A snapshot of the state a Wiki fetches when it is created: its cookies, tokens, login status, user rights and namespaces. Saving a Session and restoring it with
+ * {@link Wiki.Builder#withSession(Session)} lets a new Wiki skip the login and the queries which follow it, which is useful for short-lived programs which run many times. Sessions are stored as JSON.
+ * <p>
+ * WARNING: A Session contains the session cookies of the logged-in user, so anyone who can read it can act as that user until the session expires. Store it accordingly.
+ * 
+ * @author Fastily
+ *
+ */
+public class Session
+{
+	/**
+	 * The hostname of the Wiki this Session was taken from.
+	 */
+	private String hostname;
+
+	/**
+	 * The username of the logged-in user, or null if the Wiki was not logged in.
+	 */
+	private String uname;
+
+	/**
+	 * Whether the logged-in user is a bot.
+	 */
+	private boolean isBot;
+
+	/**
+	 * The maximum number of results returned per query.
+	 */
+	private int maxResultLimit;
+
+	/**
+	 * The maximum number of titles per query.
+	 */
+	private int groupQueryMax;
+
+	/**
+	 * The cached tokens, keyed by type.
+	 */
+	private HashMap<String, String> tokens;
+
+	/**
+	 * The cookies which are sent to the api endpoint.
+	 */
+	private ArrayList<Cookie> cookies = new ArrayList<>();
+
+	/**
+	 * The raw {@code siteinfo} namespace data, as returned by the server.
+	 */
+	private JsonObject namespaces;
+
+	/**
+	 * No-args constructor, for Gson.
+	 */
+	private Session()
+	{
+
+	}
+
+	/**
+	 * Takes a snapshot of the state of a Wiki.
+	 * 
+	 * @param wiki The Wiki to take a snapshot of.
+	 */
+	protected Session(Wiki wiki)
+	{
+		hostname = wiki.conf.hostname;
+		uname = wiki.conf.uname;
+		isBot = wiki.conf.isBot;
+		maxResultLimit = wiki.conf.maxResultLimit;
+		groupQueryMax = wiki.conf.groupQueryMax;
+		tokens = wiki.tokens.snapshot();
+		namespaces = wiki.nsl.raw;
+
+		long now = Instant.now().getEpochSecond();
+		for (HttpCookie c : wiki.apiclient.cookieManager.getCookieStore().get(wiki.conf.baseURL.uri()))
+			cookies.add(new Cookie(c, now));
+	}
+
+	/**
+	 * Reads a Session from a file.
+	 * 
+	 * @param p The file to read
+	 * @return The Session
+	 * @throws IOException If {@code p} could not be read, or does not contain a Session.
+	 */
+	public static Session load(Path p) throws IOException
+	{
+		try
+		{
+			Session s = GSONP.gson.fromJson(Files.readString(p), Session.class);
+			if (s == null || s.hostname == null || s.namespaces == null)
+				throw new IOException(p + " does not contain a Session");
+
+			return s;
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Writes this Session to a file. The file is replaced atomically, so an interruption never leaves it half-written. Where the file system supports POSIX permissions, the file is only readable
+	 * and writable by its owner, from before anything is written to it.
+	 * 
+	 * @param p The file to write to
+	 * @throws IOException If {@code p} could not be written.
+	 */
+	public void save(Path p) throws IOException
+	{
+		Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+		Files.deleteIfExists(tmp);
+
+		if (tmp.getFileSystem().supportedFileAttributeViews().contains("posix"))
+			Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		else
+			Files.createFile(tmp);
+
+		Files.writeString(tmp, GSONP.gson.toJson(this));
+		Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores this Session into a Wiki which was just created. Cookies which have expired since this Session was taken are skipped.
+	 * 
+	 * @param wiki The Wiki to restore this Session into.
+	 * @return True if this Session was restored, or false if it was taken from a different Wiki.
+	 */
+	protected boolean restore(Wiki wiki)
+	{
+		if (!hostname.equals(wiki.conf.hostname))
+			return false;
+
+		wiki.nsl = new NS.NSManager(namespaces);
+
+		URI uri = wiki.conf.baseURL.uri();
+		CookieStore cs = wiki.apiclient.cookieManager.getCookieStore();
+		long now = Instant.now().getEpochSecond();
+		for (Cookie c : cookies)
+		{
+			HttpCookie hc = c.toHttpCookie(now);
+			if (hc != null)
+				cs.add(uri, hc);
+		}
+
+		if (uname != null)
+		{
+			wiki.conf.uname = uname;
+			wiki.conf.isBot = isBot;
+			wiki.conf.maxResultLimit = maxResultLimit;
+			wiki.conf.groupQueryMax = groupQueryMax;
+			wiki.tokens.restore(tokens);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets the username of the logged-in user this Session was taken from.
+	 * 
+	 * @return The username, or null if the Wiki was not logged in.
+	 */
+	public String getUsername()
+	{
+		return uname;
+	}
+
+	/**
+	 * Gets the hostname of the Wiki this Session was taken from.
+	 * 
+	 * @return The hostname
+	 */
+	public String getHostname()
+	{
+		return hostname;
+	}
+
+	/**
+	 * A cookie, as stored in a Session.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class Cookie
+	{
+		/**
+		 * The name and value of the cookie
+		 */
+		private String name, value;
+
+		/**
+		 * The domain and path of the cookie. May be null.
+		 */
+		private String domain, path;
+
+		/**
+		 * Flags of the cookie
+		 */
+		private boolean secure, httpOnly;
+
+		/**
+		 * The version of the cookie spec the cookie follows.
+		 */
+		private int version;
+
+		/**
+		 * When the cookie expires, in seconds since the epoch, or -1 if it expires at the end of the session. Since {@link HttpCookie} only reports the lifetime of a cookie and not its age, this is
+		 * an upper bound; the server remains the judge of whether a cookie is still valid.
+		 */
+		private long expires;
+
+		/**
+		 * Constructor, creates a Cookie from an HttpCookie.
+		 * 
+		 * @param c The HttpCookie to use
+		 * @param now The current time, in seconds since the epoch.
+		 */
+		private Cookie(HttpCookie c, long now)
+		{
+			name = c.getName();
+			value = c.getValue();
+			domain = c.getDomain();
+			path = c.getPath();
+			secure = c.getSecure();
+			httpOnly = c.isHttpOnly();
+			version = c.getVersion();
+			expires = c.getMaxAge() < 0 ? -1 : now + c.getMaxAge();
+		}
+
+		/**
+		 * Creates an HttpCookie from this Cookie.
+		 * 
+		 * @param now The current time, in seconds since the epoch.
+		 * @return The HttpCookie, or null if this Cookie has expired.
+		 */
+		private HttpCookie toHttpCookie(long now)
+		{
+			if (expires >= 0 && expires <= now)
+				return null;
+
+			HttpCookie c = new HttpCookie(name, value);
+			c.setDomain(domain);
+			c.setPath(path);
+			c.setSecure(secure);
+			c.setHttpOnly(httpOnly);
+			c.setVersion(version);
+			c.setMaxAge(expires < 0 ? -1 : expires - now);
+
+			return c;
+		}
+	}
+}
\ No newline at end of file
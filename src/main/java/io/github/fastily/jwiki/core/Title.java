@@ -0,0 +1,216 @@
+package io.github.fastily.jwiki.core;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable, normalized page title. A Title knows its namespace and where its page name starts, so these are not re-derived from the title text each time they are needed. Titles are created with
+ * {@link Wiki#getTitle(String)}, which interns them: each Wiki holds at most one Title for each normalized title, so Titles may be compared cheaply and large sets of them share storage.
+ * <p>
+ * Normalization follows MediaWiki's basic rules: underscores become spaces, runs of spaces are collapsed, whitespace around the title and after the namespace prefix is trimmed, namespace aliases
+ * are replaced with the canonical namespace name, and the first letter of the page name is capitalized, unless the namespace is {@code case-sensitive}.
+ * 
+ * @author Fastily
+ *
+ */
+public final class Title
+{
+	/**
+	 * The namespace of this Title.
+	 */
+	private final NS ns;
+
+	/**
+	 * The normalized display form of this Title, including its namespace prefix. Example: {@code User talk:Foo bar}
+	 */
+	private final String text;
+
+	/**
+	 * The index in {@link #text} where the page name starts.
+	 */
+	private final int nameStart;
+
+	/**
+	 * Constructor, creates a new Title. Use {@link Wiki#getTitle(String)} instead.
+	 * 
+	 * @param ns The namespace of the title
+	 * @param text The normalized display form of the title, including its namespace prefix.
+	 * @param nameStart The index in {@code text} where the page name starts.
+	 */
+	private Title(NS ns, String text, int nameStart)
+	{
+		this.ns = ns;
+		this.text = text;
+		this.nameStart = nameStart;
+	}
+
+	/**
+	 * Gets the namespace of this Title.
+	 * 
+	 * @return The namespace
+	 */
+	public NS getNS()
+	{
+		return ns;
+	}
+
+	/**
+	 * Gets the page name of this Title, without its namespace prefix. Example: {@code Foo bar} for {@code User talk:Foo bar}
+	 * 
+	 * @return The page name
+	 */
+	public String getName()
+	{
+		return nameStart == 0 ? text : text.substring(nameStart);
+	}
+
+	/**
+	 * Gets the database key of this Title, which is the display form with underscores instead of spaces. Example: {@code User_talk:Foo_bar}
+	 * 
+	 * @return The database key
+	 */
+	public String getDBKey()
+	{
+		return text.replace(' ', '_');
+	}
+
+	/**
+	 * Gets the display form of this Title, including its namespace prefix. This is the form the MediaWiki API accepts and returns.
+	 */
+	public String toString()
+	{
+		return text;
+	}
+
+	/**
+	 * Gets a hash code for this Title.
+	 */
+	public int hashCode()
+	{
+		return text.hashCode();
+	}
+
+	/**
+	 * Determines if two Titles are the same title. Interned Titles from the same Wiki are the same object, so this is usually a reference comparison.
+	 */
+	public boolean equals(Object x)
+	{
+		return x == this || x instanceof Title && text.equals(((Title) x).text);
+	}
+
+	/**
+	 * A per-Wiki intern pool of Titles. Titles which are no longer referenced elsewhere are dropped from the pool by the garbage collector. All methods are thread-safe.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	protected static class Pool
+	{
+		/**
+		 * The interned Titles, keyed by their display form. The key of each entry is the {@link Title#text} of its value, so an entry lives exactly as long as its Title is referenced elsewhere.
+		 */
+		private final WeakHashMap<String, WeakReference<Title>> pool = new WeakHashMap<>();
+
+		/**
+		 * Gets the interned Title for a title, normalizing it.
+		 * 
+		 * @param nsl The namespaces of the Wiki the title belongs to.
+		 * @param title The title to normalize and intern.
+		 * @return The interned Title
+		 */
+		protected Title intern(NS.NSManager nsl, String title)
+		{
+			String s = collapse(title);
+
+			int i = nsl.prefixEnd(s);
+			NS ns = i < 0 ? NS.MAIN : nsl.whichNS(s);
+
+			String prefix = "";
+			if (!ns.equals(NS.MAIN)) // MediaWiki has no "Main:" prefix
+			{
+				prefix = nsl.nameOf(ns.v) + ":";
+				s = s.substring(i + 1).stripLeading();
+			}
+
+			String text = prefix + (nsl.isFirstLetter(ns.v) ? ucfirst(s) : s);
+
+			synchronized (pool)
+			{
+				WeakReference<Title> ref = pool.get(text);
+				Title t = ref == null ? null : ref.get();
+				if (t == null)
+				{
+					t = new Title(ns, text, prefix.length());
+					pool.put(t.text, new WeakReference<>(t));
+				}
+
+				return t;
+			}
+		}
+
+		/**
+		 * Gets the number of Titles in this Pool. Useful for debugging.
+		 * 
+		 * @return The number of Titles in this Pool.
+		 */
+		protected int size()
+		{
+			synchronized (pool)
+			{
+				return pool.size();
+			}
+		}
+
+		/**
+		 * Converts underscores to spaces, collapses runs of spaces, and trims whitespace, in a single pass.
+		 * 
+		 * @param title The title to clean up
+		 * @return The cleaned up title
+		 */
+		private static String collapse(String title)
+		{
+			StringBuilder sb = new StringBuilder(title.length());
+			boolean space = true, changed = false; // drops leading spaces
+			for (int i = 0; i < title.length(); i++)
+			{
+				char c = title.charAt(i);
+				if (c == '_' || Character.isWhitespace(c))
+				{
+					if (!space)
+						sb.append(' ');
+
+					changed |= space || c != ' ';
+					space = true;
+				}
+				else
+				{
+					sb.append(c);
+					space = false;
+				}
+			}
+
+			if (space && sb.length() > 0)
+			{
+				sb.setLength(sb.length() - 1);
+				changed = true;
+			}
+
+			return changed ? sb.toString() : title;
+		}
+
+		/**
+		 * Capitalizes the first letter of a page name.
+		 * 
+		 * @param s The page name
+		 * @return {@code s}, with its first letter capitalized.
+		 */
+		private static String ucfirst(String s)
+		{
+			if (s.isEmpty())
+				return s;
+
+			int cp = s.codePointAt(0), upper = Character.toUpperCase(cp);
+			return cp == upper ? s : new StringBuilder(s.length()).appendCodePoint(upper).append(s, Character.charCount(cp), s.length()).toString();
+		}
+	}
+}
\ No newline at end of file
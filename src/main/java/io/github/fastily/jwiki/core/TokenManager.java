@@ -0,0 +1,131 @@
+package io.github.fastily.jwiki.core;
+
+import java.util.HashMap;
+
+import io.github.fastily.jwiki.util.GSONP;
+
+/**
+ * Caches the tokens of a Wiki by type (e.g. {@code csrf}, {@code login}, {@code rollback}, {@code patrol}). Tokens are fetched from the server the first time they are needed, and refreshed when
+ * the server rejects them. All methods are thread-safe.
+ * 
+ * @author Fastily
+ *
+ */
+class TokenManager
+{
+	/**
+	 * The csrf token of an anonymous user. This is the same on every Wiki, so it need not be fetched.
+	 */
+	private static final String anonToken = "+\\";
+
+	/**
+	 * The Wiki to fetch tokens from.
+	 */
+	private final Wiki wiki;
+
+	/**
+	 * The cached tokens, keyed by type.
+	 */
+	private final HashMap<String, String> tokens = new HashMap<>();
+
+	/**
+	 * Constructor, creates a new TokenManager for an anonymous Wiki.
+	 * 
+	 * @param wiki The Wiki to fetch tokens from.
+	 */
+	protected TokenManager(Wiki wiki)
+	{
+		this.wiki = wiki;
+		tokens.put("csrf", anonToken);
+	}
+
+	/**
+	 * Gets a token, fetching it from the server if it is not cached.
+	 * 
+	 * @param type The type of token to get.
+	 * @return The token, or null if it could not be fetched.
+	 */
+	protected synchronized String get(String type)
+	{
+		String token = tokens.get(type);
+		return token != null ? token : fetch(type);
+	}
+
+	/**
+	 * Refreshes a token which the server rejected. If several threads find the same token to be rejected, only the first one fetches a new token, and the others get that one.
+	 * 
+	 * @param type The type of token to refresh.
+	 * @param stale The token which the server rejected.
+	 * @return The new token, or null if it could not be fetched.
+	 */
+	protected synchronized String refresh(String type, String stale)
+	{
+		String token = tokens.get(type);
+		return token != null && !token.equals(stale) ? token : fetch(type);
+	}
+
+	/**
+	 * Discards a cached token, so that it is fetched again the next time it is needed.
+	 * 
+	 * @param type The type of token to discard.
+	 */
+	protected synchronized void invalidate(String type)
+	{
+		tokens.remove(type);
+	}
+
+	/**
+	 * Discards all cached tokens. Call this when the session changes (e.g. on login), since tokens are tied to the session.
+	 */
+	protected synchronized void clear()
+	{
+		tokens.clear();
+	}
+
+	/**
+	 * Gets a snapshot of the cached tokens.
+	 * 
+	 * @return A copy of the cached tokens, keyed by type.
+	 */
+	protected synchronized HashMap<String, String> snapshot()
+	{
+		return new HashMap<>(tokens);
+	}
+
+	/**
+	 * Replaces the cached tokens with a snapshot, e.g. one taken by {@link #snapshot()} in an earlier session.
+	 * 
+	 * @param snapshot The tokens to cache, keyed by type.
+	 */
+	protected synchronized void restore(HashMap<String, String> snapshot)
+	{
+		tokens.clear();
+		tokens.putAll(snapshot);
+	}
+
+	/**
+	 * Fetches a token from the server and caches it.
+	 * 
+	 * @param type The type of token to fetch.
+	 * @return The token, or null if it could not be fetched.
+	 */
+	private String fetch(String type)
+	{
+		String token = null;
+		try
+		{
+			token = GSONP.getStr(new WQuery(wiki, WQuery.TOKENS).set("type", type).next().metaComp("tokens").getAsJsonObject(), type + "token");
+		}
+		catch (Throwable e)
+		{
+			e.printStackTrace();
+		}
+
+		if (token != null)
+			tokens.put(type, token);
+		else
+			tokens.remove(type);
+
+		return token;
+	}
+}
\ No newline at end of file
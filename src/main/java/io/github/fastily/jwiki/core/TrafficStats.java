@@ -0,0 +1,274 @@
+package io.github.fastily.jwiki.core;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Tracks the number of bytes a Wiki receives from its server. Responses are usually compressed in transit, so for each response, both the number of bytes received over the network (wire bytes)
+ * and the number of bytes after decompression (decoded bytes) of the response body are recorded. A response is recorded once its body has been closed.
+ * 
+ * @author Fastily
+ *
+ */
+public final class TrafficStats
+{
+	/**
+	 * The number of responses recorded
+	 */
+	private final AtomicLong responses = new AtomicLong();
+
+	/**
+	 * The total number of bytes received over the network
+	 */
+	private final AtomicLong wireBytes = new AtomicLong();
+
+	/**
+	 * The total number of bytes received, after decompression
+	 */
+	private final AtomicLong decodedBytes = new AtomicLong();
+
+	/**
+	 * Called with each recorded response. Optional, may be null.
+	 */
+	private volatile Consumer<Sample> listener;
+
+	/**
+	 * Constructor, creates a new TrafficStats with all counts set to 0.
+	 */
+	protected TrafficStats()
+	{
+
+	}
+
+	/**
+	 * Gets the number of responses recorded so far.
+	 * 
+	 * @return The number of responses recorded so far.
+	 */
+	public long getResponses()
+	{
+		return responses.get();
+	}
+
+	/**
+	 * Gets the total number of bytes received over the network so far.
+	 * 
+	 * @return The total number of bytes received over the network so far.
+	 */
+	public long getWireBytes()
+	{
+		return wireBytes.get();
+	}
+
+	/**
+	 * Gets the total number of bytes received so far, after decompression.
+	 * 
+	 * @return The total number of bytes received so far, after decompression.
+	 */
+	public long getDecodedBytes()
+	{
+		return decodedBytes.get();
+	}
+
+	/**
+	 * Gets the overall compression ratio, i.e. the number of decoded bytes per wire byte.
+	 * 
+	 * @return The overall compression ratio, or {@code 1} if nothing has been received yet.
+	 */
+	public double getCompressionRatio()
+	{
+		long wire = wireBytes.get();
+		return wire == 0 ? 1 : (double) decodedBytes.get() / wire;
+	}
+
+	/**
+	 * Sets a listener which is called with the byte counts of each response as it is recorded. The listener is run on the thread which closes the response body, so it should not block.
+	 * 
+	 * @param listener The listener to use. Set null to disable.
+	 */
+	public void setListener(Consumer<Sample> listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Records a response.
+	 * 
+	 * @param s The byte counts of the response.
+	 */
+	private void record(Sample s)
+	{
+		responses.incrementAndGet();
+		wireBytes.addAndGet(s.wireBytes);
+		decodedBytes.addAndGet(s.decodedBytes);
+
+		Consumer<Sample> l = listener;
+		if (l != null)
+			l.accept(s);
+	}
+
+	/**
+	 * Creates an application Interceptor which counts decoded bytes. This must be added ahead of any decompressing Interceptors.
+	 * 
+	 * @return The Interceptor
+	 */
+	protected Interceptor decodedCounter()
+	{
+		return chain -> {
+			Counter c = new Counter();
+			Response r = chain.proceed(chain.request().newBuilder().tag(Counter.class, c).build());
+
+			ResponseBody b = r.body();
+			if (b == null)
+				return r;
+
+			HttpUrl url = r.request().url();
+			return r.newBuilder().body(ResponseBody.create(Okio.buffer(new CountingSource(b.source(), c.decoded) {
+				public void close() throws IOException
+				{
+					super.close();
+					if (c.recorded.compareAndSet(false, true))
+						record(new Sample(url, c.wire.get(), c.decoded.get()));
+				}
+			}), b.contentType(), b.contentLength())).build();
+		};
+	}
+
+	/**
+	 * Creates a network Interceptor which counts wire bytes, as sent by the server.
+	 * 
+	 * @return The Interceptor
+	 */
+	protected static Interceptor wireCounter()
+	{
+		return chain -> {
+			Response r = chain.proceed(chain.request());
+
+			Counter c = chain.request().tag(Counter.class);
+			ResponseBody b = r.body();
+			if (c == null || b == null)
+				return r;
+
+			return r.newBuilder().body(ResponseBody.create(Okio.buffer(new CountingSource(b.source(), c.wire)), b.contentType(), b.contentLength())).build();
+		};
+	}
+
+	/**
+	 * The byte counts of a single response.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	public static class Sample
+	{
+		/**
+		 * The url which was requested
+		 */
+		public final HttpUrl url;
+
+		/**
+		 * The number of bytes received over the network
+		 */
+		public final long wireBytes;
+
+		/**
+		 * The number of bytes received, after decompression
+		 */
+		public final long decodedBytes;
+
+		/**
+		 * Constructor, creates a new Sample.
+		 * 
+		 * @param url The url which was requested
+		 * @param wireBytes The number of bytes received over the network
+		 * @param decodedBytes The number of bytes received, after decompression
+		 */
+		private Sample(HttpUrl url, long wireBytes, long decodedBytes)
+		{
+			this.url = url;
+			this.wireBytes = wireBytes;
+			this.decodedBytes = decodedBytes;
+		}
+
+		/**
+		 * Gets a String representation of this Sample. Useful for debugging.
+		 */
+		public String toString()
+		{
+			return String.format("[ url : %s, wireBytes : %d, decodedBytes : %d ]", url, wireBytes, decodedBytes);
+		}
+	}
+
+	/**
+	 * Byte counts of a response in progress. Passed from the application Interceptor to the network Interceptor as a Request tag.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class Counter
+	{
+		/**
+		 * The number of bytes received over the network
+		 */
+		private final AtomicLong wire = new AtomicLong();
+
+		/**
+		 * The number of bytes received, after decompression
+		 */
+		private final AtomicLong decoded = new AtomicLong();
+
+		/**
+		 * Set true once the response has been recorded.
+		 */
+		private final AtomicBoolean recorded = new AtomicBoolean();
+	}
+
+	/**
+	 * A Source which counts the bytes read through it.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class CountingSource extends ForwardingSource
+	{
+		/**
+		 * The count to add to
+		 */
+		private final AtomicLong count;
+
+		/**
+		 * Constructor, creates a new CountingSource.
+		 * 
+		 * @param delegate The Source to read from
+		 * @param count The count to add to
+		 */
+		private CountingSource(Source delegate, AtomicLong count)
+		{
+			super(delegate);
+			this.count = count;
+		}
+
+		/**
+		 * Reads bytes from the delegate, adding the number of bytes read to the count.
+		 */
+		public long read(Buffer sink, long byteCount) throws IOException
+		{
+			long n = super.read(sink, byteCount);
+			if (n > 0)
+				count.addAndGet(n);
+
+			return n;
+		}
+	}
+}
\ No newline at end of file
@@ -1,11 +1,14 @@
 package io.github.fastily.jwiki.core;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,10 +18,10 @@ import com.google.gson.JsonParser;
 
 import io.github.fastily.jwiki.util.FL;
 import io.github.fastily.jwiki.util.GSONP;
+import io.github.fastily.jwiki.util.GroupQueue;
+import io.github.fastily.jwiki.util.MultiMap;
 import okhttp3.HttpUrl;
 import okhttp3.Response;
-import okio.BufferedSource;
-import okio.Okio;
 
 /**
  * Static methods to perform changes to a Wiki.
@@ -42,7 +45,7 @@ class WAction
 	}
 
 	/**
-	 * {@code POST} an action
+	 * {@code POST} an action. The action is treated as not idempotent, so it is only retried if the server did not act on it.
 	 * 
 	 * @param wiki The Wiki to work on.
 	 * @param action The type of action to perform. This is the literal API action
@@ -51,23 +54,82 @@ class WAction
 	 * @return True on success
 	 */
 	protected static ActionResult postAction(Wiki wiki, String action, boolean applyToken, HashMap<String, String> form)
+	{
+		return postAction(wiki, action, applyToken ? "csrf" : null, form, false);
+	}
+
+	/**
+	 * {@code POST} an action with a token of the specified type. If the server rejects the token, it is refreshed and the action is replayed once.
+	 * 
+	 * @param wiki The Wiki to work on.
+	 * @param action The type of action to perform. This is the literal API action
+	 * @param tokenType The type of token to apply (e.g. {@code csrf}, {@code rollback}). Optional, set null to disable.
+	 * @param form The form data to post. This should not be URL-encoded
+	 * @param idempotent Set true if sending the action more than once has the same effect as sending it once. If false, the action is only retried if the server did not act on it (see
+	 *           {@link RetryPolicy}).
+	 * @return The ActionResult of the action
+	 */
+	protected static ActionResult postAction(Wiki wiki, String action, String tokenType, HashMap<String, String> form, boolean idempotent)
+	{
+		String token = tokenType == null ? null : wiki.tokens.get(tokenType);
+
+		ActionResult r = post(wiki, action, token, form, idempotent);
+		if (token != null && (r == ActionResult.BADTOKEN || r == ActionResult.NOTOKEN))
+		{
+			log.warn("{}: Server rejected our {} token, refreshing it and retrying", wiki, tokenType);
+
+			String fresh = wiki.tokens.refresh(tokenType, token);
+			if (fresh != null)
+				r = post(wiki, action, fresh, form, idempotent);
+		}
+
+		return r;
+	}
+
+	/**
+	 * {@code POST} an action once, subject to the Wiki's RetryPolicy. This is the only layer which retries actions.
+	 * 
+	 * @param wiki The Wiki to work on.
+	 * @param action The type of action to perform. This is the literal API action
+	 * @param token The token to apply. Optional, set null to disable.
+	 * @param form The form data to post. This should not be URL-encoded
+	 * @param idempotent Set true if sending the action more than once has the same effect as sending it once.
+	 * @return The ActionResult of the action, or {@link ActionResult#ERROR} if it could not be sent.
+	 */
+	private static ActionResult post(Wiki wiki, String action, String token, HashMap<String, String> form, boolean idempotent)
 	{
 		HashMap<String, String> fl = FL.pMap("format", "json");
-		if (applyToken)
-			fl.put("token", wiki.conf.token);
+		if (token != null)
+			fl.put("token", token);
 
 		fl.putAll(form);
 
 		try
 		{
-			JsonObject result = JsonParser.parseString(wiki.apiclient.basicPOST(FL.pMap("action", action), fl).body().string()).getAsJsonObject();
-			log.debug("{}: {}", wiki, GSONP.gsonPP.toJson(result));
+			return wiki.conf.retryPolicy.run(() -> {
+				try (Response r = wiki.apiclient.basicPOST(FL.pMap("action", action), fl))
+				{
+					if (!r.isSuccessful())
+						throw RetryPolicy.RequestException.ofStatus(r.code());
+
+					JsonObject result = JsonParser.parseString(r.body().string()).getAsJsonObject();
+					log.debug("{}: {}", wiki, GSONP.gsonPP.toJson(result));
+
+					String code = result.has("error") ? GSONP.getStr(result.getAsJsonObject("error"), "code") : null;
+					if ("ratelimited".equals(code))
+						wiki.apiclient.limiter.backOff(5000);
 
-			return ActionResult.wrap(result, action);
+					if (RetryPolicy.RequestException.isRejected(code) || idempotent && RetryPolicy.RequestException.isTransient(code))
+						throw RetryPolicy.RequestException.ofAPI(code);
+
+					return ActionResult.wrap(result, action);
+				}
+			}, idempotent);
 		}
 		catch (Throwable e)
 		{
-			return ActionResult.NONE;
+			log.error("{}: Could not {}: {}", wiki, action, e.toString());
+			return ActionResult.ERROR;
 		}
 	}
 
@@ -93,7 +155,7 @@ class WAction
 	}
 
 	/**
-	 * Edits a page.
+	 * Edits a page. Replacing the text of a page is idempotent, so the edit is retried according to the Wiki's RetryPolicy.
 	 * 
 	 * @param wiki The Wiki to work on.
 	 * @param title The title to edit
@@ -102,6 +164,23 @@ class WAction
 	 * @return True on success.
 	 */
 	protected static boolean edit(Wiki wiki, String title, String text, String summary)
+	{
+		return edit(wiki, title, text, summary, null, null) == ActionResult.SUCCESS;
+	}
+
+	/**
+	 * Edits a page, failing with {@link ActionResult#EDITCONFLICT} if the page changed since its text was fetched. Replacing the text of a page is idempotent, so the edit is retried according to
+	 * the Wiki's RetryPolicy.
+	 * 
+	 * @param wiki The Wiki to work on.
+	 * @param title The title to edit
+	 * @param text The text to replace the text of {@code title} with.
+	 * @param summary The edit summary to use
+	 * @param basetimestamp The timestamp of the revision {@code text} is based on. Set null if the page did not exist, in which case the edit fails if the page has since been created.
+	 * @param starttimestamp When the text of {@code title} was fetched. Optional, set null to disable edit conflict detection.
+	 * @return The ActionResult of the edit.
+	 */
+	protected static ActionResult edit(Wiki wiki, String title, String text, String summary, Instant basetimestamp, Instant starttimestamp)
 	{
 		log.info("{}: Editing {}", wiki, title);
 
@@ -109,33 +188,31 @@ class WAction
 		if (wiki.conf.isBot)
 			pl.put("bot", "");
 
-		for (int i = 0; i < 5; i++)
-			switch (postAction(wiki, "edit", true, pl))
-			{
-				case SUCCESS:
-					return true;
-				case RATELIMITED:
-					try
-					{
-						log.info("{}: Ratelimited by server, sleeping 10 seconds", wiki);
-						Thread.sleep(10000);
-					}
-					catch (Throwable e)
-					{
-						e.printStackTrace();
-						return false;
-					}
-					break;
-				case PROTECTED:
-					log.error("{}: {} is protected, cannot edit.", wiki, title);
-					return false;
+		if (starttimestamp != null)
+		{
+			pl.put("starttimestamp", starttimestamp.toString());
+			if (basetimestamp != null)
+				pl.put("basetimestamp", basetimestamp.toString());
+			else
+				pl.put("createonly", "");
+		}
 
-				default:
-					log.warn("{}: Got an error, retrying: {}", wiki, i);
-			}
+		ActionResult r = postAction(wiki, "edit", "csrf", pl, true);
+		switch (r)
+		{
+			case SUCCESS:
+				break;
+			case PROTECTED:
+				log.error("{}: {} is protected, cannot edit.", wiki, title);
+				break;
+			case EDITCONFLICT:
+				log.error("{}: {} was changed since its text was fetched, not editing.", wiki, title);
+				break;
+			default:
+				log.error("{}: Could not edit '{}', aborting.", wiki, title);
+		}
 
-		log.error("{}: Could not edit '{}', aborting.", wiki, title);
-		return false;
+		return r;
 	}
 
 	/**
@@ -192,30 +269,131 @@ class WAction
 	protected static boolean undelete(Wiki wiki, String title, String reason)
 	{
 		log.info("{}: Restoring {}", wiki, title);
+		return postAction(wiki, "undelete", true, FL.pMap("title", title, "reason", reason)) == ActionResult.NONE;
+	}
 
-		for (int i = 0; i < 10; i++)
-			if (postAction(wiki, "undelete", true, FL.pMap("title", title, "reason", reason)) == ActionResult.NONE)
-				return true;
+	/**
+	 * Purges the cache of pages. Titles are split into groups of up to {@code groupQueryMax}, and up to {@code maxRequestsPerHost} groups are purged at the same time; as each group finishes, the next
+	 * one is started.
+	 * 
+	 * @param wiki The Wiki to work on.
+	 * @param titles The title(s) to purge.
+	 * @param forceLinkUpdate Set true to also update the links tables of each page.
+	 * @param forceRecursiveLinkUpdate Set true to also update the links tables of each page, and of every page which transcludes it. Implies {@code forceLinkUpdate}.
+	 * @return The outcome for each title in {@code titles}.
+	 */
+	protected static HashMap<String, PurgeStatus> purge(Wiki wiki, Collection<String> titles, boolean forceLinkUpdate, boolean forceRecursiveLinkUpdate)
+	{
+		log.info("{}: Purging {} titles", wiki, titles.size());
+
+		HashMap<String, String> pl = new HashMap<>();
+		if (forceRecursiveLinkUpdate)
+			pl.put("forcerecursivelinkupdate", "1");
+		else if (forceLinkUpdate)
+			pl.put("forcelinkupdate", "1");
 
-		return false;
+		ArrayList<List<String>> groups = new ArrayList<>();
+		GroupQueue<String> gq = new GroupQueue<>(titles, wiki.conf.groupQueryMax);
+		while (gq.has())
+			groups.add(gq.poll());
+
+		HashMap<String, PurgeStatus> m = new HashMap<>();
+		FL.windowed(groups, wiki.conf.maxRequestsPerHost, g -> {
+			HashMap<String, String> form = new HashMap<>(pl);
+			form.put("titles", FL.pipeFence(g));
+
+			return postAsync(wiki, "purge", form, true).handle((jo, e) -> {
+				if (e != null)
+					log.error("{}: Could not purge a group of titles: {}", wiki, e.toString());
+
+				return parsePurge(g, e == null ? jo : null);
+			});
+		}).join().forEach(m::putAll);
+
+		return m;
 	}
 
 	/**
-	 * Purges the cache of pages.
+	 * Parses the response to a purge of a single group of titles. Titles which the server normalized are reported under the title(s) that were passed in.
+	 * 
+	 * @param group The titles which were purged.
+	 * @param jo The response from the server, or null if the request failed.
+	 * @return The outcome of each title in {@code group}.
+	 */
+	private static HashMap<String, PurgeStatus> parsePurge(List<String> group, JsonObject jo)
+	{
+		HashMap<String, PurgeStatus> m = new HashMap<>();
+		group.forEach(t -> m.put(t, PurgeStatus.FAILED));
+
+		if (jo == null)
+			return m;
+
+		MultiMap<String, String> norm = new MultiMap<>();
+		if (jo.has("normalized"))
+			for (JsonObject o : GSONP.getJAofJO(jo.getAsJsonArray("normalized")))
+				norm.put(GSONP.getStr(o, "to"), GSONP.getStr(o, "from"));
+
+		if (jo.has("purge"))
+			for (JsonObject o : GSONP.getJAofJO(jo.getAsJsonArray("purge")))
+			{
+				String title = GSONP.getStr(o, "title");
+				if (title == null)
+					continue;
+
+				PurgeStatus status = o.has("purged") ? PurgeStatus.PURGED : o.has("missing") ? PurgeStatus.MISSING : o.has("invalid") ? PurgeStatus.INVALID : PurgeStatus.FAILED;
+				if (m.containsKey(title))
+					m.put(title, status);
+
+				norm.l.getOrDefault(title, new ArrayList<>()).forEach(t -> m.put(t, status));
+			}
+
+		return m;
+	}
+
+	/**
+	 * Asynchronously {@code POST} an action which does not need a token, subject to the Wiki's RetryPolicy. If the server reports that we are rate-limited, the Wiki's rate limiter is slowed down
+	 * and the action is retried.
 	 * 
 	 * @param wiki The Wiki to work on.
-	 * @param titles The title(s) to purge.
+	 * @param action The type of action to perform. This is the literal API action
+	 * @param form The form data to post. This should not be URL-encoded
+	 * @param idempotent Set true if sending the action more than once has the same effect as sending it once. If false, the action is only retried if the server did not act on it (see
+	 *           {@link RetryPolicy}).
+	 * @return A CompletableFuture which completes with the response from the server, or exceptionally if all attempts failed.
 	 */
-	protected static void purge(Wiki wiki, ArrayList<String> titles)
+	private static CompletableFuture<JsonObject> postAsync(Wiki wiki, String action, HashMap<String, String> form, boolean idempotent)
 	{
-		log.info("{}: Purging: {}", wiki, titles);
+		HashMap<String, String> fl = FL.pMap("format", "json");
+		fl.putAll(form);
+
+		return wiki.conf.retryPolicy.runAsync(() -> wiki.apiclient.basicPOSTAsync(FL.pMap("action", action), fl).thenApply(r -> {
+			try (r)
+			{
+				if (!r.isSuccessful())
+					throw RetryPolicy.RequestException.ofStatus(r.code());
+
+				JsonObject result = JsonParser.parseString(r.body().string()).getAsJsonObject();
+				log.debug("{}: {}", wiki, GSONP.gsonPP.toJson(result));
+
+				String code = result.has("error") ? GSONP.getStr(result.getAsJsonObject("error"), "code") : null;
+				if ("ratelimited".equals(code))
+					wiki.apiclient.limiter.backOff(5000);
 
-		HashMap<String, String> pl = FL.pMap("titles", FL.pipeFence(titles));
-		postAction(wiki, "purge", false, pl);
+				if (RetryPolicy.RequestException.isTransient(code))
+					throw RetryPolicy.RequestException.ofAPI(code);
+
+				return result;
+			}
+			catch (IOException e)
+			{
+				throw new CompletionException(e);
+			}
+		}), idempotent);
 	}
 
 	/**
-	 * Uploads a file. Caution: overwrites files automatically.
+	 * Uploads a file in chunks. Caution: overwrites files automatically. If an earlier upload of the same file to the same title was interrupted, it is resumed (see {@link ChunkedUpload}). The
+	 * upload is aborted at the first chunk which could not be uploaded.
 	 * 
 	 * @param wiki The Wiki to work on.
 	 * @param title The title to upload the file to, excluding the {@code File:} prefix.
@@ -230,50 +408,19 @@ class WAction
 
 		try
 		{
-			ChunkManager cm = new ChunkManager(file);
-
-			String filekey = null;
-			String fn = file.getFileName().toString();
+			ChunkedUpload cu = new ChunkedUpload(wiki, file, title);
+			String filekey = cu.stash();
 
-			Chunk c;
-			while ((c = cm.nextChunk()) != null)
+			log.info("{}: Unstashing '{}' as '{}'", wiki, filekey, title);
+			if (postAction(wiki, "upload", true, FL.pMap("filename", title, "text", desc, "comment", summary, "filekey", filekey, "ignorewarnings", "true")) == ActionResult.SUCCESS)
 			{
-				log.info("{}: Uploading chunk [{} of {}] of '{}'", wiki, cm.chunkCnt, cm.totalChunks, file);
-
-				HashMap<String, String> pl = FL.pMap("format", "json", "filename", title, "token", wiki.conf.token, "ignorewarnings", "1", "stash", "1", "offset", "" + c.offset, "filesize",
-						"" + c.filesize);
-				if (filekey != null)
-					pl.put("filekey", filekey);
-
-				for (int i = 0; i < 5; i++)
-					try
-					{
-						Response r = wiki.apiclient.multiPartFilePOST(FL.pMap("action", "upload"), pl, fn, c.bl);
-						if (!r.isSuccessful())
-						{
-							log.error("{}: Bad response from server: {}", wiki, r.code());
-							continue;
-						}
-
-						filekey = GSONP.getStr(JsonParser.parseString(r.body().string()).getAsJsonObject().getAsJsonObject("upload"), "filekey");
-						if (filekey != null)
-							break;
-					}
-					catch (Throwable e)
-					{
-						log.error("{}: Encountered an error, retrying - {}", wiki, i);
-						e.printStackTrace();
-					}
+				cu.discard();
+				return true;
 			}
 
-			for (int i = 0; i < 3; i++)
-			{
-				log.info("{}: Unstashing '{}' as '{}'", wiki, filekey, title);
-				if (postAction(wiki, "upload", true, FL.pMap("filename", title, "text", desc, "comment", summary, "filekey", filekey, "ignorewarnings", "true")) == ActionResult.SUCCESS)
-					return true;
-
-				log.error("{}: Encountered an error while unstashing, retrying - {}", wiki, i);
-			}
+			log.error("{}: Encountered an error while unstashing '{}'", wiki, filekey);
+			if (!cu.sentChunks()) // stashed by an earlier upload, which has probably expired
+				cu.discard();
 
 			return false;
 		}
@@ -341,7 +488,12 @@ class WAction
 		/**
 		 * Error, if the action could not be completed due to being rate-limited by Wiki.
 		 */
-		RATELIMITED;
+		RATELIMITED,
+
+		/**
+		 * Error, if the page was changed, created, or deleted since its text was fetched.
+		 */
+		EDITCONFLICT;
 
 		/**
 		 * Parses and wraps the response from a POST to the server in an ActionResult.
@@ -369,6 +521,12 @@ class WAction
 							return NOTOKEN;
 						case "badtoken":
 							return BADTOKEN;
+						case "ratelimited":
+							return RATELIMITED;
+						case "editconflict":
+						case "articleexists":
+						case "pagedeleted":
+							return EDITCONFLICT;
 						case "cascadeprotected":
 						case "protectedpage":
 							return PROTECTED;
@@ -384,130 +542,4 @@ class WAction
 			return NONE;
 		}
 	}
-
-	/**
-	 * Creates and manages Chunk Objects for {@link WAction#upload(Wiki, String, String, String, Path)}.
-	 * 
-	 * @author Fastily
-	 *
-	 */
-	private final static class ChunkManager
-	{
-		/**
-		 * The default chunk size is 4 Mb
-		 */
-		private static final int chunksize = 1024 * 1024 * 4;
-
-		/**
-		 * The source file stream
-		 */
-		private BufferedSource src;
-
-		/**
-		 * The current Chunk offset, in bytes
-		 */
-		private long offset = 0;
-
-		/**
-		 * The file size (in bytes) of the file being uploaded
-		 */
-		private final long filesize;
-
-		/**
-		 * The total number of Chunk objects to upload
-		 */
-		private final long totalChunks;
-
-		/**
-		 * Counts the number of chunks created so far.
-		 */
-		private int chunkCnt = 0;
-
-		/**
-		 * Creates a new Chunk Manager. Create a new ChunkManager for every upload.
-		 * 
-		 * @param fn The local file to upload
-		 * @throws IOException I/O error.
-		 */
-		private ChunkManager(Path fn) throws IOException
-		{
-			filesize = Files.size(fn);
-			src = Okio.buffer(Okio.source(fn, StandardOpenOption.READ));
-			totalChunks = filesize / chunksize + ((filesize % chunksize) > 0 ? 1 : 0);
-		}
-
-		/**
-		 * Determine if there are still Chunk objects to upload.
-		 * 
-		 * @return True if there are still Chunk objects to upload.
-		 */
-		private boolean has()
-		{
-			return offset < filesize;
-		}
-
-		/**
-		 * Create and return the next sequential Chunk to upload.
-		 * 
-		 * @return The next sequential Chunk to upload, or null on error or if there are no more chunks to upload.
-		 */
-		private Chunk nextChunk()
-		{
-			if (!has())
-				return null;
-
-			try
-			{
-				Chunk c = new Chunk(offset, filesize, ++chunkCnt == totalChunks ? src.readByteArray() : src.readByteArray(chunksize));
-
-				offset += chunksize;
-				// chunkCnt++;
-
-				if (!has())
-					src.close();
-
-				return c;
-
-			}
-			catch (Throwable e)
-			{
-				e.printStackTrace();
-				return null;
-			}
-		}
-	}
-
-	/**
-	 * Represents an indidual chunk to upload
-	 * 
-	 * @author Fastily
-	 *
-	 */
-	private final static class Chunk
-	{
-		/**
-		 * The offset and filesize (both in bytes)
-		 */
-		protected final long offset, filesize;
-
-		/**
-		 * The raw binary data for this Chunk
-		 */
-		protected final byte[] bl;
-
-		/**
-		 * Creates a new Chunk to upload
-		 * 
-		 * @param offset The byte offset of this Chunk
-		 * @param filesize The total file size of the file this Chunk belongs to
-		 * @param bl The raw binary data contained by this chunk
-		 */
-		private Chunk(long offset, long filesize, byte[] bl)
-		{
-			this.offset = offset;
-			this.filesize = filesize;
-
-			this.bl = bl;
-		}
-	}
 }
\ No newline at end of file
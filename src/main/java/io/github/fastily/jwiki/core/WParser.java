@@ -7,6 +7,8 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -97,6 +99,26 @@ public class WParser
 		return parse(wiki, FL.pMap("text", text, "contentmodel", "wikitext"));
 	}
 
+	/**
+	 * Parses wikitext into a WikiText object locally, without a round trip to the server. This follows the rules of MediaWiki's preprocessor closely enough for reading and rewriting templates:
+	 * <ul>
+	 * <li>Templates may be nested, and unclosed braces are left as text.</li>
+	 * <li>Pipes and equals signs in wikilinks, comments, and nested templates do not split parameters.</li>
+	 * <li>Comments are removed from template titles and parameter names, and kept in parameter values.</li>
+	 * <li>The contents of tags such as {@code nowiki}, {@code pre}, and {@code syntaxhighlight} are left as text.</li>
+	 * <li>Template parameters (e.g. <code>{{{1|default}}}</code>) and tables are left as text. As on a Wiki, a table inside a template parameter must write its pipes as
+	 * <code>{{!}}</code>.</li>
+	 * </ul>
+	 * Unlike {@link #parseText(Wiki, String)}, templates inside the contents of tags which hold wikitext, such as {@code ref} and {@code gallery}, are parsed.
+	 * 
+	 * @param text The wikitext to parse
+	 * @return A WikiText representation of {@code text}.
+	 */
+	public static WikiText parseText(String text)
+	{
+		return new LocalParser(text).parse();
+	}
+
 	/**
 	 * Parses a template. This function is to be called upon encountering a {@code template} StartElement.
 	 * 
@@ -229,6 +251,360 @@ public class WParser
 		return e.getName().getLocalPart().equals(n);
 	}
 
+	/**
+	 * A recursive descent parser which reads templates out of wikitext. Each construct which is not closed is left as text; since how a construct parses does not depend on what encloses it,
+	 * constructs which could not be closed are remembered so they are only attempted once.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	private static class LocalParser
+	{
+		/**
+		 * Matches a tag whose contents are not wikitext, along with its contents.
+		 */
+		private static final Pattern opaque = Pattern.compile(
+				"<(nowiki|pre|math|chem|ce|syntaxhighlight|source|score|timeline|graph|hiero|templatedata|templatestyles|mapframe|maplink)(?:\\s[^>]*)?(?:/>|>.*?</\\1\\s*>)",
+				Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+		/**
+		 * Matches a comment, which may be unclosed.
+		 */
+		private static final Pattern comment = Pattern.compile("<!--.*?(?:-->|$)", Pattern.DOTALL);
+
+		/**
+		 * The maximum number of constructs which may be nested. Deeper constructs are left as text, so that broken wikitext cannot exhaust the stack.
+		 */
+		private static final int maxDepth = 256;
+
+		/**
+		 * The wikitext to parse
+		 */
+		private final String s;
+
+		/**
+		 * Matches {@link #opaque} against {@link #s}.
+		 */
+		private final Matcher tag;
+
+		/**
+		 * The index of the next character of {@link #s} to parse.
+		 */
+		private int i = 0;
+
+		/**
+		 * The number of constructs which enclose {@link #i}.
+		 */
+		private int depth = 0;
+
+		/**
+		 * The constructs which could not be closed, keyed by {@link Mode} and the index they start at.
+		 */
+		private final HashSet<Long> unclosed = new HashSet<>();
+
+		/**
+		 * Constructor, creates a new LocalParser.
+		 * 
+		 * @param s The wikitext to parse
+		 */
+		private LocalParser(String s)
+		{
+			this.s = s;
+			tag = opaque.matcher(s);
+		}
+
+		/**
+		 * Parses {@link #s}.
+		 * 
+		 * @return A WikiText representation of {@link #s}.
+		 */
+		private WikiText parse()
+		{
+			WikiText root = new WikiText();
+			scan(root, Mode.ROOT);
+			return root;
+		}
+
+		/**
+		 * Parses text into {@code out} until a terminator of {@code m} is found.
+		 * 
+		 * @param out The WikiText to append parsed text and templates to.
+		 * @param m The kind of construct being parsed.
+		 * @return The terminator which was found, or null if the end of {@link #s} was reached first.
+		 */
+		private String scan(WikiText out, Mode m)
+		{
+			StringBuilder b = new StringBuilder();
+			while (i < s.length())
+			{
+				String end = m.terminatorAt(s, i);
+				if (end != null)
+				{
+					i += end.length();
+					flush(out, b);
+					return end;
+				}
+
+				char c = s.charAt(i);
+				if (c == '<' && s.startsWith("<!--", i))
+				{
+					int j = s.indexOf("-->", i + 4);
+					j = j < 0 ? s.length() : j + 3;
+					b.append(s, i, j);
+					i = j;
+				}
+				else if (c == '<' && tag.region(i, s.length()).lookingAt())
+				{
+					b.append(s, i, tag.end());
+					i = tag.end();
+				}
+				else if (c == '{' && s.startsWith("{{", i))
+					braces(out, b);
+				else if (c == '[' && m != Mode.ROOT && s.startsWith("[[", i)) // links only matter for splitting parameters
+					enclosed(out, b, Mode.LINK);
+				else
+				{
+					b.append(c);
+					i++;
+				}
+			}
+
+			flush(out, b);
+			return null;
+		}
+
+		/**
+		 * Parses a run of opening braces. PRECONDITION: {@link #s} has at least two opening braces at {@link #i}.
+		 * 
+		 * @param out The WikiText being parsed into
+		 * @param b Text which has been parsed but not yet appended to {@code out}.
+		 */
+		private void braces(WikiText out, StringBuilder b)
+		{
+			int n = 2;
+			while (i + n < s.length() && s.charAt(i + n) == '{')
+				n++;
+
+			if (n > 3) // the innermost braces are matched first
+			{
+				b.append('{');
+				i++;
+			}
+			else if (n == 3)
+				enclosed(out, b, Mode.ARG);
+			else
+			{
+				int start = i;
+				if (depth < maxDepth && !unclosed.contains(key(Mode.VALUE, start)))
+				{
+					i += 2;
+					depth++;
+					WTemplate t = template();
+					depth--;
+					if (t != null)
+					{
+						flush(out, b);
+						out.append(t);
+						return;
+					}
+
+					unclosed.add(key(Mode.VALUE, start));
+					i = start;
+				}
+
+				b.append("{{");
+				i += 2;
+			}
+		}
+
+		/**
+		 * Parses the title and parameters of a template. PRECONDITION: {@link #i} is just past the opening braces of the template.
+		 * 
+		 * @return The template, or null if it is not closed.
+		 */
+		private WTemplate template()
+		{
+			WTemplate t = new WTemplate();
+
+			WikiText title = new WikiText();
+			String end = scan(title, Mode.VALUE);
+			if (end == null)
+				return null;
+
+			t.title = strip(title);
+
+			for (int index = 1; end.equals("|");)
+			{
+				WikiText part = new WikiText();
+				if ((end = scan(part, Mode.NAME)) == null)
+					return null;
+				else if (end.equals("="))
+				{
+					WikiText value = new WikiText();
+					if ((end = scan(value, Mode.VALUE)) == null)
+						return null;
+
+					t.put(strip(part), value);
+				}
+				else
+					t.put("" + index++, part);
+			}
+
+			return t;
+		}
+
+		/**
+		 * Parses a construct which is kept as text, except for any templates it contains. If the construct is not closed, only its first character is kept as text, so that any shorter constructs
+		 * it starts with may still be parsed.
+		 * 
+		 * @param out The WikiText being parsed into
+		 * @param b Text which has been parsed but not yet appended to {@code out}.
+		 * @param m The kind of construct to parse. Its opening characters are as many as its closing characters.
+		 */
+		private void enclosed(WikiText out, StringBuilder b, Mode m)
+		{
+			int start = i;
+			String opener = s.substring(i, i + m.terminator.length());
+			if (depth < maxDepth && !unclosed.contains(key(m, start)))
+			{
+				i += opener.length();
+				WikiText inner = new WikiText();
+
+				depth++;
+				String end = scan(inner, m);
+				depth--;
+
+				if (end != null)
+				{
+					b.append(opener);
+					for (Object o : inner.l)
+						if (o instanceof String)
+							b.append(o);
+						else
+						{
+							flush(out, b);
+							out.append(o);
+						}
+					b.append(m.terminator);
+					return;
+				}
+
+				unclosed.add(key(m, start));
+				i = start;
+			}
+
+			b.append(s.charAt(i++));
+		}
+
+		/**
+		 * Appends text which has been parsed to a WikiText.
+		 * 
+		 * @param out The WikiText to append to
+		 * @param b The text to append. This is cleared.
+		 */
+		private static void flush(WikiText out, StringBuilder b)
+		{
+			if (b.length() == 0)
+				return;
+
+			out.append(b.toString());
+			b.setLength(0);
+		}
+
+		/**
+		 * Renders a template title or parameter name without comments or surrounding whitespace.
+		 * 
+		 * @param wt The WikiText to render
+		 * @return The rendered title or name
+		 */
+		private static String strip(WikiText wt)
+		{
+			return comment.matcher(wt.toString(false)).replaceAll("").strip();
+		}
+
+		/**
+		 * Creates a key for {@link #unclosed}.
+		 * 
+		 * @param m The kind of construct
+		 * @param start The index the construct starts at.
+		 * @return The key
+		 */
+		private static long key(Mode m, int start)
+		{
+			return (long) start * Mode.values().length + m.ordinal();
+		}
+
+		/**
+		 * The kinds of constructs a LocalParser parses.
+		 * 
+		 * @author Fastily
+		 *
+		 */
+		private static enum Mode
+		{
+			/**
+			 * Top-level wikitext, which is only ended by the end of the text.
+			 */
+			ROOT(null),
+
+			/**
+			 * A template parameter which may be named, ended by an equals sign, a pipe, or closing braces.
+			 */
+			NAME("}}"),
+
+			/**
+			 * A template title or parameter value, ended by a pipe or closing braces.
+			 */
+			VALUE("}}"),
+
+			/**
+			 * A wikilink, ended by closing brackets.
+			 */
+			LINK("]]"),
+
+			/**
+			 * A template parameter reference, such as <code>{{{1}}}</code>, ended by three closing braces.
+			 */
+			ARG("}}}");
+
+			/**
+			 * The closing characters of this kind of construct, or null if there are none.
+			 */
+			private final String terminator;
+
+			/**
+			 * Constructor, creates a new Mode.
+			 * 
+			 * @param terminator The closing characters of this kind of construct, or null if there are none.
+			 */
+			private Mode(String terminator)
+			{
+				this.terminator = terminator;
+			}
+
+			/**
+			 * Determines if a terminator of this kind of construct starts at an index.
+			 * 
+			 * @param s The text being parsed
+			 * @param i The index to check
+			 * @return The terminator which starts at {@code i}, or null if there is none.
+			 */
+			private String terminatorAt(String s, int i)
+			{
+				if (terminator == null)
+					return null;
+				else if (s.startsWith(terminator, i))
+					return terminator;
+				else if ((this == NAME || this == VALUE) && s.charAt(i) == '|')
+					return "|";
+				else if (this == NAME && s.charAt(i) == '=')
+					return "=";
+
+				return null;
+			}
+		}
+	}
+
 	/**
 	 * Mutable representation of parsed wikitext. May contain Strings and templates.
 	 * 
@@ -381,17 +757,15 @@ public class WParser
 
 		/**
 		 * Normalize the title of the WTemplate, according to {@code wiki}. In other words, remove the 'Template:'
-		 * namespace, convert, capitalize the first letter, convert underscores to spaces.
+		 * namespace, convert, capitalize the first letter, convert underscores to spaces. Titles in other namespaces keep
+		 * their (canonical) namespace prefix.
 		 * 
 		 * @param wiki The Wiki to normalize against.
 		 */
-		public void normalizeTitle(Wiki wiki) // TODO: Account for non-template NS
+		public void normalizeTitle(Wiki wiki)
 		{
-			if (wiki.whichNS(title).equals(NS.TEMPLATE))
-				title = wiki.nss(title);
-
-			title = title.length() <= 1 ? title.toUpperCase() : "" + Character.toUpperCase(title.charAt(0)) + title.substring(1);
-			title = title.replace('_', ' ');
+			Title t = wiki.getTitle(title);
+			title = t.getNS().equals(NS.TEMPLATE) ? t.getName() : t.toString();
 		}
 
 		/**
@@ -1,9 +1,29 @@
 package io.github.fastily.jwiki.core;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Type;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,9 +32,11 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 
 import io.github.fastily.jwiki.util.FL;
 import io.github.fastily.jwiki.util.GSONP;
+import okhttp3.Response;
 
 /**
  * Wraps the various functions of API functions of {@code action=query}.
@@ -32,7 +54,7 @@ class WQuery
 	/**
 	 * Default parameters for getting category size info
 	 */
-	public static final QTemplate ALLOWEDFILEXTS = new QTemplate(FL.pMap("meta", "siteinfo", "siprop", "fileextensions"), "fileextensions");
+	public static final QTemplate ALLOWEDFILEXTS = new QTemplate(FL.pMap("meta", "siteinfo", "siprop", "fileextensions"), "fileextensions").cacheFor(Duration.ofDays(1));
 
 	/**
 	 * Default parameters for getting category size info
@@ -42,7 +64,7 @@ class WQuery
 	/**
 	 * Default parameters for getting category size info
 	 */
-	public static final QTemplate CATEGORYINFO = new QTemplate(FL.pMap("prop", "categoryinfo", "titles", null), "categoryinfo");
+	public static final QTemplate CATEGORYINFO = new QTemplate(FL.pMap("prop", "categoryinfo", "titles", null), "categoryinfo").cacheFor(Duration.ofMinutes(10));
 
 	/**
 	 * Default parameters for listing category members
@@ -52,7 +74,7 @@ class WQuery
 	/**
 	 * Default parameters for getting Namespace information on a Wiki.
 	 */
-	public static final QTemplate NAMESPACES = new QTemplate(FL.pMap("meta", "siteinfo", "siprop", "namespaces|namespacealiases"), null);
+	public static final QTemplate NAMESPACES = new QTemplate(FL.pMap("meta", "siteinfo", "siprop", "namespaces|namespacealiases"), null).cacheFor(Duration.ofDays(1));
 
 	/**
 	 * Default parameters for getting duplicate files
@@ -69,6 +91,11 @@ class WQuery
 	 */
 	public static final QTemplate EXTLINKS = new QTemplate(FL.pMap("prop", "extlinks", "elexpandurl", "1", "titles", null), "ellimit", "extlinks");
 
+	/**
+	 * Default parameters for finding files by their SHA-1 hash. The API accepts a single hash per query.
+	 */
+	public static final QTemplate FILESBYSHA1 = new QTemplate(FL.pMap("list", "allimages", "aisha1", null), "ailimit", "allimages");
+
 	/**
 	 * Default parameters for getting file usage
 	 */
@@ -114,6 +141,11 @@ class WQuery
 	 */
 	public static final QTemplate PAGETEXT = new QTemplate(FL.pMap("prop", "revisions", "rvprop", "content", "titles", null), null);
 
+	/**
+	 * Type for fetching basic page information
+	 */
+	public static final QTemplate PAGEINFO = new QTemplate(FL.pMap("prop", "info", "titles", null), null);
+
 	/**
 	 * Default parameters for listing protected titles.
 	 */
@@ -159,6 +191,11 @@ class WQuery
 	 */
 	public static final QTemplate TEXTEXTRACTS = new QTemplate(FL.pMap("prop", "extracts", "exintro", "1", "explaintext", "1", "titles", null), "exlimit", "extract");
 
+	/**
+	 * Default parameters for getting a token of any type.
+	 */
+	public static final QTemplate TOKENS = new QTemplate(FL.pMap("meta", "tokens", "type", null), null);
+
 	/**
 	 * Default parameters for getting a csrf token.
 	 */
@@ -180,14 +217,14 @@ class WQuery
 	public static final QTemplate USERCONTRIBS = new QTemplate(FL.pMap("list", "usercontribs", "ucuser", null), "uclimit", "usercontribs");
 
 	/**
-	 * Default parameters for getting a user's username and id.
+	 * Default parameters for getting a user's username, id, and rights.
 	 */
-	public static final QTemplate USERINFO = new QTemplate(FL.pMap("meta", "userinfo"), null);
+	public static final QTemplate USERINFO = new QTemplate(FL.pMap("meta", "userinfo", "uiprop", "rights"), null);
 
 	/**
 	 * Default parameters for listing users and their rights.
 	 */
-	public static final QTemplate USERRIGHTS = new QTemplate(FL.pMap("list", "users", "usprop", "groups", "ususers", null), "users");
+	public static final QTemplate USERRIGHTS = new QTemplate(FL.pMap("list", "users", "usprop", "groups", "ususers", null), "users").cacheFor(Duration.ofHours(1));
 
 	/**
 	 * Default parameters for listing user uploads
@@ -200,6 +237,11 @@ class WQuery
 	private static Type strMapT = new TypeToken<HashMap<String, String>>() {
 	}.getType();
 
+	/**
+	 * Parameters which select query modules. The values of these are pipe-fenced if more than one QTemplate specifies them.
+	 */
+	private static final HashSet<String> moduleKeys = FL.toSHS("prop", "list", "meta");
+
 	/**
 	 * The master parameter list. Tracks current query status.
 	 */
@@ -225,23 +267,40 @@ class WQuery
 	 */
 	private int queryLimit, totalLimit = -1, currCount = 0;
 
+	/**
+	 * How long the responses to this WQuery may be served from the Wiki's response cache. This is the shortest TTL of the QTemplates this WQuery was created with, or null if any of them may not be
+	 * cached.
+	 */
+	private final Duration ttl;
+
 	/**
 	 * Constructor, creates a new WQuery
 	 * 
 	 * @param wiki The Wiki object to perform queries with
-	 * @param qut The QueryUnitTemplate objects to instantiate this WQuery with.
+	 * @param qut The QueryUnitTemplate objects to instantiate this WQuery with. If more than one of these specify a {@code prop}, {@code list}, or {@code meta} module, then the modules are combined
+	 *           into a single query. If one of these is a generator, then the {@code prop} modules are run on the titles it generates.
 	 */
 	public WQuery(Wiki wiki, QTemplate... qut)
 	{
 		this.wiki = wiki;
 		this.queryLimit = wiki.conf.maxResultLimit;
 
+		boolean isGen = Stream.of(qut).anyMatch(qt -> qt.defaultFields.containsKey("generator"));
 		for (QTemplate qt : qut)
 		{
-			pl.putAll(qt.defaultFields);
+			qt.defaultFields.forEach((k, v) -> {
+				if (isGen && k.equals("titles") && !qt.defaultFields.containsKey("generator")) // generator supplies the titles
+					return;
+
+				String old = pl.get(k);
+				pl.put(k, v != null && old != null && moduleKeys.contains(k) && !old.equals(v) ? old + "|" + v : v);
+			});
+
 			if (qt.limString != null)
 				limStrList.add(qt.limString);
 		}
+
+		ttl = Stream.of(qut).anyMatch(qt -> qt.ttl == null) ? null : Stream.of(qut).map(qt -> qt.ttl).min(Duration::compareTo).orElse(null);
 	}
 
 	/**
@@ -270,39 +329,377 @@ class WQuery
 	/**
 	 * Attempts to perform the next query in this sequence.
 	 * 
-	 * @return A JsonObject with the response from the server, or null if something went wrong.
+	 * @return A JsonObject with the response from the server, or null if there are no queries remaining.
+	 * @throws UncheckedIOException If the query failed on every attempt allowed by the Wiki's RetryPolicy. This WQuery is then exhausted.
 	 */
 	public QReply next()
 	{
-		// sanity check
-		if (pl.containsValue(null))
-			throw new IllegalStateException(String.format("Fill in *all* the null fields -> %s", pl));
-		else if (!canCont)
+		if (!prepNext())
 			return null;
 
 		try
 		{
-			if (totalLimit > 0 && (currCount += queryLimit) > totalLimit)
+			return wiki.conf.retryPolicy.run(() -> processReply(wiki.apiclient.basicGET(pl, ttl)));
+		}
+		catch (Throwable e)
+		{
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Marks this WQuery as exhausted after a query failed on every attempt, so that loops over {@link #has()} end, and wraps the failure so it can be thrown.
+	 * 
+	 * @param e The failure of the last attempt
+	 * @return An UncheckedIOException wrapping {@code e}.
+	 */
+	private UncheckedIOException failed(Throwable e)
+	{
+		while (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+
+		canCont = false;
+		log.error("{}: Query failed, giving up: {}", wiki, e.toString());
+
+		return e instanceof UncheckedIOException ? (UncheckedIOException) e
+				: new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException("Query failed: " + e, e));
+	}
+
+	/**
+	 * Asynchronously performs the next query in this sequence. Do not call this again until the returned CompletableFuture has completed, since the continuation parameters for the following query are
+	 * only known once the reply has arrived.
+	 * 
+	 * @return A CompletableFuture which completes with the response from the server, or with null if there are no queries remaining. Completes exceptionally with an UncheckedIOException if the
+	 *         query failed on every attempt allowed by the Wiki's RetryPolicy. Cancelling it cancels the underlying request.
+	 */
+	public CompletableFuture<QReply> nextAsync()
+	{
+		if (!prepNext())
+			return CompletableFuture.completedFuture(null);
+
+		CompletableFuture<QReply> rf = wiki.conf.retryPolicy.runAsync(() -> {
+			CompletableFuture<Response> f = wiki.apiclient.basicGETAsync(pl, ttl);
+			CompletableFuture<QReply> q = f.thenApply(r -> {
+				try
+				{
+					return processReply(r);
+				}
+				catch (Throwable e)
+				{
+					throw new CompletionException(e);
+				}
+			});
+
+			q.whenComplete((x, e) -> {
+				if (q.isCancelled())
+					f.cancel(true);
+			});
+
+			return q;
+		});
+		CompletableFuture<QReply> cf = rf.exceptionally(e -> {
+			if (e instanceof CancellationException || e.getCause() instanceof CancellationException)
+				throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+
+			throw failed(e);
+		});
+
+		cf.whenComplete((x, e) -> {
+			if (cf.isCancelled())
+				rf.cancel(true);
+		});
+
+		return cf;
+	}
+
+	/**
+	 * Asynchronously runs all remaining queries in this sequence, one after another, passing each reply to {@code c} as it arrives. Stops early if a query fails.
+	 * 
+	 * @param c The action to perform on each QReply. This is run on an HTTP client thread, so it should not block.
+	 * @return A CompletableFuture which completes once this WQuery has been exhausted, or exceptionally if a query failed.
+	 */
+	public CompletableFuture<Void> drainAsync(Consumer<QReply> c)
+	{
+		return nextAsync().thenCompose(r -> {
+			if (r == null)
+				return CompletableFuture.completedFuture(null);
+
+			c.accept(r);
+			return has() ? drainAsync(c) : CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * Creates a lazy Stream over the items returned by this WQuery. No query is made until the first item is requested, and while the items of one reply are being consumed, the next reply is fetched
+	 * in the background. At most one reply is fetched ahead of the consumer. Closing the Stream discards any pending fetch. This WQuery should not be used directly once it backs a Stream.
+	 * 
+	 * @param <T> The type of item in the resulting Stream.
+	 * @param fetch Performs the next query of this WQuery and returns its items, e.g. {@code wq -> wq.nextList("usercontribs", Contrib.class)}. It may return null if there are no queries remaining.
+	 * @return A Stream of the items returned by this WQuery, in order. Consuming it throws UncheckedIOException if a query failed on every attempt allowed by the Wiki's RetryPolicy.
+	 */
+	public <T> Stream<T> stream(Function<WQuery, List<T>> fetch)
+	{
+		ReplyIterator<T> it = new ReplyIterator<>(this, fetch);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it, Spliterator.ORDERED), false).onClose(it::cancel);
+	}
+
+	/**
+	 * Performs the next query in this sequence, streaming the response instead of buffering it. Items of the {@code list} JsonArray {@code k} are deserialized directly into objects of
+	 * {@code type} as they are read from the network, so neither the raw response nor its JSON tree are held in memory.
+	 * 
+	 * @param <T> The type of object to deserialize each list item to.
+	 * @param k Points to the JsonArray of JsonObject, under {@code query}, of interest.
+	 * @param type The class to deserialize each list item to.
+	 * @return The items in this reply, or null if there are no queries remaining.
+	 * @throws UncheckedIOException If the query failed on every attempt allowed by the Wiki's RetryPolicy. This WQuery is then exhausted.
+	 */
+	public <T> ArrayList<T> nextList(String k, Class<T> type)
+	{
+		ArrayList<T> l = new ArrayList<>();
+		return nextStreamed((name, jr) -> {
+			if (name.equals(k))
+				readArray(jr, type, l);
+			else
+				jr.skipValue();
+		}, l::clear) ? l : null;
+	}
+
+	/**
+	 * Performs the next query in this sequence, streaming the response instead of buffering it. For each returned page, the items of the {@code prop} JsonArray {@code k} are deserialized directly
+	 * into objects of {@code type} as they are read from the network. Title normalization is automatically applied.
+	 * 
+	 * @param <T> The type of object to deserialize each prop item to.
+	 * @param k Points to the JsonArray of JsonObject, in each page, of interest.
+	 * @param type The class to deserialize each prop item to.
+	 * @return The items in this reply keyed by page title (a title maps to null if it had no {@code k}), or null if there are no queries remaining.
+	 * @throws UncheckedIOException If the query failed on every attempt allowed by the Wiki's RetryPolicy. This WQuery is then exhausted.
+	 */
+	public <T> HashMap<String, ArrayList<T>> nextProp(String k, Class<T> type)
+	{
+		HashMap<String, ArrayList<T>> m = new HashMap<>();
+		ArrayList<JsonObject> normalized = new ArrayList<>();
+
+		boolean ok = nextStreamed((name, jr) -> {
+			switch (name)
 			{
-				adjustLimit(queryLimit - (currCount - totalLimit));
-				canCont = false;
+				case "pages":
+					jr.beginObject();
+					while (jr.hasNext())
+					{
+						jr.nextName(); // page id, not needed
+						readPage(jr, k, type, m);
+					}
+					jr.endObject();
+					break;
+				case "normalized":
+					readArray(jr, JsonObject.class, normalized);
+					break;
+				default:
+					jr.skipValue();
 			}
+		}, () -> {
+			m.clear();
+			normalized.clear();
+		});
+
+		if (!ok)
+			return null;
 
-			JsonObject result = JsonParser.parseString(wiki.apiclient.basicGET(pl).body().string()).getAsJsonObject();
-			if (result.has("continue"))
-				pl.putAll(GSONP.gson.fromJson(result.getAsJsonObject("continue"), strMapT));
+		for (JsonObject jo : normalized)
+		{
+			String t = GSONP.getStr(jo, "to");
+			if (m.containsKey(t))
+				m.put(GSONP.getStr(jo, "from"), m.get(t));
+		}
+
+		return m;
+	}
+
+	/**
+	 * Performs the next query in this sequence and walks the response with a JsonReader. The {@code continue} JsonObject is applied to this WQuery, and each member of the {@code query} JsonObject
+	 * is passed to {@code h}.
+	 * 
+	 * @param h Reads (or skips) each member of the {@code query} JsonObject.
+	 * @param reset Discards anything {@code h} has read so far. This is run before each attempt, since a failed attempt may have been partially read.
+	 * @return True if the query was made, or false if there are no queries remaining.
+	 * @throws UncheckedIOException If the query failed on every attempt allowed by the Wiki's RetryPolicy.
+	 */
+	private boolean nextStreamed(QueryHandler h, Runnable reset)
+	{
+		if (!prepNext())
+			return false;
+
+		try
+		{
+			HashMap<String, String> cont = wiki.conf.retryPolicy.run(() -> {
+				reset.run();
+				return readStreamed(h);
+			});
+
+			if (cont != null)
+				pl.putAll(cont);
 			else
 				canCont = false;
 
-			log.debug("{}: {}", wiki, GSONP.gsonPP.toJson(result));
-
-			return new QReply(result);
+			return true;
 		}
 		catch (Throwable e)
 		{
-			e.printStackTrace();
-			return null;
+			throw failed(e);
+		}
+	}
+
+	/**
+	 * Sends the next query in this sequence and walks the response with a JsonReader, passing each member of the {@code query} JsonObject to {@code h}.
+	 * 
+	 * @param h Reads (or skips) each member of the {@code query} JsonObject.
+	 * @return The {@code continue} JsonObject of the response, or null if there was none.
+	 * @throws Throwable On network or parse error, or if the server reported a transient error.
+	 */
+	private HashMap<String, String> readStreamed(QueryHandler h) throws Throwable
+	{
+		try (Response r = wiki.apiclient.basicGET(pl, ttl))
+		{
+			if (!r.isSuccessful())
+				throw RetryPolicy.RequestException.ofStatus(r.code());
+
+			HashMap<String, String> cont = null;
+
+			JsonReader jr = new JsonReader(r.body().charStream());
+			jr.beginObject();
+			while (jr.hasNext())
+				switch (jr.nextName())
+				{
+					case "continue":
+						cont = GSONP.gson.fromJson(jr, strMapT);
+						break;
+					case "query":
+						jr.beginObject();
+						while (jr.hasNext())
+							h.read(jr.nextName(), jr);
+						jr.endObject();
+						break;
+					case "error":
+						checkError(GSONP.gson.fromJson(jr, JsonObject.class));
+						break;
+					default:
+						jr.skipValue();
+				}
+			jr.endObject();
+
+			return cont;
+		}
+	}
+
+	/**
+	 * Deserializes each element of the JsonArray at the current position of {@code jr} and adds it to {@code l}.
+	 * 
+	 * @param <T> The type of object to deserialize each element to.
+	 * @param jr The JsonReader to use. PRECONDITION: the next token is the start of a JsonArray.
+	 * @param type The class to deserialize each element to.
+	 * @param l The List to add deserialized elements to.
+	 * @throws IOException On read error.
+	 */
+	private static <T> void readArray(JsonReader jr, Class<T> type, ArrayList<T> l) throws IOException
+	{
+		jr.beginArray();
+		while (jr.hasNext())
+			l.add(GSONP.gson.fromJson(jr, type));
+		jr.endArray();
+	}
+
+	/**
+	 * Reads a single page JsonObject of a {@code prop} query, keeping only its title and the JsonArray {@code k}.
+	 * 
+	 * @param <T> The type of object to deserialize each prop item to.
+	 * @param jr The JsonReader to use. PRECONDITION: the next token is the start of a page JsonObject.
+	 * @param k Points to the JsonArray of JsonObject of interest.
+	 * @param type The class to deserialize each prop item to.
+	 * @param m The Map to put the result into.
+	 * @throws IOException On read error.
+	 */
+	private static <T> void readPage(JsonReader jr, String k, Class<T> type, HashMap<String, ArrayList<T>> m) throws IOException
+	{
+		String title = null;
+		ArrayList<T> l = null;
+
+		jr.beginObject();
+		while (jr.hasNext())
+		{
+			String name = jr.nextName();
+			if (name.equals("title"))
+				title = jr.nextString();
+			else if (name.equals(k))
+				readArray(jr, type, l = new ArrayList<>());
+			else
+				jr.skipValue();
 		}
+		jr.endObject();
+
+		m.put(title, l);
+	}
+
+	/**
+	 * Performs sanity checks and applies limits in preparation for the next query in this sequence.
+	 * 
+	 * @return True if the next query should be sent.
+	 */
+	private boolean prepNext()
+	{
+		// sanity check
+		if (pl.containsValue(null))
+			throw new IllegalStateException(String.format("Fill in *all* the null fields -> %s", pl));
+		else if (!canCont)
+			return false;
+
+		if (totalLimit > 0 && (currCount += queryLimit) > totalLimit)
+		{
+			adjustLimit(queryLimit - (currCount - totalLimit));
+			canCont = false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Parses a Response from the server and updates the continuation parameters of this WQuery accordingly.
+	 * 
+	 * @param r The Response to process
+	 * @return A QReply wrapping the body of {@code r}
+	 * @throws Throwable On network or parse error.
+	 */
+	private QReply processReply(Response r) throws Throwable
+	{
+		if (!r.isSuccessful())
+		{
+			r.close();
+			throw RetryPolicy.RequestException.ofStatus(r.code());
+		}
+
+		JsonObject result = JsonParser.parseString(r.body().string()).getAsJsonObject();
+		checkError(result.getAsJsonObject("error"));
+
+		if (result.has("continue"))
+			pl.putAll(GSONP.gson.fromJson(result.getAsJsonObject("continue"), strMapT));
+		else
+			canCont = false;
+
+		log.debug("{}: {}", wiki, GSONP.gsonPP.toJson(result));
+
+		return new QReply(result);
+	}
+
+	/**
+	 * Checks the {@code error} JsonObject of a reply from the server for transient API errors.
+	 * 
+	 * @param error The {@code error} JsonObject to check. Null means the reply had no error.
+	 * @throws RetryPolicy.RequestException If {@code error} is a transient API error.
+	 */
+	private static void checkError(JsonObject error) throws RetryPolicy.RequestException
+	{
+		String code = error == null ? null : GSONP.getStr(error, "code");
+		if (RetryPolicy.RequestException.isTransient(code))
+			throw RetryPolicy.RequestException.ofAPI(code);
 	}
 
 	/**
@@ -357,6 +754,135 @@ class WQuery
 		return this;
 	}
 
+	/**
+	 * Iterates over the items of each reply of a WQuery, fetching the next reply in the background while the current one is being consumed.
+	 * 
+	 * @author Fastily
+	 *
+	 * @param <T> The type of item returned by this Iterator.
+	 */
+	private static class ReplyIterator<T> implements Iterator<T>
+	{
+		/**
+		 * Runs background fetches. Threads are daemons, so that an abandoned Stream does not keep the JVM alive, and are discarded once idle.
+		 */
+		private static final ExecutorService prefetcher = Executors.newCachedThreadPool(r -> {
+			Thread t = new Thread(r, "jwiki-prefetch");
+			t.setDaemon(true);
+			return t;
+		});
+
+		/**
+		 * The WQuery backing this Iterator.
+		 */
+		private final WQuery wq;
+
+		/**
+		 * Performs the next query of {@link #wq} and returns its items.
+		 */
+		private final Function<WQuery, List<T>> fetch;
+
+		/**
+		 * The items of the reply currently being consumed.
+		 */
+		private Iterator<T> curr = Collections.emptyIterator();
+
+		/**
+		 * The reply being fetched in the background. Null if no fetch is in progress.
+		 */
+		private CompletableFuture<List<T>> pending;
+
+		/**
+		 * Constructor, creates a new ReplyIterator.
+		 * 
+		 * @param wq The WQuery to back this Iterator.
+		 * @param fetch Performs the next query of {@code wq} and returns its items.
+		 */
+		private ReplyIterator(WQuery wq, Function<WQuery, List<T>> fetch)
+		{
+			this.wq = wq;
+			this.fetch = fetch;
+		}
+
+		/**
+		 * Determines if there are more items. Blocks if the next reply has not arrived yet.
+		 * 
+		 * @throws UncheckedIOException If a query failed on every attempt allowed by the Wiki's RetryPolicy.
+		 */
+		public boolean hasNext()
+		{
+			while (!curr.hasNext())
+			{
+				if (pending == null)
+				{
+					if (!wq.has())
+						return false;
+
+					pending = CompletableFuture.supplyAsync(() -> fetch.apply(wq), prefetcher);
+				}
+
+				List<T> l;
+				try
+				{
+					l = pending.join();
+				}
+				catch (CompletionException e)
+				{
+					pending = null;
+					throw e.getCause() instanceof UncheckedIOException ? (UncheckedIOException) e.getCause() : wq.failed(e);
+				}
+
+				pending = wq.has() ? CompletableFuture.supplyAsync(() -> fetch.apply(wq), prefetcher) : null;
+				if (l != null)
+					curr = l.iterator();
+			}
+
+			return true;
+		}
+
+		/**
+		 * Gets the next item.
+		 */
+		public T next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			return curr.next();
+		}
+
+		/**
+		 * Discards the pending fetch, if there is one. A request already in flight is left to finish.
+		 */
+		private void cancel()
+		{
+			if (pending != null)
+				pending.cancel(true);
+
+			pending = null;
+			curr = Collections.emptyIterator();
+		}
+	}
+
+	/**
+	 * Reads a member of the {@code query} JsonObject in a streamed response.
+	 * 
+	 * @author Fastily
+	 *
+	 */
+	@FunctionalInterface
+	private static interface QueryHandler
+	{
+		/**
+		 * Reads or skips the value of a member of the {@code query} JsonObject.
+		 * 
+		 * @param name The name of the member
+		 * @param jr The JsonReader to use. The next token is the value of {@code name}, which must be fully consumed.
+		 * @throws IOException On read error.
+		 */
+		void read(String name, JsonReader jr) throws IOException;
+	}
+
 	/**
 	 * Stores parameter definition rules for a given query and can use these rules to generate a QueryUnit.
 	 * 
@@ -380,6 +906,11 @@ class WQuery
 		 */
 		protected final String id;
 
+		/**
+		 * How long responses to queries created from this QTemplate may be served from the Wiki's response cache. Null means they are never cached.
+		 */
+		private Duration ttl = null;
+
 		/**
 		 * Constructor, creates a new QueryUnitTemplate
 		 * 
@@ -407,6 +938,49 @@ class WQuery
 			if (limString != null)
 				defaultFields.put(limString, "max");
 		}
+
+		/**
+		 * Allows responses to queries created from this QTemplate to be served from the Wiki's response cache (see {@link Wiki.Builder#withResponseCache(java.nio.file.Path, long)}). Only use this
+		 * for queries whose results rarely change.
+		 * 
+		 * @param ttl How long a response may be served from the cache before it is fetched again.
+		 * @return This QTemplate
+		 */
+		protected QTemplate cacheFor(Duration ttl)
+		{
+			this.ttl = ttl;
+			return this;
+		}
+
+		/**
+		 * Derives a generator from this QTemplate. The module of this QTemplate is used as the {@code generator}, and its
+		 * parameters are renamed with the {@code g} prefix, as the API expects (e.g. {@code cmtitle} becomes
+		 * {@code gcmtitle}). Pass the result to a WQuery to fetch page properties of each generated title without listing
+		 * the titles first.
+		 * 
+		 * @param props The {@code prop} QTemplates to run on each generated title.
+		 * @return A new QTemplate which uses this QTemplate's module as a generator, followed by {@code props}.
+		 */
+		protected QTemplate[] asGenerator(QTemplate... props)
+		{
+			String module = defaultFields.containsKey("list") ? "list" : "prop";
+
+			HashMap<String, String> m = new HashMap<>();
+			defaultFields.forEach((k, v) -> {
+				if (k.equals(module))
+					m.put("generator", v);
+				else if (k.equals("titles"))
+					m.put(k, v);
+				else
+					m.put("g" + k, v);
+			});
+
+			QTemplate[] l = new QTemplate[props.length + 1];
+			l[0] = new QTemplate(m, limString != null ? "g" + limString : null, id);
+			System.arraycopy(props, 0, l, 1, props.length);
+
+			return l;
+		}
 	}
 
 	/**
@@ -427,13 +1001,18 @@ class WQuery
 		 */
 		private HashMap<String, String> normalized = null;
 
+		/**
+		 * Tracks {@code redirects} which were followed. The key is the {@code from} (redirect) title and the value is the {@code to} (target) title.
+		 */
+		private HashMap<String, String> redirects = null;
+
 		/**
 		 * The JsonObject which was passed as input
 		 */
 		protected final JsonObject input;
 
 		/**
-		 * Creates a new QReply. Will parse the {@code normalized} JsonArray if it is found in {@code input}.
+		 * Creates a new QReply. Will parse the {@code normalized} and {@code redirects} JsonArrays if they are found in {@code input}.
 		 * 
 		 * @param input The Response received from the server.
 		 */
@@ -443,6 +1022,9 @@ class WQuery
 
 			if (GSONP.nestedHas(input, FL.toSAL("query", "normalized")))
 				normalized = GSONP.pairOff(GSONP.getJAofJO(GSONP.getNestedJA(input, FL.toSAL("query", "normalized"))), "from", "to");
+
+			if (GSONP.nestedHas(input, FL.toSAL("query", "redirects")))
+				redirects = GSONP.pairOff(GSONP.getJAofJO(GSONP.getNestedJA(input, FL.toSAL("query", "redirects"))), "from", "to");
 		}
 
 		/**
@@ -477,6 +1059,76 @@ class WQuery
 			return normalize(m);
 		}
 
+		/**
+		 * Performs {@code prop} query Response comprehension. Collects each returned page JsonObject in a HashMap keyed by title. Title normalization is automatically applied.
+		 * 
+		 * @return A HashMap of each page JsonObject, keyed by title.
+		 */
+		protected HashMap<String, JsonObject> pageComp()
+		{
+			HashMap<String, JsonObject> m = new HashMap<>();
+
+			JsonObject x = GSONP.getNestedJO(input, defaultPropPTJ);
+			if (x == null)
+				return m;
+
+			for (JsonObject jo : GSONP.getJOofJO(x))
+				m.put(GSONP.getStr(jo, "title"), jo);
+
+			return normalize(m);
+		}
+
+		/**
+		 * Performs {@code prop} query Response comprehension, keying each returned page JsonObject by the title(s) it was queried as. A page which MediaWiki returned under a normalized title, or
+		 * under the target of a followed redirect, is keyed by the queried title only, and not also by the title MediaWiki returned, unless that title was queried too.
+		 * 
+		 * @param queried The titles which were queried.
+		 * @return A HashMap of each page JsonObject, keyed by queried title.
+		 */
+		protected HashMap<String, JsonObject> pageComp(Set<String> queried)
+		{
+			HashMap<String, HashSet<String>> sources = new HashMap<>();
+			for (HashMap<String, String> hm : Arrays.asList(normalized, redirects))
+				if (hm != null)
+					for (String f : hm.keySet())
+						if (queried.contains(f))
+							sources.computeIfAbsent(resolve(f), k -> new HashSet<>()).add(f);
+
+			HashMap<String, JsonObject> m = new HashMap<>();
+
+			JsonObject x = GSONP.getNestedJO(input, defaultPropPTJ);
+			if (x == null)
+				return m;
+
+			for (JsonObject jo : GSONP.getJOofJO(x))
+			{
+				String k = GSONP.getStr(jo, "title");
+				HashSet<String> l = sources.getOrDefault(k, new HashSet<>());
+				if (l.isEmpty() || queried.contains(k))
+					m.put(k, jo);
+
+				l.forEach(t -> m.put(t, jo));
+			}
+
+			return m;
+		}
+
+		/**
+		 * Follows {@code title} through the {@code normalized} and {@code redirects} of this QReply.
+		 * 
+		 * @param title The title to resolve.
+		 * @return The title MediaWiki returned the page for {@code title} under.
+		 */
+		private String resolve(String title)
+		{
+			if (normalized != null)
+				title = normalized.getOrDefault(title, title);
+			if (redirects != null)
+				title = redirects.getOrDefault(title, title);
+
+			return title;
+		}
+
 		/**
 		 * Performs simple {@code meta} query Response comprehension.
 		 * 
@@ -3,6 +3,7 @@ package io.github.fastily.jwiki.core;
 import java.net.CookieManager;
 import java.net.Proxy;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -10,17 +11,22 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import io.github.fastily.jwiki.dwrap.Contrib;
 import io.github.fastily.jwiki.dwrap.ImageInfo;
 import io.github.fastily.jwiki.dwrap.LogEntry;
+import io.github.fastily.jwiki.dwrap.PageInfo;
 import io.github.fastily.jwiki.dwrap.PageSection;
 import io.github.fastily.jwiki.dwrap.ProtectedTitleEntry;
 import io.github.fastily.jwiki.dwrap.RCEntry;
@@ -76,6 +82,11 @@ public class Wiki
 		 */
 		private CookieManager cookieManager;
 
+		/**
+		 * The Session to restore.
+		 */
+		private Session session;
+
 		/**
 		 * Creates a new Wiki Builder.
 		 */
@@ -159,6 +170,200 @@ public class Wiki
 			return this;
 		}
 
+		/**
+		 * Configures the Wiki to query up to {@code parallelism} title groups at the same time in blocking {@link MQuery} methods. Requests are still subject to the cap set by
+		 * {@link #withMaxRequestsPerHost(int)}. The default is {@code 1}, which queries groups one after another.
+		 * 
+		 * @param parallelism The number of title groups to query at the same time. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withParallelism(int parallelism)
+		{
+			if (parallelism < 1)
+				throw new IllegalArgumentException("parallelism must be a positive number");
+
+			wiki.conf.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * Configures the maximum number of concurrent asynchronous requests the Wiki may send to its host. This caps parallel {@link MQuery} methods and all {@code *Async} methods, so that the server
+		 * is not overwhelmed. The limit is shared by all Wikis pointing at the same host; if they are configured with different limits, the lowest applies. The default is {@code 5}.
+		 * 
+		 * @param maxRequestsPerHost The maximum number of concurrent requests. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withMaxRequestsPerHost(int maxRequestsPerHost)
+		{
+			if (maxRequestsPerHost < 1)
+				throw new IllegalArgumentException("maxRequestsPerHost must be a positive number");
+
+			wiki.conf.maxRequestsPerHost = maxRequestsPerHost;
+			return this;
+		}
+
+		/**
+		 * Configures the {@code maxlag} value sent with each request. While the server's database replication lag exceeds this, it refuses requests and the Wiki slows down and retries them
+		 * according to its {@link RetryPolicy}. The default is {@code 5}.
+		 * 
+		 * @param maxlag The {@code maxlag} value, in seconds. Set 0 to disable.
+		 * @return This Builder
+		 */
+		public Builder withMaxlag(int maxlag)
+		{
+			wiki.conf.maxlag = maxlag;
+			return this;
+		}
+
+		/**
+		 * Configures the maximum rate at which the Wiki may send requests. The actual rate adapts to how much the server can take: it drops whenever the server asks the Wiki to slow down, and
+		 * gradually recovers afterwards, but never exceeds this. The default is {@code 20}.
+		 * 
+		 * @param maxRate The maximum rate, in requests per second. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withRateLimit(double maxRate)
+		{
+			if (!(maxRate > 0))
+				throw new IllegalArgumentException("maxRate must be a positive number");
+
+			wiki.conf.maxRate = maxRate;
+			return this;
+		}
+
+		/**
+		 * Configures how the Wiki retries failed requests. The default is a {@code new RetryPolicy()}; see {@link RetryPolicy} for details.
+		 * 
+		 * @param retryPolicy The RetryPolicy to use.
+		 * @return This Builder
+		 */
+		public Builder withRetryPolicy(RetryPolicy retryPolicy)
+		{
+			wiki.conf.retryPolicy = retryPolicy;
+			return this;
+		}
+
+		/**
+		 * Configures the maximum number of concurrent asynchronous requests the Wiki may send. The limit is shared by all Wikis pointing at the same host; if they are configured with different
+		 * limits, the lowest applies. The default is {@code 64}.
+		 * 
+		 * @param maxRequests The maximum number of concurrent requests. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withMaxRequests(int maxRequests)
+		{
+			if (maxRequests < 1)
+				throw new IllegalArgumentException("maxRequests must be a positive number");
+
+			wiki.conf.maxRequests = maxRequests;
+			return this;
+		}
+
+		/**
+		 * Configures the connection pool of the Wiki. Wikis which have the same connection pool settings share a single connection pool, so that Wikis pointing at the same host can reuse each
+		 * other's connections. The default is to keep up to {@code 5} idle connections open for up to {@code 5} minutes.
+		 * 
+		 * @param maxIdleConnections The maximum number of idle connections to keep open. PRECONDITION: this must not be negative.
+		 * @param keepAlive How long to keep an idle connection open for. PRECONDITION: this must be a positive Duration.
+		 * @return This Builder
+		 */
+		public Builder withConnectionPool(int maxIdleConnections, Duration keepAlive)
+		{
+			if (maxIdleConnections < 0)
+				throw new IllegalArgumentException("maxIdleConnections must not be negative");
+			else if (keepAlive.isNegative() || keepAlive.isZero())
+				throw new IllegalArgumentException("keepAlive must be a positive Duration");
+
+			wiki.conf.maxIdleConnections = maxIdleConnections;
+			wiki.conf.keepAlive = keepAlive;
+			return this;
+		}
+
+		/**
+		 * Configures whether the Wiki negotiates HTTP/2 with servers which support it. HTTP/2 multiplexes concurrent requests over a single connection. The default is {@code true}.
+		 * 
+		 * @param http2 Set false to only use HTTP/1.1.
+		 * @return This Builder
+		 */
+		public Builder withHttp2(boolean http2)
+		{
+			wiki.conf.http2 = http2;
+			return this;
+		}
+
+		/**
+		 * Configures the size of each chunk of a chunked upload. Larger chunks mean fewer requests, but each failed chunk costs more to resend. The default is {@code 4} MiB.
+		 * 
+		 * @param uploadChunkSize The size of each chunk, in bytes. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withUploadChunkSize(int uploadChunkSize)
+		{
+			if (uploadChunkSize < 1)
+				throw new IllegalArgumentException("uploadChunkSize must be a positive number");
+
+			wiki.conf.uploadChunkSize = uploadChunkSize;
+			return this;
+		}
+
+		/**
+		 * Configures the maximum number of files which {@link Wiki#uploadAsync(Path, String, String, String)} may upload at the same time. The default is {@code 2}.
+		 * 
+		 * @param maxUploads The maximum number of concurrent uploads. PRECONDITION: this must be a positive number.
+		 * @return This Builder
+		 */
+		public Builder withMaxUploads(int maxUploads)
+		{
+			if (maxUploads < 1)
+				throw new IllegalArgumentException("maxUploads must be a positive number");
+
+			wiki.conf.maxUploads = maxUploads;
+			return this;
+		}
+
+		/**
+		 * Configures the Wiki to cache the text of pages by revision, so that {@link Wiki#getPageText(String)} and {@link MQuery#getPageText(Wiki, Collection)} only download the text of pages which
+		 * changed since they were last fetched. The default is to not cache page text.
+		 * 
+		 * @param contentCache The ContentCache to use, e.g. {@code new ContentCache.LRU(1000, new ContentCache.Disk(dir))}. Set null to disable.
+		 * @return This Builder
+		 */
+		public Builder withContentCache(ContentCache contentCache)
+		{
+			wiki.conf.contentCache = contentCache;
+			return this;
+		}
+
+		/**
+		 * Configures the Wiki to cache the responses to queries which rarely change, such as namespaces, allowed file extensions, user rights and category sizes, in a directory on disk. Each kind of
+		 * query is cached for a fixed amount of time, after which it is fetched again. The least recently used responses are evicted once the cache exceeds {@code maxSize}. The default is to not cache
+		 * responses.
+		 * 
+		 * @param dir The directory to store cached responses in. Wiki objects in the same JVM which use the same directory share a cache, but concurrently running JVMs must not use the same directory.
+		 * @param maxSize The maximum size of the cache, in bytes. If the cache in {@code dir} is already open, its size is not changed.
+		 * @return This Builder
+		 */
+		public Builder withResponseCache(Path dir, long maxSize)
+		{
+			wiki.conf.responseCacheDir = dir;
+			wiki.conf.responseCacheSize = maxSize;
+			return this;
+		}
+
+		/**
+		 * Configures the Wiki to restore a Session saved from an earlier Wiki (see {@link Wiki#exportSession()}), instead of fetching its state from the server. If login credentials are also
+		 * configured, the Session is checked with a single query, and the Wiki logs in as usual if the Session has expired or belongs to a different user. Otherwise the Session is trusted as is. A
+		 * Session taken from a different host is ignored.
+		 * 
+		 * @param session The Session to restore. Set null to disable.
+		 * @return This Builder
+		 */
+		public Builder withSession(Session session)
+		{
+			this.session = session;
+			return this;
+		}
+
 		/**
 		 * Performs the task of creating the Wiki object as configured. If {@link #withApiEndpoint(HttpUrl)} or {@link #withDomain(String)} were not called, then the resulting Wiki will default to the
 		 * <a href="https://en.wikipedia.org/w/api.php">Wikipedia API</a>.
@@ -169,10 +374,14 @@ public class Wiki
 		{
 			wiki.apiclient = new ApiClient(wiki, proxy, cookieManager);
 
+			if (session != null)
+				wiki.restoreSession(session, password != null ? username : null);
+
 			if (username != null && password != null && !wiki.login(username, password))
 				throw new SecurityException(String.format("Failed to log-in as %s @ %s", username, wiki.conf.hostname));
 
-			wiki.refreshNS();
+			if (wiki.nsl == null)
+				wiki.refreshNS();
 
 			return wiki;
 		}
@@ -188,16 +397,31 @@ public class Wiki
 	 */
 	protected NS.NSManager nsl;
 
+	/**
+	 * Interns the Title objects of this Wiki.
+	 */
+	private final Title.Pool titles = new Title.Pool();
+
 	/**
 	 * Default configuration and settings for this Wiki.
 	 */
 	protected Conf conf = new Conf();
 
+	/**
+	 * Caches the tokens of this Wiki.
+	 */
+	protected final TokenManager tokens = new TokenManager(this);
+
 	/**
 	 * Used to make calls to and from the API.
 	 */
 	protected ApiClient apiclient;
 
+	/**
+	 * Runs asynchronous uploads. Created on first use.
+	 */
+	private ExecutorService uploadPool;
+
 	/**
 	 * Constructor, creates a new Wiki
 	 */
@@ -225,13 +449,15 @@ public class Wiki
 		log.info("{}: Try login for {}", this, user);
 		try
 		{
-			if (WAction.postAction(this, "login", false, FL.pMap("lgname", user, "lgpassword", password, "lgtoken", getTokens(WQuery.TOKENS_LOGIN, "logintoken"))) == WAction.ActionResult.SUCCESS)
+			if (WAction.postAction(this, "login", false, FL.pMap("lgname", user, "lgpassword", password, "lgtoken", tokens.get("login"))) == WAction.ActionResult.SUCCESS)
 			{
 				refreshLoginStatus();
 
 				log.info("{}: Logged in as {}", this, user);
 				return true;
 			}
+
+			tokens.invalidate("login");
 		}
 		catch (Throwable e)
 		{
@@ -246,31 +472,90 @@ public class Wiki
 	 */
 	public void refreshLoginStatus()
 	{
-		conf.uname = GSONP.getStr(new WQuery(this, WQuery.USERINFO).next().metaComp("userinfo").getAsJsonObject(), "name");
-		conf.token = getTokens(WQuery.TOKENS_CSRF, "csrftoken");
+		JsonObject ui = new WQuery(this, WQuery.USERINFO).next().metaComp("userinfo").getAsJsonObject();
+		conf.uname = GSONP.getStr(ui, "name");
+		tokens.clear(); // tokens are tied to the session
+		tokens.get("csrf");
 		wl.put(conf.hostname, this);
 
 		conf.isBot = listUserRights(conf.uname).contains("bot");
+
+		boolean highLimits = ui.has("rights") && GSONP.jaOfStrToAL(ui.getAsJsonArray("rights")).contains("apihighlimits");
+		conf.maxResultLimit = highLimits ? 5000 : 500;
+		conf.groupQueryMax = highLimits ? 500 : 50;
 	}
 
 	/**
-	 * Fetch tokens
+	 * Takes a snapshot of the cookies, tokens, login status, user rights and namespaces of this Wiki. Restore it in a later Wiki with {@link Builder#withSession(Session)} to skip logging in and
+	 * fetching this state again.
 	 * 
-	 * @param wqt The {@code tokens} QTemplate to use
-	 * @param tk The key pointing to the String with the specified token.
-	 * @return The token, or null on error.
+	 * @return A Session with the current state of this Wiki.
 	 */
-	private String getTokens(WQuery.QTemplate wqt, String tk)
+	public Session exportSession()
 	{
+		return new Session(this);
+	}
+
+	/**
+	 * Restores a Session into this Wiki, which was just created.
+	 * 
+	 * @param session The Session to restore
+	 * @param username The username the Wiki is configured to login as. If set, the Session is discarded unless it is still logged in as this user. Optional, set null to trust the Session as is.
+	 */
+	private void restoreSession(Session session, String username)
+	{
+		if (!session.restore(this))
+		{
+			log.warn("{}: Ignoring Session from {}", this, session.getHostname());
+			return;
+		}
+		else if (conf.uname == null)
+			return;
+
 		try
 		{
-			return GSONP.getStr(new WQuery(this, wqt).next().metaComp("tokens").getAsJsonObject(), tk);
+			if (username != null && !conf.uname.equals(accountName(username)))
+				log.warn("{}: Session belongs to {}, not {}", this, conf.uname, username);
+			else if (username == null || conf.uname.equals(GSONP.getStr(new WQuery(this, WQuery.USERINFO).next().metaComp("userinfo").getAsJsonObject(), "name")))
+			{
+				wl.put(conf.hostname, this);
+				log.info("{}: Restored Session", this);
+				return;
+			}
 		}
 		catch (Throwable e)
 		{
 			e.printStackTrace();
-			return null;
 		}
+
+		log.info("{}: Discarding Session, logging in again", this);
+		conf.uname = null;
+		apiclient.cookieManager.getCookieStore().removeAll();
+		tokens.clear(); // login fetches new tokens
+	}
+
+	/**
+	 * Derives the name of the account a login name belongs to, as the server reports it. Bot password names ({@code User@bot}) belong to {@code User}.
+	 * 
+	 * @param username The login name
+	 * @return The name of the account {@code username} logs into.
+	 */
+	private static String accountName(String username)
+	{
+		int i = username.indexOf('@');
+		String s = (i > 0 ? username.substring(0, i) : username).replace('_', ' ').trim();
+		return s.isEmpty() ? s : s.substring(0, 1).toUpperCase() + s.substring(1);
+	}
+
+	/**
+	 * Gets a token of this Wiki. Tokens are cached, so this only queries the server the first time a type of token is requested. Use this to implement custom or non-standard API actions.
+	 * 
+	 * @param type The type of token to get. Example: {@code csrf}, {@code rollback}, {@code patrol}
+	 * @return The token, or null on error.
+	 */
+	public String getToken(String type)
+	{
+		return tokens.get(type);
 	}
 
 	/* //////////////////////////////////////////////////////////////////////////////// */
@@ -324,6 +609,36 @@ public class Wiki
 		}
 	}
 
+	/**
+	 * Performs a basic asynchronous GET action on this Wiki. Use this to implement custom or non-standard API calls without tying up a thread for each request in flight.
+	 * 
+	 * @param action The action to perform.
+	 * @param params Each parameter and its corresponding value. For example, the parameters, {@code &amp;foo=bar&amp;baz=blah}, should be passed in as {{@code "foo", "bar", "baz", "blah"}}.
+	 *           URL-encoding will be applied automatically.
+	 * @return A CompletableFuture which completes with the Response from the server, or exceptionally on error.
+	 */
+	public CompletableFuture<Response> basicGETAsync(String action, String... params)
+	{
+		HashMap<String, String> pl = FL.pMap(params);
+		pl.put("action", action);
+		pl.put("format", "json");
+
+		return apiclient.basicGETAsync(pl);
+	}
+
+	/**
+	 * Performs a basic asynchronous POST action on this Wiki. Use this to implement custom or non-standard API calls without tying up a thread for each request in flight.
+	 * 
+	 * @param action The action to perform.
+	 * @param form The form data to post. This will be automatically URL-encoded.
+	 * @return A CompletableFuture which completes with the Response from the server, or exceptionally on error.
+	 */
+	public CompletableFuture<Response> basicPOSTAsync(String action, HashMap<String, String> form)
+	{
+		form.put("format", "json");
+		return apiclient.basicPOSTAsync(FL.pMap("action", action), form);
+	}
+
 	/**
 	 * Refresh the Namespace list.
 	 */
@@ -342,7 +657,7 @@ public class Wiki
 	 */
 	public String convertIfNotInNS(String title, NS ns)
 	{
-		return whichNS(title).equals(ns) ? title : String.format("%s:%s", nsl.nsM.get(ns.v), nss(title));
+		return whichNS(title).equals(ns) ? title : String.format("%s:%s", nsl.nameOf(ns.v), nss(title));
 	}
 
 	/**
@@ -370,7 +685,30 @@ public class Wiki
 		if (prefix.isEmpty() || prefix.equalsIgnoreCase("main"))
 			return NS.MAIN;
 
-		return nsl.nsM.containsKey(prefix) ? new NS((int) nsl.nsM.get(prefix)) : null;
+		return nsl.byName(prefix);
+	}
+
+	/**
+	 * Gets the normalized, interned Title for a title. Calling this again with any spelling of the same title (e.g. {@code user_talk:foo}, {@code User talk:Foo}) returns the same object for as long
+	 * as it is referenced.
+	 * 
+	 * @param title The title to get a Title for.
+	 * @return The Title
+	 */
+	public Title getTitle(String title)
+	{
+		return titles.intern(nsl, title);
+	}
+
+	/**
+	 * Gets the normalized, interned Titles for some titles.
+	 * 
+	 * @param l The titles to get Titles for.
+	 * @return A List with a Title for each title in {@code l}, in the same order.
+	 */
+	public ArrayList<Title> getTitles(Collection<String> l)
+	{
+		return FL.toAL(l.stream().map(this::getTitle));
 	}
 
 	/**
@@ -381,7 +719,7 @@ public class Wiki
 	 */
 	public String nss(String title)
 	{
-		return title.replaceAll(nsl.nssRegex, "");
+		return nsl.nss(title);
 	}
 
 	/**
@@ -404,7 +742,19 @@ public class Wiki
 	public String talkPageOf(String title)
 	{
 		int i = whichNS(title).v;
-		return i < 0 || i % 2 == 1 ? null : (String) nsl.nsM.get(i + 1) + ":" + nss(title);
+		return i < 0 || i % 2 == 1 ? null : nsl.nameOf(i + 1) + ":" + nss(title);
+	}
+
+	/**
+	 * Get the talk page of {@code title}.
+	 * 
+	 * @param title The title to get a talk page for.
+	 * @return The talk page of {@code title}, or null if {@code title} is a special page or is already a talk page.
+	 */
+	public Title talkPageOf(Title title)
+	{
+		int i = title.getNS().v;
+		return i < 0 || i % 2 == 1 ? null : getTitle(nsl.nameOf(i + 1) + ":" + title.getName());
 	}
 
 	/**
@@ -422,7 +772,7 @@ public class Wiki
 		else if (ns.equals(NS.TALK))
 			return nss(title);
 
-		return (String) nsl.nsM.get(ns.v - 1) + ":" + nss(title);
+		return nsl.nameOf(ns.v - 1) + ":" + nss(title);
 	}
 
 	/**
@@ -433,8 +783,7 @@ public class Wiki
 	 */
 	public NS whichNS(String title)
 	{
-		Matcher m = nsl.p.matcher(title);
-		return !m.find() ? NS.MAIN : new NS((int) nsl.nsM.get(title.substring(m.start(), m.end() - 1)));
+		return nsl.whichNS(title);
 	}
 
 	/**
@@ -447,6 +796,16 @@ public class Wiki
 		return conf.uname == null ? "<Anonymous>" : conf.uname;
 	}
 
+	/**
+	 * Gets the byte counts of responses this Wiki has received. Use this to check how much bandwidth response compression saves.
+	 * 
+	 * @return The TrafficStats of this Wiki.
+	 */
+	public TrafficStats getTrafficStats()
+	{
+		return apiclient.traffic;
+	}
+
 	/**
 	 * Gets a String representation of this Wiki, in the format {@code [username @ domain]}
 	 */
@@ -523,7 +882,20 @@ public class Wiki
 	 */
 	public void purge(String... titles)
 	{
-		WAction.purge(this, FL.toSAL(titles));
+		WAction.purge(this, FL.toSAL(titles), false, false);
+	}
+
+	/**
+	 * Purges page caches. Any number of titles may be passed; they are split into groups which the server will accept, and several groups are purged at the same time.
+	 * 
+	 * @param titles The titles to purge.
+	 * @param forceLinkUpdate Set true to also update the links tables of each page.
+	 * @param forceRecursiveLinkUpdate Set true to also update the links tables of each page, and of every page which transcludes it. Useful after editing a template.
+	 * @return The outcome for each title in {@code titles}.
+	 */
+	public HashMap<String, PurgeStatus> purge(Collection<String> titles, boolean forceLinkUpdate, boolean forceRecursiveLinkUpdate)
+	{
+		return WAction.purge(this, titles, forceLinkUpdate, forceRecursiveLinkUpdate);
 	}
 
 	/**
@@ -556,6 +928,19 @@ public class Wiki
 		return rx.equals(s) || edit(title, rx, reason);
 	}
 
+	/**
+	 * Edits many pages, each according to its own transform. Page text is prefetched in groups, transforms are run concurrently, and edits are submitted as fast as the server will accept them. See
+	 * {@link BulkEdit} for more options.
+	 * 
+	 * @param jobs Pairs of titles to edit and the transform to apply to each. A transform is passed the current text of its page and returns the new text, or null to leave the page alone.
+	 * @param reason The edit summary.
+	 * @return A Stream with the outcome of each page, as each page is processed.
+	 */
+	public Stream<BulkEdit.Result> bulkEdit(Stream<Tuple<String, Function<String, String>>> jobs, String reason)
+	{
+		return new BulkEdit(this, reason).run(jobs);
+	}
+
 	/**
 	 * Undelete a page. You must have admin rights on the wiki you are trying to perform this task on, otherwise it won't go through.
 	 * 
@@ -582,6 +967,51 @@ public class Wiki
 		return WAction.upload(this, title, text, reason, p);
 	}
 
+	/**
+	 * Asynchronously uploads a media file. Up to {@code maxUploads} files are uploaded at the same time (see {@link Builder#withMaxUploads(int)}); further uploads wait for a slot. Do not upload the
+	 * same file more than once at the same time.
+	 * 
+	 * @param p The path to the file to upload.
+	 * @param title The title to upload to. Must include "File:" prefix.
+	 * @param text The text to put on the file description page
+	 * @param reason The edit summary
+	 * @return A CompletableFuture which completes with true if the upload was successful.
+	 */
+	public CompletableFuture<Boolean> uploadAsync(Path p, String title, String text, String reason)
+	{
+		return CompletableFuture.supplyAsync(() -> upload(p, title, text, reason), uploadPool());
+	}
+
+	/**
+	 * Uploads a batch of media files, skipping those which this Wiki already has (by SHA-1 hash). See {@link DedupeUpload} for more options.
+	 * 
+	 * @param files The files to upload, and the title to upload each one to. Titles must include "File:" prefix.
+	 * @param text The text to put on each file description page
+	 * @param reason The edit summary
+	 * @return The outcome for each file in {@code files}.
+	 */
+	public HashMap<Path, DedupeUpload.Result> uploadIfNew(Map<Path, String> files, String text, String reason)
+	{
+		return new DedupeUpload(this, text, reason).run(files);
+	}
+
+	/**
+	 * Gets the thread pool which runs asynchronous uploads, creating it if necessary.
+	 * 
+	 * @return The thread pool which runs asynchronous uploads.
+	 */
+	private synchronized ExecutorService uploadPool()
+	{
+		if (uploadPool == null)
+			uploadPool = Executors.newFixedThreadPool(conf.maxUploads, r -> {
+				Thread t = new Thread(r, "jwiki-upload");
+				t.setDaemon(true);
+				return t;
+			});
+
+		return uploadPool;
+	}
+
 	/**
 	 * Upload a file by URL. The URL must be on the upload by url whitelist for the target Wiki or this method will automatically fail.
 	 * 
@@ -614,15 +1044,7 @@ public class Wiki
 	{
 		log.info("{}: Doing all pages fetch for {}", this, prefix == null ? "all pages" : prefix);
 
-		WQuery wq = new WQuery(this, cap, WQuery.ALLPAGES);
-		if (prefix != null)
-			wq.set("apprefix", prefix);
-		if (ns != null)
-			wq.set("apnamespace", "" + ns.v);
-		if (redirectsOnly)
-			wq.set("apfilterredir", "redirects");
-		if (protectedOnly)
-			wq.set("apprtype", "edit|move|upload");
+		WQuery wq = allPagesQuery(prefix, redirectsOnly, protectedOnly, cap, ns);
 
 		ArrayList<String> l = new ArrayList<>();
 		while (wq.has())
@@ -631,6 +1053,91 @@ public class Wiki
 		return l;
 	}
 
+	/**
+	 * Lazily lists pages on the Wiki. Results are fetched from the server as the returned Stream is consumed, so this is suitable for very large namespaces.
+	 * 
+	 * @param prefix Only return titles starting with this prefix. DO NOT include a namespace prefix (e.g. {@code File:}). Optional param - set null to disable
+	 * @param redirectsOnly Set true to get redirects only.
+	 * @param protectedOnly Set true to get protected pages only.
+	 * @param cap The max number of titles to return. Optional param - set {@code -1} to get all pages.
+	 * @param ns The namespace to filter by. Optional param - set null to disable
+	 * @return A Stream of titles on this Wiki, as specified.
+	 */
+	public Stream<String> allPagesStream(String prefix, boolean redirectsOnly, boolean protectedOnly, int cap, NS ns)
+	{
+		log.info("{}: Streaming all pages for {}", this, prefix == null ? "all pages" : prefix);
+		return allPagesQuery(prefix, redirectsOnly, protectedOnly, cap, ns).stream(wq -> titles(wq.nextList("allpages", JsonObject.class)));
+	}
+
+	/**
+	 * Extracts the {@code title} of each JsonObject in a list reply.
+	 * 
+	 * @param l The items of a list reply. Null if there were no queries remaining.
+	 * @return The titles in {@code l}, or null if {@code l} is null.
+	 */
+	private static ArrayList<String> titles(ArrayList<JsonObject> l)
+	{
+		return l == null ? null : FL.toAL(l.stream().map(jo -> GSONP.getStr(jo, "title")));
+	}
+
+	/**
+	 * Lists pages on the Wiki along with basic information about each of them. Titles and information are fetched
+	 * together with a generator, so no separate pass over the listed titles is needed.
+	 * 
+	 * @param prefix Only return titles starting with this prefix. DO NOT include a namespace prefix (e.g. {@code File:}). Optional param - set null to disable
+	 * @param redirectsOnly Set true to get redirects only.
+	 * @param protectedOnly Set true to get protected pages only.
+	 * @param cap The max number of titles to return. Optional param - set {@code -1} to get all pages.
+	 * @param ns The namespace to filter by. Optional param - set null to disable
+	 * @return The information of each page, as specified, in no particular order.
+	 */
+	public ArrayList<PageInfo> allPagesWithInfo(String prefix, boolean redirectsOnly, boolean protectedOnly, int cap, NS ns)
+	{
+		log.info("{}: Doing all pages fetch with info for {}", this, prefix == null ? "all pages" : prefix);
+
+		WQuery wq = allPagesQuery(prefix, redirectsOnly, protectedOnly, cap, ns, WQuery.PAGEINFO);
+
+		ArrayList<PageInfo> l = new ArrayList<>();
+		while (wq.has())
+		{
+			WQuery.QReply r = wq.next();
+			if (r == null)
+				break;
+
+			r.pageComp().values().forEach(jo -> l.add(GSONP.gson.fromJson(jo, PageInfo.class)));
+		}
+
+		return l;
+	}
+
+	/**
+	 * Creates a WQuery which lists pages on the Wiki.
+	 * 
+	 * @param prefix Only return titles starting with this prefix. Optional param - set null to disable
+	 * @param redirectsOnly Set true to get redirects only.
+	 * @param protectedOnly Set true to get protected pages only.
+	 * @param cap The max number of titles to return. Optional param - set {@code -1} to get all pages.
+	 * @param ns The namespace to filter by. Optional param - set null to disable
+	 * @param props The {@code prop} modules to run on each listed page. Optional param - if specified, the list is used as a generator for these.
+	 * @return The WQuery
+	 */
+	private WQuery allPagesQuery(String prefix, boolean redirectsOnly, boolean protectedOnly, int cap, NS ns, WQuery.QTemplate... props)
+	{
+		String g = props.length > 0 ? "g" : "";
+
+		WQuery wq = props.length > 0 ? new WQuery(this, cap, WQuery.ALLPAGES.asGenerator(props)) : new WQuery(this, cap, WQuery.ALLPAGES);
+		if (prefix != null)
+			wq.set(g + "apprefix", prefix);
+		if (ns != null)
+			wq.set(g + "apnamespace", "" + ns.v);
+		if (redirectsOnly)
+			wq.set(g + "apfilterredir", "redirects");
+		if (protectedOnly)
+			wq.set(g + "apprtype", "edit|move|upload");
+
+		return wq;
+	}
+
 	/**
 	 * Checks if a title exists.
 	 * 
@@ -643,6 +1150,17 @@ public class Wiki
 		return MQuery.exists(this, FL.toSAL(title)).get(title);
 	}
 
+	/**
+	 * Checks if a title exists.
+	 * 
+	 * @param title The title to query.
+	 * @return True if the title exists.
+	 */
+	public boolean exists(Title title)
+	{
+		return exists(title.toString());
+	}
+
 	/**
 	 * Gets a list of pages linking to a file.
 	 * 
@@ -689,9 +1207,7 @@ public class Wiki
 	{
 		log.info("{}: Getting category members from {}", this, title);
 
-		WQuery wq = new WQuery(this, WQuery.CATEGORYMEMBERS).set("cmtitle", convertIfNotInNS(title, NS.CATEGORY));
-		if (ns.length > 0)
-			wq.set("cmnamespace", nsl.createFilter(ns));
+		WQuery wq = categoryMembersQuery(title, ns);
 
 		ArrayList<String> l = new ArrayList<>();
 		while (wq.has())
@@ -700,6 +1216,72 @@ public class Wiki
 		return l;
 	}
 
+	/**
+	 * Lazily lists the titles in a category. Results are fetched from the server as the returned Stream is consumed, so this is suitable for very large categories.
+	 * 
+	 * @param title The category to query, including the "Category:" prefix.
+	 * @param ns Namespace filter. Any title not in the specified namespace(s) will be ignored. Leave blank to select all namespaces.
+	 * @return A Stream of titles, as specified, in the category.
+	 */
+	public Stream<String> getCategoryMembersStream(String title, NS... ns)
+	{
+		log.info("{}: Streaming category members from {}", this, title);
+		return categoryMembersQuery(title, ns).stream(wq -> titles(wq.nextList("categorymembers", JsonObject.class)));
+	}
+
+	/**
+	 * Gets the titles in a category along with the text of each of them. Titles and text are fetched together with a
+	 * generator, so no separate pass over the category's titles is needed.
+	 * 
+	 * @param title The category to query, including the "Category:" prefix.
+	 * @param ns Namespace filter. Any title not in the specified namespace(s) will be ignored. Leave blank to select all namespaces.
+	 * @return The text of each title in the category, keyed by title.
+	 */
+	public HashMap<String, String> getCategoryMembersWithText(String title, NS... ns)
+	{
+		log.info("{}: Getting category members with text from {}", this, title);
+
+		WQuery wq = categoryMembersQuery(title, ns, WQuery.PAGETEXT);
+
+		HashMap<String, String> m = new HashMap<>();
+		while (wq.has())
+		{
+			WQuery.QReply r = wq.next();
+			if (r == null)
+				break;
+
+			r.pageComp().forEach((k, v) -> {
+				ArrayList<JsonObject> rl = GSONP.getJAofJO(v, "revisions");
+				if (!rl.isEmpty()) // with continuation, a page may be returned again without its revisions
+					m.put(k, GSONP.getStr(rl.get(0), "*"));
+				else
+					m.putIfAbsent(k, "");
+			});
+		}
+
+		return m;
+	}
+
+	/**
+	 * Creates a WQuery which lists the titles in a category.
+	 * 
+	 * @param title The category to query
+	 * @param ns Namespace filter. Leave blank to select all namespaces.
+	 * @param props The {@code prop} modules to run on each listed page. Optional param - if specified, the list is used as a generator for these.
+	 * @return The WQuery
+	 */
+	private WQuery categoryMembersQuery(String title, NS[] ns, WQuery.QTemplate... props)
+	{
+		String g = props.length > 0 ? "g" : "";
+
+		WQuery wq = props.length > 0 ? new WQuery(this, WQuery.CATEGORYMEMBERS.asGenerator(props)) : new WQuery(this, WQuery.CATEGORYMEMBERS);
+		wq.set(g + "cmtitle", convertIfNotInNS(title, NS.CATEGORY));
+		if (ns.length > 0)
+			wq.set(g + "cmnamespace", nsl.createFilter(ns));
+
+		return wq;
+	}
+
 	/**
 	 * Gets the number of elements contained in a category.
 	 * 
@@ -726,6 +1308,43 @@ public class Wiki
 	{
 		log.info("{}: Fetching contribs of {}", this, user);
 
+		WQuery wq = contribsQuery(user, cap, olderFirst, createdOnly, ns);
+
+		ArrayList<Contrib> l = new ArrayList<>();
+		while (wq.has())
+			l.addAll(wq.nextList("usercontribs", Contrib.class));
+
+		return l;
+	}
+
+	/**
+	 * Lazily lists the contributions of a user. Results are fetched from the server as the returned Stream is consumed.
+	 * 
+	 * @param user The user to get contribs for, without the "User:" prefix.
+	 * @param cap The maximum number of results to return. Optional, disable with -1.
+	 * @param olderFirst Set to true to enumerate from older → newer revisions
+	 * @param createdOnly Filter returned titles for instances where the contribution was a page creation. Optional, set false to disable.
+	 * @param ns Restrict titles returned to the specified Namespace(s). Optional, leave blank to select all namespaces.
+	 * @return A Stream of contributions.
+	 */
+	public Stream<Contrib> getContribsStream(String user, int cap, boolean olderFirst, boolean createdOnly, NS... ns)
+	{
+		log.info("{}: Streaming contribs of {}", this, user);
+		return contribsQuery(user, cap, olderFirst, createdOnly, ns).stream(wq -> wq.nextList("usercontribs", Contrib.class));
+	}
+
+	/**
+	 * Creates a WQuery which lists the contributions of a user.
+	 * 
+	 * @param user The user to get contribs for, without the "User:" prefix.
+	 * @param cap The maximum number of results to return. Optional, disable with -1.
+	 * @param olderFirst Set to true to enumerate from older → newer revisions
+	 * @param createdOnly Set true to only select page creations.
+	 * @param ns Restrict titles returned to the specified Namespace(s). Optional, leave blank to select all namespaces.
+	 * @return The WQuery
+	 */
+	private WQuery contribsQuery(String user, int cap, boolean olderFirst, boolean createdOnly, NS... ns)
+	{
 		WQuery wq = new WQuery(this, cap, WQuery.USERCONTRIBS).set("ucuser", user);
 		if (ns.length > 0)
 			wq.set("ucnamespace", nsl.createFilter(ns));
@@ -734,11 +1353,7 @@ public class Wiki
 		if (createdOnly)
 			wq.set("ucshow", "new");
 
-		ArrayList<Contrib> l = new ArrayList<>();
-		while (wq.has())
-			l.addAll(FL.toAL(wq.next().listComp("usercontribs").stream().map(jo -> GSONP.gson.fromJson(jo, Contrib.class))));
-
-		return l;
+		return wq;
 	}
 
 	/**
@@ -858,7 +1473,7 @@ public class Wiki
 
 		ArrayList<LogEntry> l = new ArrayList<>();
 		while (wq.has())
-			l.addAll(FL.toAL(wq.next().listComp("logevents").stream().map(jo -> GSONP.gson.fromJson(jo, LogEntry.class))));
+			l.addAll(wq.nextList("logevents", LogEntry.class));
 
 		return l;
 	}
@@ -894,6 +1509,17 @@ public class Wiki
 		return MQuery.getPageText(this, FL.toSAL(title)).get(title);
 	}
 
+	/**
+	 * Gets the text of a page.
+	 * 
+	 * @param title The title to query
+	 * @return The text of the page, or an empty string if the page is non-existent/something went wrong.
+	 */
+	public String getPageText(Title title)
+	{
+		return getPageText(title.toString());
+	}
+
 	/**
 	 * Fetches protected titles (create-protected) on the Wiki.
 	 * 
@@ -914,7 +1540,7 @@ public class Wiki
 
 		ArrayList<ProtectedTitleEntry> l = new ArrayList<>();
 		while (wq.has())
-			l.addAll(FL.toAL(wq.next().listComp("protectedtitles").stream().map(jo -> GSONP.gson.fromJson(jo, ProtectedTitleEntry.class))));
+			l.addAll(wq.nextList("protectedtitles", ProtectedTitleEntry.class));
 
 		return l;
 	}
@@ -957,6 +1583,38 @@ public class Wiki
 	{
 		log.info("{}: Querying recent changes", this);
 
+		WQuery wq = recentChangesQuery(start, end);
+
+		ArrayList<RCEntry> l = new ArrayList<>();
+		while (wq.has())
+			l.addAll(wq.nextList("recentchanges", RCEntry.class));
+
+		return l;
+	}
+
+	/**
+	 * Lazily lists Recent Changes in between two timestamps. Results are fetched from the server as the returned Stream is consumed. See {@link #getRecentChanges(Instant, Instant)} for details on
+	 * {@code start} and {@code end}.
+	 * 
+	 * @param start The Instant to start enumerating from. Can be used without {@code end}. Optional param - set null to disable.
+	 * @param end The Instant to stop enumerating at. {@code start} must be set, otherwise this will be ignored. Optional param - set null to disable.
+	 * @return A Stream of Recent Changes where return order is newer -&gt; Older
+	 */
+	public Stream<RCEntry> getRecentChangesStream(Instant start, Instant end)
+	{
+		log.info("{}: Streaming recent changes", this);
+		return recentChangesQuery(start, end).stream(wq -> wq.nextList("recentchanges", RCEntry.class));
+	}
+
+	/**
+	 * Creates a WQuery which lists Recent Changes in between two timestamps.
+	 * 
+	 * @param start The Instant to start enumerating from. Optional param - set null to disable.
+	 * @param end The Instant to stop enumerating at. Optional param - set null to disable.
+	 * @return The WQuery
+	 */
+	private WQuery recentChangesQuery(Instant start, Instant end)
+	{
 		Instant s = start, e = end;
 		if (s == null)
 			s = (e = Instant.now()).minusSeconds(30);
@@ -968,11 +1626,7 @@ public class Wiki
 		if (e != null)
 			wq.set("rcstart", e.toString());
 
-		ArrayList<RCEntry> l = new ArrayList<>();
-		while (wq.has())
-			l.addAll(FL.toAL(wq.next().listComp("recentchanges").stream().map(jo -> GSONP.gson.fromJson(jo, RCEntry.class))));
-
-		return l;
+		return wq;
 	}
 
 	/**
@@ -989,6 +1643,49 @@ public class Wiki
 	{
 		log.info("{}: Getting revisions from {}", this, title);
 
+		WQuery wq = revisionsQuery(title, cap, olderFirst, start, end);
+
+		ArrayList<Revision> l = new ArrayList<>();
+		while (wq.has())
+		{
+			ArrayList<Revision> rl = wq.nextProp("revisions", Revision.class).get(title);
+			if (rl != null)
+				l.addAll(rl);
+		}
+		return l;
+	}
+
+	/**
+	 * Lazily lists the revisions of a page. Results are fetched from the server as the returned Stream is consumed, so this is suitable for pages with very long histories.
+	 * 
+	 * @param title The title to query
+	 * @param cap The maximum number of results to return. Optional param: set to any number zero or less to disable.
+	 * @param olderFirst Set to true to enumerate from older → newer revisions
+	 * @param start The instant to start enumerating from. Start date must occur before end date. Optional param - set null to disable.
+	 * @param end The instant to stop enumerating at. Optional param - set null to disable.
+	 * @return A Stream of page revisions
+	 */
+	public Stream<Revision> getRevisionsStream(String title, int cap, boolean olderFirst, Instant start, Instant end)
+	{
+		log.info("{}: Streaming revisions from {}", this, title);
+		return revisionsQuery(title, cap, olderFirst, start, end).stream(wq -> {
+			HashMap<String, ArrayList<Revision>> m = wq.nextProp("revisions", Revision.class);
+			return m == null ? null : m.get(title);
+		});
+	}
+
+	/**
+	 * Creates a WQuery which lists the revisions of a page.
+	 * 
+	 * @param title The title to query
+	 * @param cap The maximum number of results to return. Optional param: set to any number zero or less to disable.
+	 * @param olderFirst Set to true to enumerate from older → newer revisions
+	 * @param start The instant to start enumerating from. Optional param - set null to disable.
+	 * @param end The instant to stop enumerating at. Optional param - set null to disable.
+	 * @return The WQuery
+	 */
+	private WQuery revisionsQuery(String title, int cap, boolean olderFirst, Instant start, Instant end)
+	{
 		WQuery wq = new WQuery(this, cap, WQuery.REVISIONS).set("titles", title);
 		if (olderFirst)
 			wq.set("rvdir", "newer"); // MediaWiki is weird.
@@ -999,14 +1696,7 @@ public class Wiki
 			wq.set("rvend", start.toString());
 		}
 
-		ArrayList<Revision> l = new ArrayList<>();
-		while (wq.has())
-		{
-			JsonElement e = wq.next().propComp("title", "revisions").get(title);
-			if (e != null)
-				l.addAll(FL.toAL(GSONP.getJAofJO(e.getAsJsonArray()).stream().map(jo -> GSONP.gson.fromJson(jo, Revision.class))));
-		}
-		return l;
+		return wq;
 	}
 
 	/**
@@ -0,0 +1,63 @@
+package io.github.fastily.jwiki.dwrap;
+
+import java.time.Instant;
+
+/**
+ * Represents basic information about a page, as obtained from the {@code info} API module.
+ * 
+ * @author Fastily
+ *
+ */
+public class PageInfo
+{
+	/**
+	 * The title of the page.
+	 */
+	public String title;
+
+	/**
+	 * The unique id of the page. This is 0 if the page does not exist.
+	 */
+	public long pageid;
+
+	/**
+	 * The namespace number of the page.
+	 */
+	public int ns;
+
+	/**
+	 * The content model of the page (e.g. {@code wikitext}).
+	 */
+	public String contentmodel;
+
+	/**
+	 * The size of the latest revision of the page, in bytes.
+	 */
+	public int length;
+
+	/**
+	 * The revision id of the latest revision of the page.
+	 */
+	public long lastrevid;
+
+	/**
+	 * The date and time at which the page was last touched.
+	 */
+	public Instant touched;
+
+	/**
+	 * Constructor, creates a PageInfo with all null fields.
+	 */
+	protected PageInfo()
+	{
+
+	}
+
+	/**
+	 * Gets a String representation of this PageInfo. Useful for debugging.
+	 */
+	public String toString()
+	{
+		return String.format("[ title : %s, pageid : %d, length : %d, lastrevid : %d, touched : %s ]", title, pageid, length, lastrevid, touched);
+	}
+}
\ No newline at end of file
@@ -5,14 +5,17 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 /**
- * Static Collections and Stream utilities.
+ * Static Collections, Stream, and CompletableFuture utilities.
  * 
  * @author Fastily
  *
@@ -159,4 +162,59 @@ public final class FL
 	{
 		return l.stream().anyMatch(o -> o == null);
 	}
+
+	/**
+	 * Runs an asynchronous task on each element of a List, with up to {@code window} tasks in flight at the same time. As each task finishes, the task for the next element is started. This method
+	 * does not wait for any task to finish.
+	 * 
+	 * @param <T> The type of element in {@code l}
+	 * @param <R> The type of result produced for each element.
+	 * @param l The elements to run {@code task} on.
+	 * @param window The maximum number of tasks to run at the same time.
+	 * @param task Starts the asynchronous work for a single element. If this throws, that element's result completes exceptionally.
+	 * @return A CompletableFuture which completes with the result for each element, in order, once all tasks are done. If any task failed, it completes exceptionally instead.
+	 */
+	public static <T, R> CompletableFuture<ArrayList<R>> windowed(List<T> l, int window, Function<T, CompletableFuture<R>> task)
+	{
+		ArrayList<CompletableFuture<R>> fl = new ArrayList<>();
+		l.forEach(x -> fl.add(new CompletableFuture<>()));
+
+		// each launcher keeps one task in flight. Tasks which are already done are followed up in a loop rather than by recursion, so a long run of them cannot overflow the stack.
+		AtomicInteger cursor = new AtomicInteger();
+		Runnable launcher = new Runnable() {
+			public void run()
+			{
+				int i;
+				while ((i = cursor.getAndIncrement()) < l.size())
+				{
+					CompletableFuture<R> f = fl.get(i);
+					try
+					{
+						CompletableFuture<R> cf = task.apply(l.get(i));
+						cf.whenComplete((x, e) -> {
+							if (e != null)
+								f.completeExceptionally(e);
+							else
+								f.complete(x);
+						});
+
+						if (!cf.isDone())
+						{
+							cf.whenComplete((x, e) -> run());
+							return;
+						}
+					}
+					catch (Throwable e)
+					{
+						f.completeExceptionally(e);
+					}
+				}
+			}
+		};
+
+		for (int i = 0; i < Math.min(window, l.size()); i++)
+			launcher.run();
+
+		return CompletableFuture.allOf(fl.toArray(new CompletableFuture<?>[0])).thenApply(v -> toAL(fl.stream().map(CompletableFuture::join)));
+	}
 }
\ No newline at end of file
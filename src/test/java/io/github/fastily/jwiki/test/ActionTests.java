@@ -2,13 +2,25 @@ package io.github.fastily.jwiki.test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.Test;
 
+import io.github.fastily.jwiki.core.DedupeUpload;
 import io.github.fastily.jwiki.core.NS;
+import io.github.fastily.jwiki.core.PurgeStatus;
+import io.github.fastily.jwiki.core.RetryPolicy;
+import io.github.fastily.jwiki.core.Wiki;
 import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
 
 /**
  * Unit tests for WAction. Mocks cases where user is anonymous.
@@ -40,6 +52,29 @@ public class ActionTests extends BaseMockTemplate
 		assertEquals(NS.MAIN.v, wiki.whichNS("hello").v);
 	}
 
+	/**
+	 * Test that namespace prefixes are resolved regardless of case, underscores and aliases, and that colons which do not end a namespace prefix are left alone.
+	 */
+	@Test
+	public void testNamespaceResolution()
+	{
+		assertEquals(NS.USER_TALK, wiki.whichNS("user_TALK:Foo"));
+		assertEquals(NS.FILE, wiki.whichNS("Image:Foo.jpg"));
+		assertEquals(NS.PROJECT, wiki.whichNS("WP:Foo"));
+		assertEquals(NS.MAIN, wiki.whichNS("Foo: The Sequel"));
+		assertEquals(-1, wiki.whichNS("Special:Upload").v);
+
+		assertEquals("Foo", wiki.nss("user_TALK:Foo"));
+		assertEquals("Foo: The Sequel", wiki.nss("Foo: The Sequel"));
+		assertEquals("File:Test.webm.srt", wiki.nss("TimedText:File:Test.webm.srt"));
+		assertEquals(":Foo", wiki.nss(":Foo"));
+
+		assertEquals("User talk:Foo", wiki.talkPageOf("user:Foo"));
+		assertEquals("Wikipedia:Foo", wiki.talkPageBelongsTo("WT:Foo"));
+		assertEquals(NS.PROJECT, wiki.getNS("WP"));
+		assertNull(wiki.getNS("wp"));
+	}
+
 	/**
 	 * Test move
 	 */
@@ -72,6 +107,27 @@ public class ActionTests extends BaseMockTemplate
 		assertTrue(wiki.addText("Wikipedia:Sandbox", "Appending text!", "test", false));
 	}
 
+	/**
+	 * Tests that actions which are not idempotent are only retried if the server did not act on them, and that edits which replace the page text are retried.
+	 */
+	@Test
+	public void testActionRetries()
+	{
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("Service Unavailable"));
+		assertFalse(wiki.addText("Wikipedia:Sandbox", "Appending text!", "test", true));
+		assertEquals(2, server.getRequestCount());
+
+		server.enqueue(new MockResponse().setBody("{\"error\": {\"code\": \"maxlag\", \"info\": \"Waiting for a database server: 7 seconds lagged.\"}}"));
+		addResponse("mockSuccessEdit");
+		assertTrue(wiki.addText("Wikipedia:Sandbox", "Appending text!", "test", true));
+		assertEquals(4, server.getRequestCount());
+
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("Service Unavailable"));
+		addResponse("mockSuccessEdit");
+		assertTrue(wiki.edit("Wikipedia:Sandbox", "Hello, World!", "This is a test"));
+		assertEquals(6, server.getRequestCount());
+	}
+
 	/**
 	 * Tests uploading of files
 	 */
@@ -91,6 +147,88 @@ public class ActionTests extends BaseMockTemplate
 		}
 	}
 
+	/**
+	 * Tests that an interrupted chunked upload is resumed after the last stashed chunk.
+	 */
+	@Test
+	public void testResumedUpload()
+	{
+		addResponse("mockNSInfo");
+		Wiki cw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withUploadChunkSize(16).withRetryPolicy(new RetryPolicy().withMaxAttempts(1)).build();
+
+		try
+		{
+			Path dir = Files.createTempDirectory("jwiki");
+			Path p = Files.copy(Paths.get(getClass().getResource("uploadTestFile.svg").toURI()), dir.resolve("uploadTestFile.svg"));
+			Path sidecar = dir.resolve("uploadTestFile.svg.jwiki-upload");
+
+			// 41 bytes in 16 byte chunks; the second chunk fails
+			addResponse("mockChunkedUpload");
+			server.enqueue(new MockResponse().setResponseCode(500));
+			assertFalse(cw.upload(p, "TestSVG.svg", "desc", "summary"));
+			assertTrue(Files.exists(sidecar));
+
+			int base = server.getRequestCount();
+			addResponse("mockChunkedUpload");
+			addResponse("mockChunkedUpload");
+			addResponse("mockFileUnstash");
+			assertTrue(cw.upload(p, "TestSVG.svg", "desc", "summary"));
+			assertEquals(base + 3, server.getRequestCount());
+			assertFalse(Files.exists(sidecar));
+
+			Files.delete(p);
+			Files.delete(dir);
+		}
+		catch (Throwable e)
+		{
+			fail(e);
+		}
+	}
+
+	/**
+	 * Tests that files which the Wiki already has, or which duplicate another file in the batch, are not uploaded.
+	 */
+	@Test
+	public void testUploadIfNew()
+	{
+		try
+		{
+			Path dir = Files.createTempDirectory("jwiki");
+			Path src = Paths.get(getClass().getResource("uploadTestFile.svg").toURI());
+			Path a = Files.copy(src, dir.resolve("a.svg")), b = Files.copy(src, dir.resolve("b.svg"));
+
+			LinkedHashMap<Path, String> files = new LinkedHashMap<>();
+			files.put(a, "File:A.svg");
+			files.put(b, "File:B.svg");
+
+			// both files have the same hash, so it is looked up once and only the first file is uploaded
+			addResponse("mockFilesBySha1None");
+			addResponse("mockChunkedUpload");
+			addResponse("mockFileUnstash");
+
+			HashMap<Path, DedupeUpload.Result> m = wiki.uploadIfNew(files, "desc", "summary");
+			assertEquals(DedupeUpload.Status.UPLOADED, m.get(a).status);
+			assertEquals(DedupeUpload.Status.DUPLICATE, m.get(b).status);
+			assertEquals("File:A.svg", m.get(b).duplicateOf);
+
+			int base = server.getRequestCount();
+			addResponse("mockFilesBySha1");
+
+			m = wiki.uploadIfNew(Map.of(a, "File:A.svg"), "desc", "summary");
+			assertEquals(DedupeUpload.Status.DUPLICATE, m.get(a).status);
+			assertEquals("File:Existing.svg", m.get(a).duplicateOf);
+			assertEquals(base + 1, server.getRequestCount());
+
+			Files.delete(a);
+			Files.delete(b);
+			Files.delete(dir);
+		}
+		catch (Throwable e)
+		{
+			fail(e);
+		}
+	}
+
 	/**
 	 * Tests upload by url functionality.
 	 */
@@ -118,4 +256,37 @@ public class ActionTests extends BaseMockTemplate
 		addResponse("mockPagePurge");
 		wiki.purge("Foo", "Test", "Wikipedia:Sandbox");
 	}
+
+	/**
+	 * Tests bulk purging of pages, with a per-title outcome. Titles which normalize to the same title share its outcome, and purge entries without a title are ignored.
+	 */
+	@Test
+	public void testBulkPurge()
+	{
+		addResponse("mockBulkPurge");
+
+		HashMap<String, PurgeStatus> m = wiki.purge(List.of("foo", "Foo", "Bar", "Test#<>", "Baz"), false, true);
+
+		assertEquals(5, m.size());
+		assertEquals(PurgeStatus.PURGED, m.get("foo"));
+		assertEquals(PurgeStatus.PURGED, m.get("Foo"));
+		assertEquals(PurgeStatus.MISSING, m.get("Bar"));
+		assertEquals(PurgeStatus.INVALID, m.get("Test#<>"));
+		assertEquals(PurgeStatus.FAILED, m.get("Baz"));
+
+		try
+		{
+			RecordedRequest r = server.takeRequest(2, TimeUnit.SECONDS);
+			while (!"POST".equals(r.getMethod()))
+				r = server.takeRequest(2, TimeUnit.SECONDS);
+
+			String body = r.getBody().readUtf8();
+			assertTrue(body.contains("forcerecursivelinkupdate=1"));
+			assertFalse(body.contains("forcelinkupdate=1"));
+		}
+		catch (Throwable e)
+		{
+			fail(e);
+		}
+	}
 }
\ No newline at end of file
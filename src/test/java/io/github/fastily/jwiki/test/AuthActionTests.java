@@ -1,10 +1,26 @@
 package io.github.fastily.jwiki.test;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 
+import io.github.fastily.jwiki.core.BulkEdit;
+import io.github.fastily.jwiki.core.MQuery;
+import io.github.fastily.jwiki.core.RetryPolicy;
+import io.github.fastily.jwiki.core.Session;
 import io.github.fastily.jwiki.core.Wiki;
+import io.github.fastily.jwiki.util.Tuple;
+import okhttp3.mockwebserver.MockResponse;
 
 /**
  * Unit tests for WAction. Tests are performed as if the user is logged in.
@@ -57,4 +73,177 @@ public class AuthActionTests extends BaseMockTemplate
 		addResponse("mockUndeleteSuccess");
 		assertTrue(wiki.undelete("Test", "test"));
 	}
+
+	/**
+	 * Verify that accounts with {@code apihighlimits} query larger groups of titles.
+	 */
+	@Test
+	public void testHighLimits()
+	{
+		addResponse("mockTokenNotLoggedIn");
+		addResponse("mockLoginSuccess");
+		addResponse("mockUserInfoHighLimits");
+		addResponse("mockTokenLoggedIn");
+		addResponse("mockListSingleUserRights");
+		addResponse("mockNSInfo");
+
+		Wiki hw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withLogin("Test", "password").build();
+		int base = server.getRequestCount();
+
+		ArrayList<String> titles = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			titles.add("Page " + i);
+		titles.add("Foo");
+
+		addResponse("mockPageText");
+		HashMap<String, String> m = MQuery.getPageText(hw, titles);
+
+		assertEquals("Hello, World!", m.get("Foo"));
+		assertEquals(base + 1, server.getRequestCount());
+	}
+
+	/**
+	 * Verify that a rejected token is refreshed and the action replayed.
+	 */
+	@Test
+	public void testBadTokenRefresh()
+	{
+		addResponse("mockBadToken");
+		addResponse("mockTokenRefreshed");
+		addResponse("mockSuccessEdit");
+
+		int base = server.getRequestCount();
+
+		assertTrue(wiki.edit("Wikipedia:Sandbox", "Hello, World!", "This is a test"));
+		assertEquals(base + 3, server.getRequestCount());
+		assertEquals("77a30cc098c7a6234b111b2cd432aa0987b66666+\\", wiki.getToken("csrf"));
+	}
+
+	/**
+	 * Test bulk editing of pages with their own transforms.
+	 */
+	@Test
+	public void testBulkEdit()
+	{
+		addResponse("mockPageText");
+		addResponse("mockSuccessEdit");
+
+		Stream<Tuple<String, Function<String, String>>> jobs = Stream.of(new Tuple<>("Foo", s -> s.replace("World", "Earth")), new Tuple<>("Bar", s -> s));
+
+		HashMap<String, BulkEdit.Result> results = new HashMap<>();
+		try (Stream<BulkEdit.Result> s = wiki.bulkEdit(jobs, "test"))
+		{
+			s.forEach(r -> results.put(r.title, r));
+		}
+
+		assertEquals(2, results.size());
+		assertEquals(BulkEdit.Status.EDITED, results.get("Foo").status);
+		assertEquals(BulkEdit.Status.UNCHANGED, results.get("Bar").status);
+		assertNull(results.get("Bar").error);
+	}
+
+	/**
+	 * Test that pages whose text could not be fetched are reported as failures, rather than dropped.
+	 */
+	@Test
+	public void testBulkEditFetchFailure()
+	{
+		addResponse("mockNSInfo");
+		Wiki fw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withRetryPolicy(new RetryPolicy().withMaxAttempts(1)).build();
+
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("Internal Server Error"));
+
+		HashMap<String, BulkEdit.Result> results = new HashMap<>();
+		try (Stream<BulkEdit.Result> s = fw.bulkEdit(Stream.of(new Tuple<>("Foo", x -> x + "!"), new Tuple<>("Bar", x -> x + "!")), "test"))
+		{
+			s.forEach(r -> results.put(r.title, r));
+		}
+
+		assertEquals(2, results.size());
+		assertEquals(BulkEdit.Status.FAILED, results.get("Foo").status);
+		assertEquals(BulkEdit.Status.FAILED, results.get("Bar").status);
+	}
+
+	/**
+	 * Test that bulk edits are made against the fetched revision, as of the server's time when it was fetched, and that edit conflicts are reported as failures.
+	 */
+	@Test
+	public void testBulkEditConflict() throws Throwable
+	{
+		addResponse("mockPageText");
+		addResponse("mockEditConflict");
+
+		int base = server.getRequestCount();
+
+		ArrayList<BulkEdit.Result> results = new ArrayList<>();
+		try (Stream<BulkEdit.Result> s = wiki.bulkEdit(Stream.of(new Tuple<>("Foo", x -> x + "!")), "test"))
+		{
+			s.forEach(results::add);
+		}
+
+		assertEquals(1, results.size());
+		assertEquals(BulkEdit.Status.FAILED, results.get(0).status);
+		assertTrue(results.get(0).error.contains("conflict"));
+
+		for (int i = 0; i < base; i++)
+			server.takeRequest(2, TimeUnit.SECONDS);
+
+		assertEquals("1", server.takeRequest(2, TimeUnit.SECONDS).getRequestUrl().queryParameter("curtimestamp")); // page text request
+		String body = server.takeRequest(2, TimeUnit.SECONDS).getBody().readUtf8();
+		assertTrue(body.contains("basetimestamp=2017-03-10T21%3A04%3A52Z"));
+		assertTrue(body.contains("starttimestamp=2017-03-11T08%3A00%3A00Z"));
+	}
+
+	/**
+	 * Test that a saved Session can be restored without logging in again.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testSession() throws Throwable
+	{
+		Path p = Files.createTempFile("jwiki-session", ".json");
+		wiki.exportSession().save(p);
+
+		Session s = Session.load(p);
+		assertEquals("Test", s.getUsername());
+
+		// trusted as is
+		int base = server.getRequestCount();
+		Wiki sw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withSession(s).build();
+		assertEquals(base, server.getRequestCount());
+		assertEquals("Test", sw.whoami());
+		assertEquals(wiki.getToken("csrf"), sw.getToken("csrf"));
+		assertEquals(wiki.getNS("User"), sw.getNS("User"));
+
+		// checked with a single query when credentials are given
+		addResponse("mockUserInfo");
+		sw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withLogin("Test", "password").withSession(s).build();
+		assertEquals(base + 1, server.getRequestCount());
+		assertEquals("Test", sw.whoami());
+
+		// discarded without a query if it belongs to someone else
+		addResponse("mockTokenNotLoggedIn");
+		addResponse("mockLoginSuccess");
+		addResponse("mockUserInfo");
+		addResponse("mockTokenLoggedIn");
+		addResponse("mockListSingleUserRights");
+		new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withLogin("Other", "password").withSession(s).build();
+		assertEquals(base + 6, server.getRequestCount());
+	}
+
+	/**
+	 * Test that a saved Session is only readable by its owner, where the file system supports it.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testSessionPermissions() throws Throwable
+	{
+		Path p = Files.createTempFile("jwiki-session", ".json");
+		assumeTrue(p.getFileSystem().supportedFileAttributeViews().contains("posix"));
+
+		wiki.exportSession().save(p);
+		assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(p));
+	}
 }
\ No newline at end of file
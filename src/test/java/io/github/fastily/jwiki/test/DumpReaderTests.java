@@ -0,0 +1,107 @@
+package io.github.fastily.jwiki.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.fastily.jwiki.core.DumpReader;
+import io.github.fastily.jwiki.core.NS;
+import io.github.fastily.jwiki.dwrap.Revision;
+
+/**
+ * Unit tests for DumpReader. These run offline, against a small dump in the test resources.
+ * 
+ * @author Fastily
+ *
+ */
+public class DumpReaderTests
+{
+	/**
+	 * Gets the path to the test dump.
+	 * 
+	 * @return The path to the test dump
+	 * @throws Throwable If the test dump is missing.
+	 */
+	private Path dump() throws Throwable
+	{
+		return Paths.get(getClass().getResource("mockDump.xml").toURI());
+	}
+
+	/**
+	 * Tests reading pages and their revisions in order, including skipping unread revisions.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testPages() throws Throwable
+	{
+		try (DumpReader dr = new DumpReader(dump()))
+		{
+			assertEquals("enwiki", dr.getDBName());
+			assertEquals(NS.TEMPLATE, dr.whichNS("template:Foo"));
+			assertEquals("Foo", dr.nss("User:Foo"));
+
+			DumpReader.Page p = dr.nextPage();
+			assertEquals("Foo", p.info.title);
+			assertEquals(1234, p.info.pageid);
+			assertEquals(NS.MAIN, p.ns);
+			assertNull(p.redirect);
+
+			Revision r = p.nextRevision();
+			assertEquals(100, r.revid);
+			assertEquals("Alice", r.user);
+			assertEquals("first", r.summary);
+			assertEquals("Foo", r.title);
+			assertEquals(Instant.parse("2020-01-01T00:00:00Z"), r.timestamp);
+			assertEquals("Hello, World!", r.text);
+
+			// the second revision of Foo is skipped
+			p = dr.nextPage();
+			assertEquals("User:Bar", p.redirect);
+			assertEquals(3, p.ns.v);
+
+			r = p.nextRevision();
+			assertNull(r.user);
+			assertNull(r.summary);
+			assertNull(p.nextRevision());
+
+			p = dr.nextPage();
+			assertEquals(NS.TEMPLATE, p.ns);
+			assertNull(dr.nextPage());
+		}
+	}
+
+	/**
+	 * Tests streaming every revision of a gzipped dump.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testGzipRevisions() throws Throwable
+	{
+		Path gz = Files.createTempFile("jwiki-dump", ".xml.gz");
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gz)))
+		{
+			Files.copy(dump(), out);
+		}
+
+		try (Stream<Revision> s = new DumpReader(gz).revisions())
+		{
+			List<Revision> l = s.collect(Collectors.toList());
+			assertEquals(List.of(100L, 101L, 200L, 300L), l.stream().map(r -> r.revid).collect(Collectors.toList()));
+			assertEquals("127.0.0.1", l.get(1).user);
+			assertEquals("{{Bar}} & <b>", l.get(1).text);
+			assertEquals("Template:Baz", l.get(3).title);
+		}
+	}
+}
\ No newline at end of file
@@ -2,17 +2,38 @@ package io.github.fastily.jwiki.test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.jupiter.api.Test;
 
+import io.github.fastily.jwiki.core.ContentCache;
+import io.github.fastily.jwiki.core.MQuery;
 import io.github.fastily.jwiki.core.NS;
+import io.github.fastily.jwiki.core.RetryPolicy;
+import io.github.fastily.jwiki.core.Title;
+import io.github.fastily.jwiki.core.TrafficStats;
+import io.github.fastily.jwiki.core.Wiki;
 import io.github.fastily.jwiki.dwrap.LogEntry;
 import io.github.fastily.jwiki.dwrap.ProtectedTitleEntry;
 import io.github.fastily.jwiki.dwrap.RCEntry;
+import io.github.fastily.jwiki.util.FL;
 import io.github.fastily.jwiki.util.Tuple;
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.MockResponse;
+import okio.Buffer;
 
 /**
  * Tests queries which may have dynamic/variable outputs.
@@ -204,6 +225,21 @@ public class MockQueryTests extends BaseMockTemplate
 		assertTrue(l.contains("Cats"));
 	}
 
+	/**
+	 * Tests lazy listing of all pages across a continuation
+	 */
+	@Test
+	public void testAllPagesStream()
+	{
+		addResponse("mockAllPagesCont");
+		addResponse("mockAllPages");
+
+		try (Stream<String> s = wiki.allPagesStream(null, false, false, -1, NS.MAIN))
+		{
+			assertEquals(FL.toSAL("Apple", "Test", "Foobar", "Cats"), FL.toAL(s));
+		}
+	}
+
 	/**
 	 * Tests page searching
 	 */
@@ -235,4 +271,336 @@ public class MockQueryTests extends BaseMockTemplate
 		assertTrue(l.contains("File:TestTest.jpg"));
 	}
 
+	/**
+	 * Tests asynchronous fetching of page text
+	 */
+	@Test
+	public void testGetPageTextAsync()
+	{
+		addResponse("mockPageText");
+
+		HashMap<String, String> m = MQuery.getPageTextAsync(wiki, FL.toSAL("Foo", "Bar")).join();
+
+		assertEquals(2, m.size());
+		assertEquals("Hello, World!", m.get("Foo"));
+		assertEquals("", m.get("Bar"));
+	}
+
+	/**
+	 * Tests parallel fetching of title groups
+	 */
+	@Test
+	public void testParallelGroups()
+	{
+		addResponse("mockNSInfo");
+		Wiki pw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withParallelism(4).build();
+
+		addResponse("mockPageText");
+		addResponse("mockPageText");
+
+		ArrayList<String> titles = FL.toSAL("Foo", "Bar");
+		for (int i = 0; i < 60; i++)
+			titles.add("Page " + i);
+
+		HashMap<String, String> m = MQuery.getPageText(pw, titles);
+
+		assertEquals("Hello, World!", m.get("Foo"));
+		assertEquals("", m.get("Bar"));
+		assertEquals(4, server.getRequestCount());
+	}
+
+	/**
+	 * Tests that queries with very long urls are sent as POST requests
+	 */
+	@Test
+	public void testLongQueryUsesPost() throws Throwable
+	{
+		addResponse("mockPageText");
+
+		ArrayList<String> titles = FL.toSAL("Foo", "Bar");
+		for (int i = 0; i < 48; i++)
+			titles.add("Ժամանակակից պատմություն և մշակույթ " + i);
+
+		assertEquals("Hello, World!", MQuery.getPageText(wiki, titles).get("Foo"));
+
+		server.takeRequest(2, TimeUnit.SECONDS); // namespace request
+		assertEquals("POST", server.takeRequest(2, TimeUnit.SECONDS).getMethod());
+	}
+
+	/**
+	 * Tests combined fetching of several page properties
+	 */
+	@Test
+	public void testPropQuery() throws Throwable
+	{
+		addResponse("mockPagePropsCont");
+		addResponse("mockPageProps");
+
+		HashMap<String, MQuery.PageProps> m = new MQuery.PropQuery(wiki).categories().templates().text().fetch(FL.toSAL("Foo", "Bar"));
+
+		assertEquals(2, m.size());
+
+		MQuery.PageProps p = m.get("Foo");
+		assertEquals(FL.toSAL("Category:Cats", "Category:Kittens"), p.categories);
+		assertEquals(FL.toSAL("Template:Tabby"), p.templates);
+		assertEquals("Hello, World!", p.text);
+
+		assertTrue(m.get("Bar").categories.isEmpty());
+		assertEquals("", m.get("Bar").text);
+
+		server.takeRequest(2, TimeUnit.SECONDS); // namespace request
+		assertEquals("categories|templates|revisions", server.takeRequest(2, TimeUnit.SECONDS).getRequestUrl().queryParameter("prop"));
+	}
+
+	/**
+	 * Tests that page properties of a title which MediaWiki normalized are keyed by the title as it was queried
+	 */
+	@Test
+	public void testPropQueryNormalized() throws Throwable
+	{
+		addResponse("mockPagePropsNormalized");
+
+		HashMap<String, MQuery.PageProps> m = new MQuery.PropQuery(wiki).categories().fetch(FL.toSAL("foo", "Bar"));
+
+		assertEquals(2, m.size());
+		assertFalse(m.containsKey("Foo"));
+
+		MQuery.PageProps p = m.get("foo");
+		assertEquals("foo", p.title);
+		assertEquals(FL.toSAL("Category:Cats"), p.categories);
+
+		assertTrue(m.get("Bar").categories.isEmpty());
+	}
+
+	/**
+	 * Tests generator-based fetching of category members with their text
+	 */
+	@Test
+	public void testGetCategoryMembersWithText() throws Throwable
+	{
+		addResponse("mockCatMembersTextCont");
+		addResponse("mockCatMembersText");
+
+		HashMap<String, String> m = wiki.getCategoryMembersWithText("Category:Cats");
+
+		assertEquals(2, m.size());
+		assertEquals("Stripes", m.get("Tabby"));
+		assertEquals("Meow", m.get("Kitten"));
+
+		server.takeRequest(2, TimeUnit.SECONDS); // namespace request
+		HttpUrl u = server.takeRequest(2, TimeUnit.SECONDS).getRequestUrl();
+		assertEquals("categorymembers", u.queryParameter("generator"));
+		assertEquals("Category:Cats", u.queryParameter("gcmtitle"));
+		assertEquals("revisions", u.queryParameter("prop"));
+		assertNull(u.queryParameter("titles"));
+	}
+
+	/**
+	 * Tests decoding of compressed responses and the byte counts of TrafficStats
+	 */
+	@Test
+	public void testCompressedResponse() throws Throwable
+	{
+		byte[] json = Files.readAllBytes(Paths.get(getClass().getResource("mockPageText.json").toURI()));
+
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		try (GZIPOutputStream gz = new GZIPOutputStream(bo))
+		{
+			gz.write(json);
+		}
+		server.enqueue(new MockResponse().setBody(new Buffer().write(bo.toByteArray())).setHeader("Content-Encoding", "gzip"));
+
+		TrafficStats ts = wiki.getTrafficStats();
+		long wire = ts.getWireBytes(), decoded = ts.getDecodedBytes();
+
+		assertEquals("Hello, World!", wiki.getPageText("Foo"));
+		assertEquals(bo.size(), ts.getWireBytes() - wire);
+		assertEquals(json.length, ts.getDecodedBytes() - decoded);
+
+		server.takeRequest(2, TimeUnit.SECONDS); // namespace request
+		assertTrue(server.takeRequest(2, TimeUnit.SECONDS).getHeader("Accept-Encoding").contains("gzip"));
+	}
+
+	/**
+	 * Tests that requests carry maxlag and are retried when the server is lagged
+	 */
+	@Test
+	public void testMaxlagRetry() throws Throwable
+	{
+		server.enqueue(new MockResponse().setBody("{\"error\": {\"code\": \"maxlag\", \"info\": \"Waiting for a database server: 7 seconds lagged.\"}}")
+				.setHeader("X-Database-Lag", "7").setHeader("Retry-After", "0"));
+		addResponse("mockPageText");
+
+		assertEquals("Hello, World!", wiki.getPageText("Foo"));
+		assertEquals(3, server.getRequestCount());
+
+		server.takeRequest(2, TimeUnit.SECONDS); // namespace request
+		assertEquals("5", server.takeRequest(2, TimeUnit.SECONDS).getRequestUrl().queryParameter("maxlag"));
+	}
+
+	/**
+	 * Tests that queries are retried after a server error
+	 */
+	@Test
+	public void testRetryOnServerError()
+	{
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("Service Unavailable"));
+		addResponse("mockPageText");
+
+		assertEquals("Hello, World!", wiki.getPageText("Foo"));
+		assertEquals(3, server.getRequestCount());
+	}
+
+	/**
+	 * Tests that a query which failed on every attempt throws, rather than returning partial results.
+	 */
+	@Test
+	public void testQueryFailure()
+	{
+		addResponse("mockNSInfo");
+		Wiki fw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withRetryPolicy(new RetryPolicy().withMaxAttempts(1)).build();
+
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("Internal Server Error"));
+		assertThrows(UncheckedIOException.class, () -> fw.getRandomPages(3, NS.MAIN));
+	}
+
+	/**
+	 * Tests that Wikis with the same connection pool settings share a pool, so that a Wiki reuses the connection another Wiki opened to the same host, and that Wikis with different settings do not.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testSharedConnectionPool() throws Throwable
+	{
+		for (int i = server.getRequestCount(); i > 0; i--)
+			server.takeRequest(2, TimeUnit.SECONDS);
+
+		addResponse("mockNSInfo");
+		new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).build();
+		assertTrue(server.takeRequest(2, TimeUnit.SECONDS).getSequenceNumber() > 0);
+
+		addResponse("mockNSInfo");
+		new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withConnectionPool(3, Duration.ofMinutes(7)).build();
+		assertEquals(0, server.takeRequest(2, TimeUnit.SECONDS).getSequenceNumber());
+	}
+
+	/**
+	 * Tests that a lazy listing throws if a continuation failed on every attempt, rather than ending early.
+	 */
+	@Test
+	public void testStreamFailure()
+	{
+		addResponse("mockNSInfo");
+		Wiki fw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withRetryPolicy(new RetryPolicy().withMaxAttempts(1)).build();
+
+		addResponse("mockAllPagesCont");
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("Internal Server Error"));
+
+		try (Stream<String> s = fw.allPagesStream(null, false, false, -1, NS.MAIN))
+		{
+			assertThrows(UncheckedIOException.class, () -> FL.toAL(s));
+		}
+	}
+
+	/**
+	 * Tests that page text is only downloaded if its latest revision is not in the ContentCache.
+	 */
+	@Test
+	public void testContentCache()
+	{
+		addResponse("mockNSInfo");
+		Wiki cw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withContentCache(new ContentCache.LRU(10, null)).build();
+
+		int base = server.getRequestCount();
+		addResponse("mockPageLastRevId");
+		addResponse("mockPageTextIds");
+
+		HashMap<String, String> m = MQuery.getPageText(cw, List.of("Foo", "Bar"));
+		assertEquals("Hello, World!", m.get("Foo"));
+		assertEquals("", m.get("Bar"));
+		assertEquals(base + 2, server.getRequestCount());
+
+		// unchanged revision, so only its ID is queried
+		addResponse("mockPageLastRevId");
+
+		m = MQuery.getPageText(cw, List.of("Foo", "Bar"));
+		assertEquals("Hello, World!", m.get("Foo"));
+		assertEquals("", m.get("Bar"));
+		assertEquals(base + 3, server.getRequestCount());
+	}
+
+	/**
+	 * Tests that Wikis on different hosts can share a Disk cache without serving or deleting each other's pages.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testDiskCacheHosts() throws Throwable
+	{
+		ContentCache.Disk d = new ContentCache.Disk(Files.createTempDirectory("jwiki-content"));
+		d.put("en.wikipedia.org", "Foo", 5, "English");
+		d.put("de.wikipedia.org", "Foo", 5, "Deutsch");
+		d.put("de.wikipedia.org", "Foo", 6, "Deutsch, neu");
+
+		assertEquals("English", d.get("en.wikipedia.org", "Foo", 5));
+		assertNull(d.get("de.wikipedia.org", "Foo", 5));
+		assertEquals("Deutsch, neu", d.get("de.wikipedia.org", "Foo", 6));
+		assertNull(d.get("en.wikipedia.org", "Foo", 6));
+	}
+
+	/**
+	 * Tests that cacheable responses are shared through the response cache, even by a new Wiki object.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testResponseCache() throws Throwable
+	{
+		Path dir = Files.createTempDirectory("jwiki-cache");
+
+		addResponse("mockNSInfo");
+		Wiki cw = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withResponseCache(dir, 1024 * 1024).build();
+		int base = server.getRequestCount();
+
+		// namespaces are cached, so a new Wiki does not fetch them again
+		Wiki cw2 = new Wiki.Builder().withApiEndpoint(server.url("/w/api.php")).withResponseCache(dir, 1024 * 1024).build();
+		assertEquals(base, server.getRequestCount());
+		assertEquals(cw.getNS("User"), cw2.getNS("User"));
+
+		// page text is never cached
+		addResponse("mockPageText");
+		addResponse("mockPageText");
+		assertEquals("Hello, World!", cw2.getPageText("Foo"));
+		assertEquals("Hello, World!", cw2.getPageText("Foo"));
+		assertEquals(base + 2, server.getRequestCount());
+	}
+
+	/**
+	 * Tests that Titles are normalized and interned, that page names in case-sensitive namespaces keep their first letter, and that queries keyed by Title return the Titles they were given.
+	 */
+	@Test
+	public void testTitle()
+	{
+		Title t = wiki.getTitle("user_talk: foo__bar ");
+		assertEquals("User talk:Foo bar", t.toString());
+		assertEquals("User_talk:Foo_bar", t.getDBKey());
+		assertEquals("Foo bar", t.getName());
+		assertEquals(NS.USER_TALK, t.getNS());
+		assertSame(t, wiki.getTitle("User talk:Foo bar"));
+
+		assertEquals("File:Foo.jpg", wiki.getTitle("Image:foo.jpg").toString());
+		assertEquals("Main:Foo", wiki.getTitle("main:Foo").toString());
+		assertEquals(NS.MAIN, wiki.getTitle("Foo: the Sequel").getNS());
+		assertEquals("User talk:Foo", wiki.talkPageOf(wiki.getTitle("User:Foo")).toString());
+
+		// Gadget definition is case-sensitive in mockNSInfo
+		assertEquals("Gadget definition:foo.js", wiki.getTitle("gadget_definition:foo.js").toString());
+		assertNotEquals(wiki.getTitle("Gadget definition:foo.js"), wiki.getTitle("Gadget definition:Foo.js"));
+
+		addResponse("mockPageText");
+		Title foo = wiki.getTitle("Foo");
+		HashMap<Title, String> m = MQuery.getPageText(wiki, foo, wiki.getTitle("Bar"));
+		assertEquals("Hello, World!", m.get(foo));
+		assertSame(foo, m.keySet().stream().filter(foo::equals).findFirst().get());
+	}
 }
\ No newline at end of file
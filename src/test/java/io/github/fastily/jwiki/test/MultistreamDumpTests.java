@@ -0,0 +1,240 @@
+package io.github.fastily.jwiki.test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.jupiter.api.Test;
+
+import io.github.fastily.jwiki.core.DumpReader;
+import io.github.fastily.jwiki.core.MultistreamDump;
+import io.github.fastily.jwiki.dwrap.Revision;
+
+/**
+ * Unit tests for MultistreamDump. These run offline, against small multistream dumps which are built on the fly.
+ * 
+ * @author Fastily
+ *
+ */
+public class MultistreamDumpTests
+{
+	/**
+	 * The number of streams of pages in each test dump.
+	 */
+	private static final int streams = 8;
+
+	/**
+	 * The number of pages in each stream of a test dump.
+	 */
+	private static final int perStream = 3;
+
+	/**
+	 * The first stream of each test dump, which opens the {@code mediawiki} element and holds the {@code siteinfo}.
+	 */
+	private static final String header = "<mediawiki xmlns=\"http://www.mediawiki.org/xml/export-0.10/\" version=\"0.10\" xml:lang=\"en\">\n<siteinfo>\n<sitename>Wikipedia</sitename>\n"
+			+ "<dbname>enwiki</dbname>\n<case>first-letter</case>\n<namespaces>\n<namespace key=\"0\" case=\"first-letter\" />\n</namespaces>\n</siteinfo>\n";
+
+	/**
+	 * Builds a multistream dump and its index. Page IDs count up from 1, in dump order, and the text of each page's revision is its page ID.
+	 * 
+	 * @param corrupt The index of a stream of pages to replace with bytes which are not bz2, or -1 to disable.
+	 * @return The dump, and its index at the same path with {@code -index.txt} appended.
+	 * @throws IOException On I/O error
+	 */
+	private static Path multistream(int corrupt) throws IOException
+	{
+		Path dump = Files.createTempFile("jwiki-multistream", ".xml.bz2");
+		StringBuilder index = new StringBuilder();
+
+		try (OutputStream out = Files.newOutputStream(dump))
+		{
+			long offset = 0;
+			offset += writeStream(out, header.getBytes(StandardCharsets.UTF_8));
+
+			for (int s = 0; s < streams; s++)
+			{
+				StringBuilder sb = new StringBuilder();
+				for (int i = 1; i <= perStream; i++)
+				{
+					int id = s * perStream + i;
+					sb.append(String.format("<page>\n<title>Page %d</title>\n<ns>0</ns>\n<id>%d</id>\n<revision>\n<id>%d</id>\n<timestamp>2020-01-01T00:00:00Z</timestamp>\n"
+							+ "<text bytes=\"1\" xml:space=\"preserve\">%d</text>\n</revision>\n</page>\n", id, id, id * 10, id));
+					index.append(String.format("%d:%d:Page %d%n", offset, id, id));
+				}
+
+				byte[] b = sb.toString().getBytes(StandardCharsets.UTF_8);
+				if (s == corrupt)
+				{
+					out.write("this is not bz2".getBytes(StandardCharsets.UTF_8));
+					offset += 15;
+				}
+				else
+					offset += writeStream(out, b);
+			}
+
+			// like Wikimedia's dumps, the closing tag is a stream of its own, which is not in the index
+			writeStream(out, "</mediawiki>\n".getBytes(StandardCharsets.UTF_8));
+		}
+
+		Files.writeString(index(dump), index.toString());
+		return dump;
+	}
+
+	/**
+	 * Compresses {@code b} as a single bz2 stream and writes it to {@code out}.
+	 * 
+	 * @param out The OutputStream to write to
+	 * @param b The bytes to compress
+	 * @return The number of bytes written to {@code out}
+	 * @throws IOException On I/O error
+	 */
+	private static long writeStream(OutputStream out, byte[] b) throws IOException
+	{
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		try (BZip2CompressorOutputStream bz = new BZip2CompressorOutputStream(bo))
+		{
+			bz.write(b);
+		}
+
+		bo.writeTo(out);
+		return bo.size();
+	}
+
+	/**
+	 * Gets the path of the index of a dump built by {@link #multistream(int)}.
+	 * 
+	 * @param dump The dump
+	 * @return The path of the index of {@code dump}
+	 */
+	private static Path index(Path dump)
+	{
+		return dump.resolveSibling(dump.getFileName() + "-index.txt");
+	}
+
+	/**
+	 * Gets the page IDs of a dump built by {@link #multistream(int)}, in dump order.
+	 * 
+	 * @return The page IDs, in dump order
+	 */
+	private static List<Long> ids()
+	{
+		return LongStream.rangeClosed(1, streams * perStream).boxed().collect(Collectors.toList());
+	}
+
+	/**
+	 * Reads the first revision of a page.
+	 * 
+	 * @param p The page
+	 * @return The first revision of {@code p}
+	 */
+	private static Revision first(DumpReader.Page p)
+	{
+		try
+		{
+			return p.nextRevision();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Tests that every page is delivered, along with its revision, when pages are processed in no particular order.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testUnordered() throws Throwable
+	{
+		Path dump = multistream(-1);
+		MultistreamDump md = new MultistreamDump(dump, index(dump)).withParallelism(4);
+		assertEquals("enwiki", md.getHeader().getDBName());
+
+		List<Long> l = Collections.synchronizedList(new ArrayList<>());
+		md.forEachPage(p -> {
+			assertEquals("" + p.info.pageid, first(p).text);
+			l.add(p.info.pageid);
+		});
+
+		ArrayList<Long> sorted = new ArrayList<>(l);
+		Collections.sort(sorted);
+		assertEquals(ids(), sorted);
+	}
+
+	/**
+	 * Tests that pages are delivered in dump order, on the calling thread, with {@code withOrdered(true)}.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testOrdered() throws Throwable
+	{
+		Path dump = multistream(-1);
+		Thread caller = Thread.currentThread();
+
+		ArrayList<Long> l = new ArrayList<>();
+		new MultistreamDump(dump, index(dump)).withParallelism(4).withOrdered(true).forEachPage(p -> {
+			assertSame(caller, Thread.currentThread());
+			assertEquals(p.info.pageid * 10, first(p).revid);
+			l.add(p.info.pageid);
+		});
+
+		assertEquals(ids(), l);
+	}
+
+	/**
+	 * Tests that a stream which is not bz2 fails processing with an IOException, whether or not pages are ordered.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testCorruptStream() throws Throwable
+	{
+		Path dump = multistream(streams / 2);
+
+		assertThrows(IOException.class, () -> new MultistreamDump(dump, index(dump)).withParallelism(4).forEachPage(p -> {
+		}));
+		assertThrows(IOException.class, () -> new MultistreamDump(dump, index(dump)).withParallelism(4).withOrdered(true).forEachPage(p -> {
+		}));
+	}
+
+	/**
+	 * Tests that an exception thrown by the callback stops processing and is rethrown, whether or not pages are ordered.
+	 * 
+	 * @throws Throwable On I/O error
+	 */
+	@Test
+	public void testThrowingCallback() throws Throwable
+	{
+		Path dump = multistream(-1);
+
+		IllegalStateException e = assertThrows(IllegalStateException.class, () -> new MultistreamDump(dump, index(dump)).withParallelism(4).forEachPage(p -> {
+			if (p.info.pageid == 5)
+				throw new IllegalStateException("boom");
+		}));
+		assertEquals("boom", e.getMessage());
+
+		ArrayList<Long> l = new ArrayList<>();
+		e = assertThrows(IllegalStateException.class, () -> new MultistreamDump(dump, index(dump)).withOrdered(true).forEachPage(p -> {
+			if (p.info.pageid == 5)
+				throw new IllegalStateException("boom");
+
+			l.add(p.info.pageid);
+		}));
+		assertEquals("boom", e.getMessage());
+		assertEquals(List.of(1L, 2L, 3L, 4L), l);
+	}
+}
\ No newline at end of file
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 
@@ -91,6 +92,41 @@ public class TPTests
 		assertEquals("<!-- ignore --> ok", t.get("bsdf").toString());
 	}
 
+	/**
+	 * Tests parseText without a round trip to the server
+	 */
+	@Test
+	public void testParseTextLocal()
+	{
+		WikiText wt = WParser.parseText("foo {{Tl<!-- x -->|TEST1|another={{Tlx|1=FOOBAR|n=123456}}|empty=|asdf=test <!-- meh --> abc|<!-- ignore --> bsdf = ok}} bar");
+		ArrayList<WTemplate> wtl = wt.getTemplates();
+		assertEquals(1, wtl.size());
+
+		WTemplate t = wtl.get(0);
+		assertEquals("Tl", t.title);
+		assertEquals("TEST1", t.get("1").toString());
+		assertEquals("{{Tlx|1=FOOBAR|n=123456}}", t.get("another").toString());
+		assertEquals("", t.get("empty").toString());
+		assertEquals("test <!-- meh --> abc", t.get("asdf").toString());
+		assertEquals("ok", t.get("bsdf").toString());
+		assertEquals(2, wt.getTemplatesR().size());
+
+		// links, nowiki, and template parameters don't split parameters
+		t = WParser.parseText("{{Tl|[[File:Example.jpg|thumb|a=b]]|<nowiki>|x=}}</nowiki>|{{{1|{{Tlx}}}}}}}").getTemplates().get(0);
+		assertEquals(FL.toSet(Stream.of("1", "2", "3")), t.keySet());
+		assertEquals("[[File:Example.jpg|thumb|a=b]]", t.get("1").toString());
+		assertEquals("<nowiki>|x=}}</nowiki>", t.get("2").toString());
+		assertEquals("Tlx", t.get("3").getTemplates().get(0).title);
+
+		// equals signs after the first belong to the value
+		assertEquals("y=z", WParser.parseText("{{Tl|x=y=z}}").getTemplates().get(0).get("x").toString());
+
+		// tables and unclosed braces are text
+		wt = WParser.parseText("{|\n|a||b\n|-\n|{{Tl|c}}\n|}\n{{Tlx|[[d}}|e]] {{unclosed");
+		assertEquals("{|\n|a||b\n|-\n|{{Tl|1=c}}\n|}\n{{Tlx|[[d}}|e]] {{unclosed", wt.toString());
+		assertEquals(1, wt.getTemplates().size());
+	}
+
 	/**
 	 * Test for WikiText
 	 */